@@ -0,0 +1,83 @@
+// © 2016-2024 Graylog, Inc.
+
+package io.resurface;
+
+/**
+ * Batch size controller using additive increase and multiplicative decrease. Grows batches while
+ * throughput keeps up, and backs off when throughput drops or batches fail.
+ */
+public class AdaptiveThreshold {
+
+    /**
+     * Initialize controller using bounds, starting from the minimum.
+     * @param min smallest batch threshold, in characters
+     * @param max largest batch threshold, in characters
+     */
+    public AdaptiveThreshold(int min, int max) {
+        if (min < 1) throw new IllegalArgumentException("Invalid min threshold: " + min);
+        if (max < min) throw new IllegalArgumentException("Invalid max threshold: " + max);
+        this.min = min;
+        this.max = max;
+        this.step = Math.max(1024, (max - min) / 16);
+        this.threshold = min;
+    }
+
+    /**
+     * Returns current batch threshold.
+     */
+    public int get() {
+        return threshold;
+    }
+
+    /**
+     * Returns largest batch threshold.
+     */
+    public int getMax() {
+        return max;
+    }
+
+    /**
+     * Returns smallest batch threshold.
+     */
+    public int getMin() {
+        return min;
+    }
+
+    /**
+     * Returns smoothed throughput of full batches, in characters per second.
+     */
+    public synchronized double getThroughput() {
+        return throughput;
+    }
+
+    /**
+     * Adjusts threshold using result of a batch. Only full batches say anything about capacity,
+     * since partial batches are sent whenever the queue runs dry.
+     */
+    public synchronized void record(int size, long elapsed_nanos, boolean success, boolean full) {
+        if (!success) {
+            threshold = Math.max(min, threshold / 2);
+            return;
+        }
+        if (!full) return;
+        double observed = size / (Math.max(elapsed_nanos, 1) / 1e9);
+        if (throughput == 0 || observed >= throughput * HOLD_RATIO) {
+            threshold = Math.min(max, threshold + step);
+        } else if (observed < throughput * DECREASE_RATIO) {
+            threshold = Math.max(min, (int) (threshold * DECREASE_FACTOR));
+        }
+        throughput = (throughput == 0) ? observed : throughput * (1 - SMOOTHING) + observed * SMOOTHING;
+    }
+
+    private static final double DECREASE_FACTOR = 0.75;
+    private static final double DECREASE_RATIO = 0.7;
+    private static final double HOLD_RATIO = 0.95;
+    private static final double SMOOTHING = 0.3;
+
+    private final int max;
+    private final int min;
+    private final int step;
+    private volatile int threshold;
+    private double throughput = 0;
+
+}
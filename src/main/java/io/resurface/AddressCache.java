@@ -0,0 +1,105 @@
+// © 2016-2024 Graylog, Inc.
+
+package io.resurface;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Resolved address of a collector, kept for a time-to-live and refreshed in the background once it expires,
+ * so that opening a connection never waits on DNS after the first lookup.
+ */
+public class AddressCache {
+
+    /**
+     * Initialize cache for host and port, keeping each resolved address for ttl milliseconds.
+     */
+    public AddressCache(String host, int port, long ttl_millis) {
+        if (ttl_millis < 0) throw new IllegalArgumentException("Invalid ttl millis: " + ttl_millis);
+        this.host = host;
+        this.port = port;
+        this.ttl_millis = ttl_millis;
+    }
+
+    /**
+     * Returns cached address, resolving it now if never resolved. An expired address is still returned
+     * while a fresh one is resolved in the background, and is kept if that lookup fails.
+     */
+    public InetSocketAddress get() throws UnknownHostException {
+        Entry e = entry;
+        if (e == null) return resolve();
+        if (System.currentTimeMillis() >= e.expires && refreshing.compareAndSet(false, true)) {
+            Thread refresher = new Thread(() -> {
+                try {
+                    resolve();
+                } catch (UnknownHostException ex) {
+                    // keep last known address, and try again once another ttl has passed
+                    entry = new Entry(e.address, System.currentTimeMillis() + ttl_millis);
+                } finally {
+                    refreshing.set(false);
+                }
+            }, "resurface-resolver");
+            refresher.setDaemon(true);
+            refresher.start();
+        }
+        return e.address;
+    }
+
+    /**
+     * Returns host being resolved.
+     */
+    public String getHost() {
+        return host;
+    }
+
+    /**
+     * Returns count of lookups made, including failed ones.
+     */
+    public int getLookups() {
+        return lookups.get();
+    }
+
+    /**
+     * Returns milliseconds that each resolved address is kept.
+     */
+    public long getTtlMillis() {
+        return ttl_millis;
+    }
+
+    /**
+     * Looks up host now and caches its address.
+     */
+    public InetSocketAddress resolve() throws UnknownHostException {
+        lookups.incrementAndGet();
+        InetSocketAddress address = new InetSocketAddress(InetAddress.getByName(host), port);
+        entry = new Entry(address, System.currentTimeMillis() + ttl_millis);
+        return address;
+    }
+
+    /**
+     * Address with the time it expires.
+     */
+    private static final class Entry {
+
+        Entry(InetSocketAddress address, long expires) {
+            this.address = address;
+            this.expires = expires;
+        }
+
+        final InetSocketAddress address;
+        final long expires;
+    }
+
+    static final long DEFAULT_TTL = 60000;
+
+    private volatile Entry entry;
+    private final String host;
+    private final AtomicInteger lookups = new AtomicInteger();
+    private final int port;
+    private final AtomicBoolean refreshing = new AtomicBoolean(false);
+    private final long ttl_millis;
+
+}
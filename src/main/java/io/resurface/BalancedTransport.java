@@ -0,0 +1,439 @@
+// © 2016-2024 Graylog, Inc.
+
+package io.resurface;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Transport that spreads batches across several collectors, favoring those with the fewest batches outstanding
+ * and the lowest latency. Collectors that keep failing are ejected for a cooldown, then rejoin once they succeed.
+ * When hedging, a batch that takes longer than its collector's p99 latency is also sent to another collector,
+ * both copies carrying the same idempotency key so the collectors can drop whichever arrives second.
+ */
+public class BalancedTransport implements Transport {
+
+    /**
+     * Ways of choosing the collector for the next batch.
+     */
+    public enum Selection {LEAST_OUTSTANDING, TWO_CHOICES}
+
+    /**
+     * Initialize transport for logger using collector urls.
+     */
+    public BalancedTransport(BaseLogger logger, List<URL> urls) {
+        this(endpoints(logger, urls));
+    }
+
+    /**
+     * Initialize transport using endpoints, which must have distinct names.
+     */
+    public BalancedTransport(List<Endpoint> endpoints) {
+        if (endpoints == null || endpoints.isEmpty()) throw new IllegalArgumentException("Invalid endpoints: none");
+        this.endpoints = Collections.unmodifiableList(new ArrayList<>(endpoints));
+    }
+
+    /**
+     * Sends batch to selected collector, failing over once to another collector if that one fails.
+     * Every copy carries the same new idempotency key, since the first collector may have kept a batch it failed.
+     */
+    @Override
+    public boolean send(String batch) {
+        return send(batch, HttpTransport.idempotencyKey());
+    }
+
+    /**
+     * Sends batch with idempotency key to selected collector, hedging or failing over to another collector.
+     */
+    @Override
+    public boolean send(String batch, String idempotency_key) {
+        Endpoint first = select(null);
+        long delay = hedging ? first.getHedgeDelay() : -1;
+        if (delay < 0) {
+            if (first.send(batch, idempotency_key, this)) return true;
+            Endpoint second = select(first);
+            return second != null && second.send(batch, idempotency_key, this);
+        }
+
+        CompletableFuture<Boolean> primary =
+                CompletableFuture.supplyAsync(() -> first.send(batch, idempotency_key, this), hedgers);
+        try {
+            if (primary.get(delay, TimeUnit.MILLISECONDS)) return true;
+        } catch (TimeoutException e) {
+            // slower than usual for this collector, so hedge below
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return primary.join();
+        } catch (ExecutionException e) {
+            return false;  // not expected, since endpoints record failures rather than throw
+        }
+        Endpoint second = select(first);
+        if (second == null) return primary.join();
+        if (primary.isDone()) return primary.join() || second.send(batch, idempotency_key, this);
+
+        hedges_fired.incrementAndGet();
+        CompletableFuture<Boolean> hedge =
+                CompletableFuture.supplyAsync(() -> second.send(batch, idempotency_key, this), hedgers);
+        CompletableFuture<Boolean> first_accepted = new CompletableFuture<>();
+        AtomicBoolean settled = new AtomicBoolean(false);
+        AtomicInteger refused = new AtomicInteger();
+        primary.thenAccept(accepted -> {
+            if (accepted) {
+                if (settled.compareAndSet(false, true)) first_accepted.complete(true);
+            } else if (refused.incrementAndGet() == 2) {
+                first_accepted.complete(false);
+            }
+        });
+        hedge.thenAccept(accepted -> {
+            if (accepted) {
+                if (settled.compareAndSet(false, true)) {
+                    hedges_won.incrementAndGet();  // counted before the caller is released
+                    first_accepted.complete(true);
+                }
+            } else if (refused.incrementAndGet() == 2) {
+                first_accepted.complete(false);
+            }
+        });
+        return first_accepted.join();
+    }
+
+    /**
+     * Returns number of batches worth keeping in flight at once, which is the sum of every collector's limit.
+     */
+    @Override
+    public int getMaxInFlight() {
+        int sum = 0;
+        for (Endpoint e : endpoints) sum += Math.max(1, e.transport.getMaxInFlight());
+        return sum;
+    }
+
+    /**
+     * Returns collectors in the order they were given.
+     */
+    public List<Endpoint> getEndpoints() {
+        return endpoints;
+    }
+
+    /**
+     * Returns consecutive failures that eject a collector.
+     */
+    public int getEjectionFailures() {
+        return ejection_failures;
+    }
+
+    /**
+     * Returns milliseconds that an ejected collector is skipped before it is tried again.
+     */
+    public long getEjectionMillis() {
+        return ejection_millis;
+    }
+
+    /**
+     * Returns count of batches that were also sent to a second collector after exceeding their p99 latency.
+     */
+    public int getHedgesFired() {
+        return hedges_fired.get();
+    }
+
+    /**
+     * Returns count of hedged batches where the second collector accepted the batch first.
+     */
+    public int getHedgesWon() {
+        return hedges_won.get();
+    }
+
+    /**
+     * Returns true if slow batches are also sent to a second collector.
+     */
+    public boolean isHedging() {
+        return hedging;
+    }
+
+    /**
+     * Returns way of choosing the collector for the next batch.
+     */
+    public Selection getSelection() {
+        return selection;
+    }
+
+    /**
+     * Sets consecutive failures that eject a collector, and milliseconds before it is tried again.
+     */
+    public void setEjection(int failures, long millis) {
+        if (failures < 1) throw new IllegalArgumentException("Invalid ejection failures: " + failures);
+        if (millis < 0) throw new IllegalArgumentException("Invalid ejection millis: " + millis);
+        this.ejection_failures = failures;
+        this.ejection_millis = millis;
+    }
+
+    /**
+     * Sets if batches that exceed their collector's p99 latency are also sent to a second collector, trading
+     * some duplicate load for shorter tail latency. Collectors should drop batches with a repeated idempotency key.
+     */
+    public synchronized void setHedging(boolean hedging) {
+        if (hedging && hedgers == null) {
+            hedgers = Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(r, "resurface-hedger");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        this.hedging = hedging;
+    }
+
+    /**
+     * Sets way of choosing the collector for the next batch.
+     */
+    public void setSelection(Selection selection) {
+        if (selection == null) throw new IllegalArgumentException("Invalid selection: null");
+        this.selection = selection;
+    }
+
+    /**
+     * Warms up every collector, failing only if none could be reached.
+     */
+    @Override
+    public void warmUp() throws IOException {
+        IOException failure = null;
+        boolean reached = false;
+        for (Endpoint e : endpoints) {
+            try {
+                e.transport.warmUp();
+                reached = true;
+            } catch (IOException ex) {
+                failure = ex;
+            }
+        }
+        if (!reached && failure != null) throw failure;
+    }
+
+    /**
+     * Closes connections held by every collector.
+     */
+    @Override
+    public void close() {
+        for (Endpoint e : endpoints) e.transport.close();
+    }
+
+    /**
+     * Returns collector for the next batch, or null if none remain besides the excluded one. Ejected collectors
+     * are only chosen when every other collector is ejected too, so batches are never refused outright.
+     */
+    private Endpoint select(Endpoint excluded) {
+        long now = System.currentTimeMillis();
+        List<Endpoint> candidates = new ArrayList<>(endpoints.size());
+        for (Endpoint e : endpoints) if (e != excluded && !e.isEjected(now)) candidates.add(e);
+        if (candidates.isEmpty()) {
+            Endpoint soonest = null;
+            for (Endpoint e : endpoints) {
+                if (e != excluded && (soonest == null || e.ejected_until < soonest.ejected_until)) soonest = e;
+            }
+            return soonest;
+        }
+        int size = candidates.size();
+        if (size == 1) return candidates.get(0);
+        if (selection == Selection.TWO_CHOICES) {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            int a = random.nextInt(size);
+            int b = random.nextInt(size - 1);
+            if (b >= a) b++;
+            Endpoint first = candidates.get(a);
+            Endpoint second = candidates.get(b);
+            return (second.getCost() < first.getCost()) ? second : first;
+        }
+        // rotate starting point so ties don't always land on the same collector
+        int start = Math.floorMod(next.getAndIncrement(), size);
+        Endpoint best = null;
+        for (int i = 0; i < size; i++) {
+            Endpoint e = candidates.get((start + i) % size);
+            if (best == null || e.getOutstanding() < best.getOutstanding()
+                    || (e.getOutstanding() == best.getOutstanding() && e.getLatencyMillis() < best.getLatencyMillis())) {
+                best = e;
+            }
+        }
+        return best;
+    }
+
+    private static List<Endpoint> endpoints(BaseLogger logger, List<URL> urls) {
+        if (urls == null) throw new IllegalArgumentException("Invalid urls: null");
+        List<Endpoint> endpoints = new ArrayList<>(urls.size());
+        for (URL url : urls) endpoints.add(new Endpoint(url.toString(), new HttpTransport(logger, url)));
+        return endpoints;
+    }
+
+    /**
+     * Collector with its own transport and delivery stats.
+     */
+    public static final class Endpoint {
+
+        /**
+         * Initialize endpoint using name and transport.
+         */
+        public Endpoint(String name, Transport transport) {
+            if (transport == null) throw new IllegalArgumentException("Invalid transport: null");
+            this.name = name;
+            this.transport = transport;
+        }
+
+        /**
+         * Returns milliseconds to wait before hedging a batch sent here, or -1 until enough batches are recorded.
+         */
+        public long getHedgeDelay() {
+            return latencies.timeout(-1, 1, MIN_HEDGE_MILLIS, Long.MAX_VALUE);
+        }
+
+        /**
+         * Returns recent times taken by accepted batches.
+         */
+        public LatencyTracker getLatencies() {
+            return latencies;
+        }
+
+        /**
+         * Returns smoothed time taken by batches, in milliseconds.
+         */
+        public synchronized double getLatencyMillis() {
+            return latency_millis;
+        }
+
+        /**
+         * Returns count of times this collector was ejected.
+         */
+        public int getEjections() {
+            return ejections.get();
+        }
+
+        /**
+         * Returns count of batches this collector failed.
+         */
+        public int getFailures() {
+            return failures.get();
+        }
+
+        /**
+         * Returns name of this collector, which is its url for HTTP collectors.
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Returns count of batches currently being sent to this collector.
+         */
+        public int getOutstanding() {
+            return outstanding.get();
+        }
+
+        /**
+         * Returns count of batches this collector accepted.
+         */
+        public int getSuccesses() {
+            return successes.get();
+        }
+
+        /**
+         * Returns transport used to reach this collector.
+         */
+        public Transport getTransport() {
+            return transport;
+        }
+
+        /**
+         * Returns true if this collector is currently skipped after failing repeatedly.
+         */
+        public boolean isEjected() {
+            return isEjected(System.currentTimeMillis());
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+
+        boolean isEjected(long now) {
+            return now < ejected_until;
+        }
+
+        /**
+         * Returns expected cost of sending another batch here, which grows with latency and outstanding batches.
+         */
+        double getCost() {
+            return (getLatencyMillis() + 1) * (getOutstanding() + 1);
+        }
+
+        /**
+         * Sends batch and records result, returning true if the collector accepted it.
+         */
+        boolean send(String batch, String idempotency_key, BalancedTransport balancer) {
+            outstanding.incrementAndGet();
+            long started = System.nanoTime();
+            boolean accepted;
+            try {
+                accepted = (idempotency_key == null) ? transport.send(batch) : transport.send(batch, idempotency_key);
+            } catch (Exception e) {
+                accepted = false;
+            } finally {
+                outstanding.decrementAndGet();
+            }
+            record(accepted, (System.nanoTime() - started) / 1e6, balancer);
+            return accepted;
+        }
+
+        private synchronized void record(boolean accepted, double elapsed_millis, BalancedTransport balancer) {
+            // failures are often quick refusals, which mustn't make a broken collector look fast
+            if (!accepted) elapsed_millis = Math.max(elapsed_millis, Math.max(1, latency_millis * 2));
+            latency_millis = (latency_millis == 0) ? elapsed_millis
+                    : latency_millis * (1 - SMOOTHING) + elapsed_millis * SMOOTHING;
+            if (accepted) {
+                latencies.record((long) elapsed_millis);
+                successes.incrementAndGet();
+                consecutive_failures = 0;
+                ejected_until = 0;
+            } else {
+                failures.incrementAndGet();
+                // rejoined collector is ejected again by its first failure, since its count was never reset
+                if (++consecutive_failures >= balancer.ejection_failures) {
+                    ejected_until = System.currentTimeMillis() + balancer.ejection_millis;
+                    ejections.incrementAndGet();
+                }
+            }
+        }
+
+        private static final long MIN_HEDGE_MILLIS = 2;
+        private static final double SMOOTHING = 0.2;
+
+        private int consecutive_failures = 0;
+        private final AtomicInteger ejections = new AtomicInteger();
+        private volatile long ejected_until = 0;
+        private final AtomicInteger failures = new AtomicInteger();
+        private final LatencyTracker latencies = new LatencyTracker(HttpPoster.TRACKED_SAMPLES);
+        private double latency_millis = 0;
+        private final String name;
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private final AtomicInteger successes = new AtomicInteger();
+        private final Transport transport;
+    }
+
+    private volatile int ejection_failures = 3;
+    private volatile long ejection_millis = 10000;
+    private final List<Endpoint> endpoints;
+    private ExecutorService hedgers;
+    private final AtomicInteger hedges_fired = new AtomicInteger();
+    private final AtomicInteger hedges_won = new AtomicInteger();
+    private volatile boolean hedging = false;
+    private final AtomicInteger next = new AtomicInteger();
+    private volatile Selection selection = Selection.TWO_CHOICES;
+
+}
@@ -2,16 +2,16 @@
 
 package io.resurface;
 
-import java.io.OutputStream;
-import java.net.HttpURLConnection;
 import java.net.InetAddress;
 import java.net.URL;
-import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Deflater;
 
 /**
  * Basic usage logger to embed or extend.
@@ -54,6 +54,7 @@ public class BaseLogger<T extends BaseLogger> {
         this.host = host_lookup();
         this.version = version_lookup();
         this.queue = null;
+        this.transport = null;
 
         // set options in priority order
         this.enabled = enabled;
@@ -64,14 +65,21 @@ public class BaseLogger<T extends BaseLogger> {
             this.url = url;
         }
 
-        // validate url when present
+        // validate url when present, which may list several collectors separated by commas
         if (this.url != null) {
             try {
-                this.url_parsed = new URL(this.url);
-                if (!this.url_parsed.getProtocol().contains("http")) throw new RuntimeException();
+                List<URL> urls = new ArrayList<>();
+                for (String u : this.url.split(",")) {
+                    URL parsed = new URL(u.trim());
+                    if (!parsed.getProtocol().contains("http")) throw new RuntimeException();
+                    urls.add(parsed);
+                }
+                this.url_parsed = urls.get(0);
+                this.transport = (urls.size() == 1) ? new HttpTransport(this, this.url_parsed) : new BalancedTransport(this, urls);
             } catch (Exception e) {
                 this.url = null;
                 this.url_parsed = null;
+                this.transport = null;
                 this.enabled = false;
             }
         }
@@ -79,6 +87,7 @@ public class BaseLogger<T extends BaseLogger> {
         // finalize internal properties
         this.enableable = (this.url != null);
         this.max_queue_depth = max_queue_depth;
+        warm_up();
     }
 
     /**
@@ -105,12 +114,42 @@ public class BaseLogger<T extends BaseLogger> {
         this.version = version_lookup();
         this.enabled = enabled;
         this.queue = queue;
+        this.transport = (queue == null) ? null : new ListTransport(queue);
         this.url = null;
         this.enableable = (this.queue != null);
         this.max_queue_depth = max_queue_depth;
         setMessageQueue();
     }
 
+    /**
+     * Initialize enabled logger using transport.
+     */
+    public BaseLogger(String agent, Transport transport) {
+        this(agent, transport, true);
+    }
+
+    /**
+     * Initialize enabled/disabled logger using transport.
+     */
+    public BaseLogger(String agent, Transport transport, boolean enabled) {
+        this(agent, transport, enabled, 128);
+    }
+
+    /**
+     * Initialize enabled/disabled logger using transport.
+     */
+    public BaseLogger(String agent, Transport transport, boolean enabled, int max_queue_depth) {
+        this.agent = agent;
+        this.host = host_lookup();
+        this.version = version_lookup();
+        this.queue = null;
+        this.transport = transport;
+        this.url = null;
+        this.enableable = (this.transport != null);
+        this.enabled = enabled && this.enableable;
+        this.max_queue_depth = max_queue_depth;
+    }
+
     /**
      * Disable this logger.
      */
@@ -148,6 +187,55 @@ public class BaseLogger<T extends BaseLogger> {
         return queue;
     }
 
+    /**
+     * Returns controller that tunes batch threshold at runtime, or null if threshold is fixed.
+     */
+    public AdaptiveThreshold getAdaptiveThreshold() {
+        return adaptive_threshold;
+    }
+
+    /**
+     * Returns breaker that tracks recent batch results and stops capture while the destination is failing.
+     */
+    public CircuitBreaker getCircuitBreaker() {
+        return breaker;
+    }
+
+    /**
+     * Returns codec used when compressing messages.
+     */
+    public Codec getCodec() {
+        return codec;
+    }
+
+    /**
+     * Returns codec actually applied to batches, which is identity when compression is skipped.
+     */
+    public Codec getEffectiveCodec() {
+        return skip_compression ? Codec.IDENTITY : codec;
+    }
+
+    /**
+     * Returns true if deflate uses the preset dictionary of common message keys.
+     */
+    public boolean getCompressionDictionary() {
+        return compression_dictionary;
+    }
+
+    /**
+     * Returns deflate level used when compressing messages.
+     */
+    public int getCompressionLevel() {
+        return compression_level;
+    }
+
+    /**
+     * Returns deflate strategy used when compressing messages.
+     */
+    public int getCompressionStrategy() {
+        return compression_strategy;
+    }
+
     /**
      * Returns true if message compression is being skipped.
      */
@@ -155,6 +243,13 @@ public class BaseLogger<T extends BaseLogger> {
         return skip_compression;
     }
 
+    /**
+     * Returns true if messages are streamed into chunked requests as they are dequeued.
+     */
+    public boolean getStreaming() {
+        return streaming;
+    }
+
     /**
      * Returns true if message submission is being skipped.
      */
@@ -162,6 +257,13 @@ public class BaseLogger<T extends BaseLogger> {
         return skip_submission;
     }
 
+    /**
+     * Returns transport used to send messages.
+     */
+    public Transport getTransport() {
+        return transport;
+    }
+
     /**
      * Returns url destination where messages are sent.
      */
@@ -176,6 +278,79 @@ public class BaseLogger<T extends BaseLogger> {
         return version;
     }
 
+    /**
+     * Returns dispatcher most recently started for this logger, or null if never started.
+     */
+    public Dispatcher getDispatcher() {
+        return dispatcher;
+    }
+
+    /**
+     * Returns background warm-up most recently started for this logger, or null if never started.
+     */
+    public CompletableFuture<Boolean> getWarmUp() {
+        return warm_up;
+    }
+
+    /**
+     * Returns milliseconds that dispatcher keeps filling a batch before sending it, or zero to send once the queue runs dry.
+     */
+    public long getLingerMillis() {
+        return linger_millis;
+    }
+
+    /**
+     * Returns longest time in milliseconds that a message waits in a batch being filled, or zero if unbounded.
+     */
+    public long getMaxLatencyMillis() {
+        return max_latency_millis;
+    }
+
+    /**
+     * Returns milliseconds left in the pause requested by the collector, or zero if dispatch isn't paused.
+     */
+    public long getThrottleMillis() {
+        return Math.max(0, throttled_until - System.currentTimeMillis());
+    }
+
+    /**
+     * Returns maximum number of batches that dispatcher keeps in flight, as set on this logger or else as
+     * suited to its transport.
+     */
+    public int getMaxInFlight() {
+        if (max_in_flight > 0) return max_in_flight;
+        Transport transport = this.transport;
+        return (transport == null) ? 1 : Math.max(1, transport.getMaxInFlight());
+    }
+
+    /**
+     * Returns largest request body that dispatcher sends, counted in UTF-8 bytes before compression, or zero if unbounded.
+     */
+    public int getMaxRequestBytes() {
+        return max_request_bytes;
+    }
+
+    /**
+     * Returns separate destination for messages too large for one request, or null if they are truncated instead.
+     */
+    public Transport getOversizeTransport() {
+        return oversize_transport;
+    }
+
+    /**
+     * Returns maximum size of failed batches that dispatcher holds for retry, counted in characters.
+     */
+    public long getMaxRetryBytes() {
+        return max_retry_bytes;
+    }
+
+    /**
+     * Returns disk overflow for messages that don't fit in the message queue, or null if none.
+     */
+    public SpillFile getSpillFile() {
+        return spill_file;
+    }
+
     /**
      * Returns bounded queue used as message buffer for background submissions.
      * @return Message bounded queue.
@@ -198,11 +373,69 @@ public class BaseLogger<T extends BaseLogger> {
         return enabled && UsageLoggers.isEnabled();
     }
 
+    /**
+     * Returns true if the collector asked for dispatch to pause, and that pause hasn't ended yet.
+     */
+    public boolean isThrottled() {
+        return getThrottleMillis() > 0;
+    }
+
     /**
      * Returns true if the worker thread is currently alive.
      */
     public boolean isWorkerAlive() { return worker.isAlive(); }
 
+    /**
+     * Tunes batch threshold between bounds using observed throughput, applied when dispatcher is next started.
+     * @param min smallest batch threshold, in characters
+     * @param max largest batch threshold, in characters
+     */
+    public void setAdaptiveBatching(int min, int max) {
+        this.adaptive_threshold = new AdaptiveThreshold(min, max);
+    }
+
+    /**
+     * Replaces breaker used to stop capture while the destination is failing.
+     */
+    public void setCircuitBreaker(CircuitBreaker breaker) {
+        if (breaker == null) throw new IllegalArgumentException("Invalid circuit breaker: null");
+        this.breaker = breaker;
+    }
+
+    /**
+     * Sets codec used when compressing messages.
+     */
+    public void setCodec(Codec codec) {
+        if (codec == null) throw new IllegalArgumentException("Invalid codec: null");
+        this.codec = codec;
+    }
+
+    /**
+     * Sets if deflate uses the preset dictionary of common message keys. Collector must accept NdjsonDictionary.ID.
+     */
+    public void setCompressionDictionary(boolean compression_dictionary) {
+        this.compression_dictionary = compression_dictionary;
+    }
+
+    /**
+     * Sets deflate level used when compressing messages, from Deflater.BEST_SPEED to Deflater.BEST_COMPRESSION.
+     */
+    public void setCompressionLevel(int compression_level) {
+        if ((compression_level < 0 || compression_level > 9) && compression_level != Deflater.DEFAULT_COMPRESSION)
+            throw new IllegalArgumentException("Invalid compression level: " + compression_level);
+        this.compression_level = compression_level;
+    }
+
+    /**
+     * Sets deflate strategy used when compressing messages, like Deflater.FILTERED.
+     */
+    public void setCompressionStrategy(int compression_strategy) {
+        if (compression_strategy != Deflater.DEFAULT_STRATEGY && compression_strategy != Deflater.FILTERED
+                && compression_strategy != Deflater.HUFFMAN_ONLY)
+            throw new IllegalArgumentException("Invalid compression strategy: " + compression_strategy);
+        this.compression_strategy = compression_strategy;
+    }
+
     /**
      * Sets if message compression will be skipped.
      */
@@ -210,6 +443,89 @@ public class BaseLogger<T extends BaseLogger> {
         this.skip_compression = skip_compression;
     }
 
+    /**
+     * Replaces transport used to send messages, for example with one created by HttpTransport.http2.
+     */
+    public void setTransport(Transport transport) {
+        this.transport = transport;
+    }
+
+    /**
+     * Sets milliseconds that dispatcher keeps filling a batch before sending it, unless the batch reaches its
+     * size threshold first. When zero, batches are sent once the queue has stayed dry for two milliseconds,
+     * so a burst of submits from another thread isn't split into partial batches.
+     */
+    public void setLingerMillis(long linger_millis) {
+        if (linger_millis < 0) throw new IllegalArgumentException("Invalid linger millis: " + linger_millis);
+        this.linger_millis = linger_millis;
+    }
+
+    /**
+     * Sets longest time in milliseconds that a message waits in a batch being filled, or zero if unbounded.
+     * Unlike the linger window, this bound is kept even while every in-flight batch is still waiting on the destination.
+     */
+    public void setMaxLatencyMillis(long max_latency_millis) {
+        if (max_latency_millis < 0) throw new IllegalArgumentException("Invalid max latency millis: " + max_latency_millis);
+        this.max_latency_millis = max_latency_millis;
+    }
+
+    /**
+     * Sets maximum number of batches that dispatcher keeps in flight, applied when dispatcher is next started.
+     * Until set, the transport's own limit is used.
+     */
+    public void setMaxInFlight(int max_in_flight) {
+        if (max_in_flight < 1) throw new IllegalArgumentException("Invalid max in flight: " + max_in_flight);
+        this.max_in_flight = max_in_flight;
+    }
+
+    /**
+     * Sets largest request body that dispatcher sends, counted in UTF-8 bytes before compression, or zero if unbounded.
+     * Batches are closed early rather than grow past this size, and larger messages are truncated or diverted.
+     * Unbounded by default, so batches are only limited by the dispatcher threshold.
+     */
+    public void setMaxRequestBytes(int max_request_bytes) {
+        if (max_request_bytes != 0 && max_request_bytes < MIN_REQUEST_BYTES) {
+            throw new IllegalArgumentException("Invalid max request bytes: " + max_request_bytes);
+        }
+        this.max_request_bytes = max_request_bytes;
+    }
+
+    /**
+     * Sets separate destination for messages too large for one request, or null to truncate them instead.
+     * Each diverted message is sent on its own, on the dispatcher thread.
+     */
+    public void setOversizeTransport(Transport oversize_transport) {
+        this.oversize_transport = oversize_transport;
+    }
+
+    /**
+     * Sets maximum size of failed batches that dispatcher holds for retry, or zero to drop failed batches.
+     * Zero by default, so failed batches are only retried once this is set.
+     */
+    public void setMaxRetryBytes(long max_retry_bytes) {
+        if (max_retry_bytes < 0) throw new IllegalArgumentException("Invalid max retry bytes: " + max_retry_bytes);
+        this.max_retry_bytes = max_retry_bytes;
+    }
+
+    /**
+     * Sets disk overflow for messages that don't fit in the message queue, or null to block when it is full.
+     * Messages that don't fit in the file either are dropped and counted. Messages left in the file by a
+     * previous run are dispatched right away.
+     */
+    public void setSpillFile(SpillFile spill_file) {
+        this.spill_file = spill_file;
+        if (spill_file != null && !spill_file.isEmpty() && queue == null && (worker == null || !worker.isAlive())) {
+            init_dispatcher();
+        }
+    }
+
+    /**
+     * Sets if messages will be streamed into chunked requests as they are dequeued, when supported by transport.
+     */
+    public void setStreaming(boolean streaming) {
+        this.streaming = streaming;
+    }
+
     /**
      * Sets if message submission will be skipped.
      */
@@ -244,6 +560,18 @@ public class BaseLogger<T extends BaseLogger> {
         if (queue == null && (worker == null || !worker.isAlive())) {
             init_dispatcher();
         }
+        SpillFile spill = this.spill_file;
+        if (spill != null) {
+            // once anything has spilled, keep appending there so messages are dispatched in order
+            if (spill.isEmpty() && this.msg_queue.offer(msg)) return;
+            if (!spill.offer(msg)) submit_dropped.incrementAndGet();  // queueing it now would jump ahead of the file
+            return;
+        }
+        if (isThrottled()) {
+            // collector asked us to back off, so shed messages rather than block the app while the queue is full
+            if (!this.msg_queue.offer(msg)) submit_dropped.incrementAndGet();
+            return;
+        }
         try {
             this.msg_queue.put(msg);
         } catch (InterruptedException e) {
@@ -251,55 +579,145 @@ public class BaseLogger<T extends BaseLogger> {
         }
     }
 
+    /**
+     * Pauses dispatch for milliseconds requested by the collector, extending any pause already in effect.
+     * Pauses are capped at MAX_THROTTLE_MILLIS, so a misbehaving collector can't stop dispatch for good.
+     */
+    public synchronized void throttle(long millis) {
+        submit_throttled.incrementAndGet();
+        long until = System.currentTimeMillis() + Math.max(0, Math.min(millis, MAX_THROTTLE_MILLIS));
+        if (until > throttled_until) throttled_until = until;
+    }
+
     /**
      * Sends JSON message to intended destination.
      */
     public void dispatch(String msg) {
-        if (msg == null || this.skip_submission || !isEnabled()) {
-            // do nothing
-        } else if (queue != null) {
-            queue.add(msg);
-            submit_successes.incrementAndGet();
-        } else {
-            try {
-                HttpURLConnection url_connection = (HttpURLConnection) this.url_parsed.openConnection();
-                url_connection.setConnectTimeout(5000);
-                url_connection.setReadTimeout(1000);
-                url_connection.setRequestMethod("POST");
-                url_connection.setRequestProperty("Content-Type", "application/ndjson; charset=UTF-8");
-                url_connection.setRequestProperty("User-Agent", "Resurface/" + version + " (" + agent + ")");
-                url_connection.setDoOutput(true);
-                if (!this.skip_compression) url_connection.setRequestProperty("Content-Encoding", "deflated");
-                try (OutputStream os = url_connection.getOutputStream()) {
-                    if (this.skip_compression) {
-                        os.write(msg.getBytes(StandardCharsets.UTF_8));
-                    } else {
-                        try (DeflaterOutputStream dos = new DeflaterOutputStream(os, true)) {
-                            dos.write(msg.getBytes(StandardCharsets.UTF_8));
-                            dos.finish();
-                            dos.flush();
-                        }
-                    }
-                    os.flush();
-                }
-                if (url_connection.getResponseCode() == 204) {
-                    submit_successes.incrementAndGet();
-                } else {
-                    submit_failures.incrementAndGet();
-                }
-            } catch (Exception e) {
+        dispatchAsync(msg).join();
+    }
+
+    /**
+     * Starts sending JSON message to intended destination, completing once submission counts are updated.
+     * Completes with false only when the destination failed, so the message is worth sending again.
+     */
+    public CompletableFuture<Boolean> dispatchAsync(String msg) {
+        if (msg == null || !isSending()) return CompletableFuture.completedFuture(true);
+        return attemptAsync(msg).thenApply(success -> {
+            if (success) {
+                submit_successes.incrementAndGet();
+            } else {
                 submit_failures.incrementAndGet();
             }
+            return success;
+        });
+    }
+
+    /**
+     * Starts one attempt at sending batch, recording its result with the circuit breaker but not in submission
+     * counts, since the dispatcher counts each batch once it is delivered or abandoned.
+     */
+    CompletableFuture<Boolean> attemptAsync(String msg) {
+        CompletableFuture<Boolean> sent;
+        try {
+            sent = transport.sendAsync(msg);
+        } catch (Exception e) {
+            breaker.record(false);
+            return CompletableFuture.completedFuture(false);
+        }
+        return sent.handle((accepted, e) -> {
+            boolean success = e == null && accepted;
+            breaker.record(success);
+            return success;
+        });
+    }
+
+    /**
+     * Returns true if batches are sent to the transport, rather than discarded.
+     */
+    boolean isSending() {
+        return !skip_submission && isEnabled();
+    }
+
+    /**
+     * Takes idle compressor configured with current level and strategy. Only one is ever created
+     * unless several batches are in flight at once.
+     */
+    Compressor takeCompressor() {
+        Compressor c;
+        synchronized (compressors) {
+            c = compressors.pollLast();
+        }
+        if (c == null) c = new Compressor(compression_level, compression_strategy);
+        c.configure(compression_level, compression_strategy);
+        c.setDictionary(compression_dictionary ? NdjsonDictionary.BYTES : null);
+        return c;
+    }
+
+    /**
+     * Returns compressor for reuse by the next batch.
+     */
+    void releaseCompressor(Compressor c) {
+        synchronized (compressors) {
+            compressors.addLast(c);
         }
     }
 
     /**
-     * Returns count of submissions that failed.
+     * Returns count of messages dropped because the queue was full while the collector asked us to back off.
+     */
+    public int getSubmitDropped() {
+        return submit_dropped.get();
+    }
+
+    /**
+     * Returns count of messages too large for one request that were sent to the oversize transport.
+     */
+    public int getSubmitDiverted() {
+        return submit_diverted.get();
+    }
+
+    /**
+     * Returns count of submissions that failed. A batch held for retry counts once, only when it is abandoned.
      */
     public int getSubmitFailures() {
         return submit_failures.get();
     }
 
+    /**
+     * Returns count of failed batches that were dropped without being delivered.
+     */
+    public int getSubmitAbandoned() {
+        return submit_abandoned.get();
+    }
+
+    /**
+     * Returns count of failed batches that were delivered by a later retry.
+     */
+    public int getSubmitRecoveries() {
+        return submit_recoveries.get();
+    }
+
+    /**
+     * Returns count of retries sent for failed batches.
+     */
+    public int getSubmitRetries() {
+        return submit_retries.get();
+    }
+
+    /**
+     * Returns count of batches that the collector refused because it was overloaded.
+     */
+    public int getSubmitThrottled() {
+        return submit_throttled.get();
+    }
+
+    /**
+     * Returns count of messages too large for one request that had values shortened to fit.
+     */
+    public int getSubmitTruncated() {
+        return submit_truncated.get();
+    }
+
     /**
      * Returns count of submissions that succeeded.
      */
@@ -319,18 +737,55 @@ public class BaseLogger<T extends BaseLogger> {
      * @param batchSize threshold for the NDJSON batch
      */
     public void init_dispatcher(int batchSize) {
+        this.init_dispatcher(batchSize, getMaxInFlight());
+    }
+
+    /**
+     * Initializes message queue and starts dispatcher thread.
+     * @param batchSize threshold for the NDJSON batch
+     * @param max_in_flight maximum number of batches sent concurrently
+     */
+    public void init_dispatcher(int batchSize, int max_in_flight) {
         setMessageQueue();
-        worker = new Thread(new Dispatcher(this, batchSize));
+        dispatcher = new Dispatcher(this, batchSize, max_in_flight);
+        worker = new Thread(dispatcher);
         worker.start();
     }
 
+    /**
+     * Resolves and connects to the destination on a background thread, so the first batch is sent at
+     * steady-state latency. Completes with true once connected, or false if disabled or unreachable.
+     */
+    public CompletableFuture<Boolean> warm_up() {
+        CompletableFuture<Boolean> warming = new CompletableFuture<>();
+        this.warm_up = warming;
+        Transport transport = this.transport;
+        if (transport == null || !isEnabled() || skip_submission) {
+            warming.complete(false);
+            return warming;
+        }
+        Thread warmer = new Thread(() -> {
+            try {
+                transport.warmUp();
+                warming.complete(true);
+            } catch (Exception e) {
+                warming.complete(false);  // first batch will connect instead
+            }
+        }, "resurface-warm-up");
+        warmer.setDaemon(true);
+        warmer.start();
+        return warming;
+    }
+
     /**
      * Stops worker thread using poison pill.
      */
     public void stop_dispatcher() {
         try {
+            throttled_until = 0;  // make a last attempt rather than waiting out a pause
             msg_queue.put("POISON PILL");
             worker.join();
+            if (transport != null) transport.close();
         } catch (InterruptedException e) {
             e.printStackTrace();
         }
@@ -356,19 +811,48 @@ public class BaseLogger<T extends BaseLogger> {
         return "2.2.1";
     }
 
+    static final long MAX_THROTTLE_MILLIS = 60000;
+    static final int MIN_REQUEST_BYTES = 1024;
+
     protected final String agent;
+    protected volatile AdaptiveThreshold adaptive_threshold;
+    protected volatile CircuitBreaker breaker = new CircuitBreaker();
+    protected Codec codec = Codec.DEFLATE;
+    protected volatile boolean compression_dictionary = false;
+    protected int compression_level = Deflater.DEFAULT_COMPRESSION;
+    protected int compression_strategy = Deflater.DEFAULT_STRATEGY;
+    private final ArrayDeque<Compressor> compressors = new ArrayDeque<>();
     protected boolean enableable;
     protected boolean enabled;
     protected final String host;
     protected final List<String> queue;
     protected boolean skip_compression = false;
     protected boolean skip_submission = false;
+    protected boolean streaming = false;
+    protected final AtomicInteger submit_abandoned = new AtomicInteger();
+    protected final AtomicInteger submit_diverted = new AtomicInteger();
+    protected final AtomicInteger submit_dropped = new AtomicInteger();
     protected final AtomicInteger submit_failures = new AtomicInteger();
+    protected final AtomicInteger submit_recoveries = new AtomicInteger();
+    protected final AtomicInteger submit_retries = new AtomicInteger();
     protected final AtomicInteger submit_successes = new AtomicInteger();
+    protected final AtomicInteger submit_throttled = new AtomicInteger();
+    protected final AtomicInteger submit_truncated = new AtomicInteger();
+    protected volatile long throttled_until = 0;
+    protected volatile Transport transport;
     protected String url;
     protected URL url_parsed;
     protected final String version;
     protected int max_queue_depth;
     protected BlockingQueue<String> msg_queue;
+    protected int max_in_flight = 0;
+    protected volatile long linger_millis = 0;
+    protected volatile long max_latency_millis = 0;
+    protected volatile int max_request_bytes = 0;
+    protected volatile long max_retry_bytes = 0;
+    protected volatile Transport oversize_transport;
+    private volatile Dispatcher dispatcher;
+    protected volatile SpillFile spill_file;
+    private volatile CompletableFuture<Boolean> warm_up;
     private Thread worker;
 }
@@ -0,0 +1,32 @@
+// © 2016-2024 Graylog, Inc.
+
+package io.resurface;
+
+import java.io.IOException;
+
+/**
+ * Batch written to its destination one message at a time.
+ */
+public interface BatchWriter {
+
+    /**
+     * Encodes message and newline into the batch.
+     */
+    void write(String msg) throws IOException;
+
+    /**
+     * Returns number of characters written so far.
+     */
+    long size();
+
+    /**
+     * Completes batch, returning true if the destination accepted it.
+     */
+    boolean finish() throws IOException;
+
+    /**
+     * Abandons batch after a failure.
+     */
+    void abort();
+
+}
@@ -0,0 +1,151 @@
+// © 2016-2024 Graylog, Inc.
+
+package io.resurface;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Stops message capture while most recent batches are failing, so requests don't pay for messages that
+ * can't be delivered. After a cooldown, a few trial messages are captured to probe the collector.
+ */
+public class CircuitBreaker {
+
+    /**
+     * Breaker states.
+     */
+    public enum State {CLOSED, OPEN, HALF_OPEN}
+
+    /**
+     * Initialize breaker using default limits.
+     */
+    public CircuitBreaker() {
+        this(20, 10, 0.5, 5000, 10);
+    }
+
+    /**
+     * Initialize breaker using custom limits.
+     * @param window number of recent batch results considered
+     * @param min_results results needed before the failure rate can open the breaker
+     * @param failure_rate fraction of failed results that opens the breaker
+     * @param open_millis time spent open before trial messages are captured
+     * @param trial_messages messages captured while half-open, before waiting for their result
+     */
+    public CircuitBreaker(int window, int min_results, double failure_rate, long open_millis, int trial_messages) {
+        if (window < 1) throw new IllegalArgumentException("Invalid window: " + window);
+        if (min_results < 1 || min_results > window) throw new IllegalArgumentException("Invalid min results: " + min_results);
+        if (failure_rate <= 0 || failure_rate > 1) throw new IllegalArgumentException("Invalid failure rate: " + failure_rate);
+        if (open_millis < 0) throw new IllegalArgumentException("Invalid open millis: " + open_millis);
+        if (trial_messages < 1) throw new IllegalArgumentException("Invalid trial messages: " + trial_messages);
+        this.results = new boolean[window];
+        this.min_results = min_results;
+        this.failure_rate = failure_rate;
+        this.open_millis = open_millis;
+        this.trial_messages = trial_messages;
+    }
+
+    /**
+     * Returns true if message should be captured, or false if capture should be skipped entirely.
+     */
+    public boolean allowCapture() {
+        if (state == State.CLOSED) return true;
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            if (state == State.OPEN && now - opened_at >= open_millis) {
+                transition(State.HALF_OPEN);
+                opened_at = now;
+                trials = 0;
+            } else if (state == State.HALF_OPEN && trials >= trial_messages && now - opened_at >= open_millis) {
+                // trial messages never produced a result, for example when rules dropped them all
+                opened_at = now;
+                trials = 0;
+            }
+            if (state == State.HALF_OPEN && trials < trial_messages) {
+                trials++;
+                return true;
+            }
+            if (state == State.CLOSED) return true;
+        }
+        short_circuited.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Records result of a delivered or failed batch.
+     */
+    public synchronized void record(boolean success) {
+        if (state == State.HALF_OPEN) {
+            if (success) {
+                transition(State.CLOSED);
+                count = 0;
+                failures = 0;
+                next = 0;
+            } else {
+                open();
+            }
+            return;
+        }
+        if (state == State.OPEN) return;  // results of batches captured before opening
+        if (count == results.length) {
+            if (!results[next]) failures--;
+        } else {
+            count++;
+        }
+        results[next] = success;
+        if (!success) failures++;
+        next = (next + 1) % results.length;
+        if (count >= min_results && failures >= failure_rate * count) open();
+    }
+
+    /**
+     * Returns fraction of recent results that failed.
+     */
+    public synchronized double getFailureRate() {
+        return (count == 0) ? 0 : (double) failures / count;
+    }
+
+    /**
+     * Returns count of messages not captured because breaker was open.
+     */
+    public int getShortCircuited() {
+        return short_circuited.get();
+    }
+
+    /**
+     * Returns current state.
+     */
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * Returns count of transitions into state.
+     */
+    public int getTransitions(State to) {
+        return transitions[to.ordinal()].get();
+    }
+
+    private void open() {
+        transition(State.OPEN);
+        opened_at = System.currentTimeMillis();
+    }
+
+    private void transition(State to) {
+        state = to;
+        transitions[to.ordinal()].incrementAndGet();
+    }
+
+    private int count = 0;
+    private final double failure_rate;
+    private int failures = 0;
+    private final int min_results;
+    private int next = 0;
+    private final long open_millis;
+    private long opened_at;
+    private final boolean[] results;
+    private final AtomicInteger short_circuited = new AtomicInteger();
+    private volatile State state = State.CLOSED;
+    private final AtomicInteger[] transitions = {new AtomicInteger(), new AtomicInteger(), new AtomicInteger()};
+    private final int trial_messages;
+    private int trials = 0;
+
+}
@@ -0,0 +1,51 @@
+// © 2016-2024 Graylog, Inc.
+
+package io.resurface;
+
+/**
+ * Encodings available for NDJSON batches sent to the collector.
+ */
+public enum Codec {
+
+    /**
+     * Uncompressed payload.
+     */
+    IDENTITY(null),
+
+    /**
+     * Zlib-wrapped deflate, the encoding historically used by all loggers.
+     */
+    DEFLATE("deflated"),
+
+    /**
+     * Standard gzip, larger header than deflate but understood by any proxy.
+     */
+    GZIP("gzip"),
+
+    /**
+     * LZ4 frames with independent 64 KB blocks, for hosts where deflate takes too much CPU.
+     */
+    LZ4("lz4");
+
+    Codec(String content_encoding) {
+        this.content_encoding = content_encoding;
+    }
+
+    /**
+     * Returns value for Content-Encoding header, or null if payload is not encoded.
+     */
+    public String getContentEncoding() {
+        return content_encoding;
+    }
+
+    /**
+     * Returns codec matching name as used in rules, like "gzip".
+     */
+    public static Codec parse(String name) {
+        for (Codec c : values()) if (c.name().equalsIgnoreCase(name)) return c;
+        throw new IllegalArgumentException("Invalid codec: " + name);
+    }
+
+    private final String content_encoding;
+
+}
@@ -0,0 +1,239 @@
+// © 2016-2024 Graylog, Inc.
+
+package io.resurface;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Long-lived compressor state and output buffer, reset and reused for every batch.
+ */
+public class Compressor {
+
+    /**
+     * Initialize compressor using default level and strategy.
+     */
+    public Compressor() {
+        this(Deflater.DEFAULT_COMPRESSION, Deflater.DEFAULT_STRATEGY);
+    }
+
+    /**
+     * Initialize compressor using level and strategy.
+     */
+    public Compressor(int level, int strategy) {
+        this.deflater = new Deflater(level);
+        this.deflater.setStrategy(strategy);
+        this.level = level;
+        this.strategy = strategy;
+    }
+
+    /**
+     * Updates level and strategy used for the next batch.
+     */
+    public void configure(int level, int strategy) {
+        if (level != this.level) {
+            deflater.setLevel(level);
+            if (raw_deflater != null) raw_deflater.setLevel(level);
+            this.level = level;
+        }
+        if (strategy != this.strategy) {
+            deflater.setStrategy(strategy);
+            if (raw_deflater != null) raw_deflater.setStrategy(strategy);
+            this.strategy = strategy;
+        }
+    }
+
+    /**
+     * Sets preset dictionary used for zlib deflate, or null to compress without one.
+     */
+    public void setDictionary(byte[] dictionary) {
+        this.dictionary = dictionary;
+    }
+
+    /**
+     * Compresses input into internal buffer using zlib deflate, returning number of compressed bytes.
+     */
+    public int deflate(byte[] input, int offset, int length) {
+        getDeflater();
+        deflater.setInput(input, offset, length);
+        deflater.finish();
+        return drain(deflater, 0);
+    }
+
+    /**
+     * Encodes input into internal buffer using codec, returning number of encoded bytes.
+     */
+    public int encode(Codec codec, byte[] input, int offset, int length) {
+        switch (codec) {
+            case DEFLATE:
+                return deflate(input, offset, length);
+            case GZIP:
+                System.arraycopy(GZIP_HEADER, 0, buffer, 0, GZIP_HEADER.length);
+                Deflater raw = getRawDeflater();
+                raw.setInput(input, offset, length);
+                raw.finish();
+                int size = drain(raw, GZIP_HEADER.length);
+                crc.reset();
+                crc.update(input, offset, length);
+                ensureCapacity(size + 8);
+                Lz4.writeIntLE(buffer, size, (int) crc.getValue());
+                Lz4.writeIntLE(buffer, size + 4, length);
+                return size + 8;
+            case LZ4:
+                ensureCapacity(Lz4.maxFrameLength(length));
+                return Lz4.compressFrame(input, offset, length, buffer, 0, getLz4Table());
+            default:
+                ensureCapacity(length);
+                System.arraycopy(input, offset, buffer, 0, length);
+                return length;
+        }
+    }
+
+    /**
+     * Returns stream that encodes into out using codec. Complete the stream with finish.
+     */
+    public OutputStream stream(Codec codec, OutputStream out) throws IOException {
+        switch (codec) {
+            case DEFLATE:
+                return new DeflaterOutputStream(out, getDeflater(), 8192);
+            case GZIP:
+                return new GzipOutputStream(out, getRawDeflater(), crc);
+            case LZ4:
+                return new Lz4.FrameOutputStream(out, getLz4Table());
+            default:
+                return out;
+        }
+    }
+
+    /**
+     * Writes any trailing data for stream created by this compressor, without closing underlying stream.
+     */
+    public static void finish(OutputStream stream) throws IOException {
+        if (stream instanceof DeflaterOutputStream) {
+            ((DeflaterOutputStream) stream).finish();
+        } else if (stream instanceof Lz4.FrameOutputStream) {
+            ((Lz4.FrameOutputStream) stream).finish();
+        }
+    }
+
+    /**
+     * Returns buffer holding output of the last call to deflate or encode.
+     */
+    public byte[] getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * Returns reset zlib deflater, for compressing a stream rather than a single buffer.
+     */
+    public Deflater getDeflater() {
+        deflater.reset();
+        if (dictionary != null) deflater.setDictionary(dictionary);
+        return deflater;
+    }
+
+    /**
+     * Returns preset dictionary used for zlib deflate, or null if none.
+     */
+    public byte[] getDictionary() {
+        return dictionary;
+    }
+
+    /**
+     * Returns current compression level.
+     */
+    public int getLevel() {
+        return level;
+    }
+
+    /**
+     * Returns current compression strategy.
+     */
+    public int getStrategy() {
+        return strategy;
+    }
+
+    /**
+     * Releases native compressor resources.
+     */
+    public void end() {
+        deflater.end();
+        if (raw_deflater != null) raw_deflater.end();
+    }
+
+    private int drain(Deflater d, int size) {
+        while (!d.finished()) {
+            if (size == buffer.length) buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            size += d.deflate(buffer, size, buffer.length - size);
+        }
+        return size;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (buffer.length < capacity) buffer = Arrays.copyOf(buffer, Math.max(capacity, buffer.length * 2));
+    }
+
+    private Deflater getRawDeflater() {
+        if (raw_deflater == null) {
+            raw_deflater = new Deflater(level, true);
+            raw_deflater.setStrategy(strategy);
+        }
+        raw_deflater.reset();
+        return raw_deflater;
+    }
+
+    private int[] getLz4Table() {
+        if (lz4_table == null) lz4_table = Lz4.newTable();
+        return lz4_table;
+    }
+
+    /**
+     * Gzip stream using a reusable raw deflater, since GZIPOutputStream always allocates its own.
+     */
+    private static class GzipOutputStream extends DeflaterOutputStream {
+
+        GzipOutputStream(OutputStream out, Deflater raw, CRC32 crc) throws IOException {
+            super(out, raw, 8192);
+            this.crc = crc;
+            crc.reset();
+            out.write(GZIP_HEADER);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            super.write(b, off, len);
+            crc.update(b, off, len);
+            length += len;
+        }
+
+        @Override
+        public void finish() throws IOException {
+            if (!def.finished()) {
+                super.finish();
+                byte[] trailer = new byte[8];
+                Lz4.writeIntLE(trailer, 0, (int) crc.getValue());
+                Lz4.writeIntLE(trailer, 4, (int) length);
+                out.write(trailer);
+            }
+        }
+
+        private final CRC32 crc;
+        private long length = 0;
+    }
+
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+    private byte[] buffer = new byte[16 * 1024];
+    private byte[] dictionary;
+    private final CRC32 crc = new CRC32();
+    private final Deflater deflater;
+    private int level;
+    private int[] lz4_table;
+    private Deflater raw_deflater;
+    private int strategy;
+
+}
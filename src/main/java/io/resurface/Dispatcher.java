@@ -1,6 +1,17 @@
 package io.resurface;
 
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class Dispatcher implements Runnable {
 
@@ -10,45 +21,572 @@ public class Dispatcher implements Runnable {
      * @param threshold NDJSON buffer max size - flushAndDispatch will be triggered after reaching this point.
      */
     public Dispatcher(BaseLogger logger, int threshold) {
+        this(logger, threshold, 1);
+    }
+
+    /**
+     * Initialize dispatcher using buffer size and number of batches allowed in flight.
+     * @param logger Resurface logger.
+     * @param threshold NDJSON buffer max size - flushAndDispatch will be triggered after reaching this point.
+     * @param max_in_flight Batches sent concurrently - batches may reach the destination out of order when above 1.
+     */
+    public Dispatcher(BaseLogger logger, int threshold, int max_in_flight) {
+        if (max_in_flight < 1) throw new IllegalArgumentException("Invalid max in flight: " + max_in_flight);
         this.logger = logger;
+        this.adaptive = logger.getAdaptiveThreshold();
         this.batchingThreshold = threshold;
-        this.buffer = new StringBuilder(this.batchingThreshold + 5 * 1024);
+        this.buffer = new StringBuilder(getBatchThreshold() + 5 * 1024);
+        this.max_in_flight = max_in_flight;
+        this.in_flight = new Semaphore(max_in_flight);
+        this.senders = (max_in_flight == 1) ? null : Executors.newFixedThreadPool(max_in_flight, r -> {
+            Thread t = new Thread(r, "resurface-sender");
+            t.setDaemon(true);
+            return t;
+        });
     }
 
     public void run() {
+        if (logger.getStreaming() && logger.getTransport() instanceof StreamingTransport) {
+            runStreaming();
+            return;
+        }
         try {
             while (true) {
-                if (buffer.length() >= batchingThreshold || logger.msg_queue.peek() == null) {
-                    flushAndDispatch();
+                long throttled = logger.getThrottleMillis();
+                boolean deferred = false;
+                if (throttled > 0) {
+                    // collector asked for a pause, so fill the batch but send nothing, then let the queue back up
+                    if (isFull()) {
+                        Thread.sleep(Math.min(throttled, THROTTLE_POLL_MILLIS));
+                        continue;
+                    }
+                } else {
+                    deferred = resendDue();
+                    if (isFull() || isOverdue()) {
+                        in_flight.acquire();
+                        flushAndDispatch();
+                    } else if (buffer.length() != 0 && isLingered()) {
+                        // keep accumulating while every permit is taken, rather than waiting on the destination
+                        if (in_flight.tryAcquire()) {
+                            flushAndDispatch();
+                        } else {
+                            deferred = true;
+                        }
+                    }
                 }
-                String msg = (String) logger.msg_queue.take();
+                long wait = (throttled > 0) ? Math.min(throttled, THROTTLE_POLL_MILLIS)
+                        : flushWait(deferred ? DEFERRED_POLL_MILLIS : retryWait());
+                String msg = nextMessage(wait);
+                if (msg == null) continue;
                 if (msg.equals("POISON PILL")) {
+                    in_flight.acquire();
                     flushAndDispatch();
+                    awaitPending();
+                    abandonRetries();
                     break;
                 }
-                buffer.append(msg).append("\n");
+                append(msg);
             }
         } catch (InterruptedException e) {
+            do {
+                in_flight.acquireUninterruptibly();
                 flushAndDispatch();
+            } while (buffer.length() != 0);  // held message starts another batch
+            awaitPending();
+            abandonRetries();
+        } finally {
+            if (senders != null) senders.shutdown();
+        }
+    }
+
+    /**
+     * Writes messages straight into an open batch as they are dequeued, finishing the batch once it reaches
+     * the size threshold or has been open for MAX_STREAM_MILLIS. Only one batch is in flight at a time.
+     */
+    private void runStreaming() {
+        BatchWriter writer = null;
+        long opened = 0;
+        long streamed = 0;
+        try {
+            while (true) {
+                String msg;
+                if (writer == null) {
+                    msg = nextMessage(-1);
+                    if (msg == null) continue;
+                    // collector asked for a pause, so hold this message rather than opening a batch
+                    while (!msg.equals("POISON PILL") && logger.isThrottled()) {
+                        Thread.sleep(Math.min(logger.getThrottleMillis(), THROTTLE_POLL_MILLIS) + 1);
+                    }
+                } else {
+                    long remaining = opened + MAX_STREAM_MILLIS - System.currentTimeMillis();
+                    msg = (remaining > 0) ? nextMessage(remaining) : null;
+                    if (msg == null) {
+                        finishStream(writer);
+                        writer = null;
+                        continue;
+                    }
+                }
+                if (msg.equals("POISON PILL")) break;
+                int max = logger.getMaxRequestBytes();
+                int bytes = 0;
+                if (max > 0) {
+                    bytes = Json.utf8Length(msg, 0, msg.length()) + 1;
+                    if (bytes > max) {
+                        msg = oversize(msg, max);
+                        if (msg == null) continue;
+                        bytes = Json.utf8Length(msg, 0, msg.length()) + 1;
+                    }
+                    if (writer != null && streamed + bytes > max) {
+                        finishStream(writer);
+                        writer = null;
+                    }
+                }
+                if (writer == null) {
+                    writer = openStream();
+                    opened = System.currentTimeMillis();
+                    streamed = 0;
+                    if (writer == null) continue;
+                }
+                try {
+                    writer.write(msg);
+                    streamed += bytes;
+                } catch (Exception e) {
+                    writer.abort();
+                    writer = null;
+                    logger.submit_failures.incrementAndGet();
+                    logger.breaker.record(false);
+                    continue;
+                }
+                if (writer.size() >= getBatchThreshold()) {
+                    finishStream(writer);
+                    writer = null;
+                }
+            }
+        } catch (InterruptedException e) {
+            // finish below
+        } finally {
+            if (writer != null) finishStream(writer);
+            if (senders != null) senders.shutdown();
         }
     }
 
+    /**
+     * Adds message to current batch, or holds it for the next batch when it would take the current one past
+     * max request bytes.
+     */
+    private void append(String msg) {
+        int max = logger.getMaxRequestBytes();
+        int bytes = 0;
+        if (max > 0) {
+            bytes = Json.utf8Length(msg, 0, msg.length()) + 1;
+            if (bytes > max) {
+                msg = oversize(msg, max);
+                if (msg == null) return;
+                bytes = Json.utf8Length(msg, 0, msg.length()) + 1;
+            }
+            if (buffer.length() != 0 && buffer_bytes + bytes > max) {
+                held = msg;
+                return;
+            }
+        }
+        long now = System.nanoTime();
+        if (buffer.length() == 0) buffer_started = now;
+        buffer_appended = now;
+        buffer.append(msg).append("\n");
+        buffer_bytes += bytes;
+        buffer_messages++;
+    }
+
+    /**
+     * Handles message too large for a request by itself, either diverting it to the oversize transport and
+     * returning null, or returning it truncated to fit when there is no such transport.
+     */
+    private String oversize(String msg, int max) {
+        if (logger.skip_submission || !logger.isEnabled()) return msg;  // discarded anyway
+        Transport oversize = logger.getOversizeTransport();
+        if (oversize != null) {
+            boolean diverted;
+            try {
+                diverted = oversize.send(msg + "\n");
+            } catch (Exception e) {
+                diverted = false;
+            }
+            if (diverted) {
+                logger.submit_diverted.incrementAndGet();
+            } else {
+                logger.submit_failures.incrementAndGet();
+            }
+            return null;
+        }
+        String truncated = Json.truncate(msg, max - 1);
+        if (truncated == null) {
+            logger.submit_failures.incrementAndGet();  // too many fields to fit, even with empty values
+        } else {
+            logger.submit_truncated.incrementAndGet();
+        }
+        return truncated;
+    }
+
+    /**
+     * Returns true if current batch should be sent, because it reached its threshold or can't take the next message.
+     */
+    private boolean isFull() {
+        return held != null || buffer.length() >= getBatchThreshold();
+    }
+
+    /**
+     * Opens streamed batch, or returns null when messages are being discarded or the destination failed.
+     */
+    private BatchWriter openStream() {
+        if (logger.skip_submission || !logger.isEnabled()) return null;
+        try {
+            return ((StreamingTransport) logger.getTransport()).open();
+        } catch (Exception e) {
+            logger.submit_failures.incrementAndGet();
+            logger.breaker.record(false);
+            return null;
+        }
+    }
+
+    /**
+     * Completes streamed batch and updates submission counts.
+     */
+    private void finishStream(BatchWriter writer) {
+        boolean success;
+        try {
+            success = writer.finish();
+        } catch (Exception e) {
+            writer.abort();
+            success = false;
+        }
+        if (success) {
+            logger.submit_successes.incrementAndGet();
+        } else {
+            logger.submit_failures.incrementAndGet();
+        }
+        logger.breaker.record(success);
+    }
+
+    /**
+     * Returns next message from queue, then from spill file, waiting up to given milliseconds (or
+     * indefinitely if negative) when both are empty. Spill file isn't read while batches are failing.
+     */
+    private String nextMessage(long wait) throws InterruptedException {
+        String msg = (String) logger.msg_queue.poll();
+        if (msg != null) return msg;
+        SpillFile spill = logger.spill_file;
+        if (spill != null && !spill.isEmpty()) {
+            if (retries.isEmpty()) {
+                msg = spill.poll();
+                if (msg != null) return msg;
+            }
+            wait = (wait < 0) ? SPILL_POLL_MILLIS : Math.min(wait, SPILL_POLL_MILLIS);
+        }
+        return (wait < 0) ? (String) logger.msg_queue.take()
+                : (String) logger.msg_queue.poll(wait, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns true if no message is ready to be added to the current batch.
+     */
+    private boolean isIdle() {
+        if (logger.msg_queue.peek() != null) return false;
+        SpillFile spill = logger.spill_file;
+        return spill == null || spill.isEmpty() || !retries.isEmpty();
+    }
+
+    /**
+     * Returns true if current batch has waited out the linger window, which without a window means once no
+     * message has been ready to add for IDLE_MILLIS. Checking the queue alone would race with a thread that
+     * is still submitting, and send part of its burst as a batch of its own.
+     */
+    private boolean isLingered() {
+        long linger = logger.getLingerMillis();
+        return (linger == 0) ? isIdle() && getIdleMillis() >= IDLE_MILLIS : getBatchAge() >= linger;
+    }
+
+    /**
+     * Returns milliseconds since last message was added to current batch.
+     */
+    private long getIdleMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - buffer_appended);
+    }
+
+    /**
+     * Returns true if oldest message in current batch has waited as long as the logger allows.
+     */
+    private boolean isOverdue() {
+        long max_latency = logger.getMaxLatencyMillis();
+        return max_latency > 0 && buffer.length() != 0 && getBatchAge() >= max_latency;
+    }
+
+    /**
+     * Returns milliseconds since first message was added to current batch.
+     */
+    private long getBatchAge() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - buffer_started);
+    }
+
+    /**
+     * Shortens wait for next message so current batch is sent when its linger window, idle grace or latency bound
+     * runs out.
+     */
+    private long flushWait(long wait) {
+        if (buffer.length() == 0) return wait;
+        long linger = logger.getLingerMillis();
+        long max_latency = logger.getMaxLatencyMillis();
+        long due = Long.MAX_VALUE;
+        if (linger > 0) due = linger;
+        if (max_latency > 0) due = Math.min(due, max_latency);
+        if (due != Long.MAX_VALUE) due = Math.max(1, due - getBatchAge());
+        if (linger == 0) due = Math.min(due, Math.max(1, IDLE_MILLIS - getIdleMillis()));
+        return (wait < 0) ? due : Math.min(wait, due);
+    }
+
+    /**
+     * Returns average number of messages in batches sent so far, not counting retries.
+     */
+    public double getAverageBatchMessages() {
+        long count = batch_count.get();
+        return (count == 0) ? 0 : (double) batch_message_count.get() / count;
+    }
+
+    /**
+     * Returns number of batches sent so far, not counting retries.
+     */
+    public long getBatchCount() {
+        return batch_count.get();
+    }
+
+    /**
+     * Returns size that closes the current batch, which changes over time when using adaptive batching.
+     */
+    public int getBatchThreshold() {
+        return (adaptive == null) ? batchingThreshold : adaptive.get();
+    }
+
+    /**
+     * Returns number of batches currently in flight.
+     */
+    public int getInFlight() {
+        return max_in_flight - in_flight.availablePermits();
+    }
+
+    /**
+     * Returns maximum number of batches sent concurrently.
+     */
+    public int getMaxInFlight() {
+        return max_in_flight;
+    }
+
+    /**
+     * Returns total size of failed batches waiting to be retried, counted in characters.
+     */
+    public long getRetryBytes() {
+        return retry_bytes.get();
+    }
+
+    /**
+     * Returns number of failed batches waiting to be retried.
+     */
+    public int getRetryCount() {
+        return retries.size();
+    }
+
     /**
      * Builds message as an NDJSON-formatted string, and dispatches it. Buffer is reset.
+     * Caller must hold an in-flight permit, which is released once the batch completes.
      */
     private void flushAndDispatch() {
-        if (buffer.length() != 0) {
-            if (buffer.length() >= batchingThreshold) full_buffer_count.incrementAndGet();
-            if (logger.msg_queue.peek() == null) empty_queue_count.incrementAndGet();
-            String msg = buffer.toString();
-            buffer = new StringBuilder();
-            logger.dispatch(msg);
+        if (buffer.length() == 0) {
+            in_flight.release();
+            return;
+        }
+        boolean full = isFull();
+        if (full) full_buffer_count.incrementAndGet();
+        if (logger.msg_queue.peek() == null) empty_queue_count.incrementAndGet();
+        batch_count.incrementAndGet();
+        batch_message_count.addAndGet(buffer_messages);
+        String msg = buffer.toString();
+        buffer = new StringBuilder();
+        buffer_bytes = 0;
+        buffer_messages = 0;
+        send(msg, 0, full);
+        if (held != null) {
+            String next = held;
+            held = null;
+            append(next);
+        }
+    }
+
+    /**
+     * Sends batch, holding it for retry if the destination fails. Caller must hold an in-flight permit.
+     * Each batch counts once as a success or failure, when it is delivered or abandoned.
+     */
+    private void send(String msg, int attempt, boolean full) {
+        if (!logger.isSending()) {
+            in_flight.release();
+            return;
+        }
+        long started = System.nanoTime();
+        CompletableFuture<Boolean> dispatched;
+        if (senders == null) {
+            dispatched = logger.attemptAsync(msg);
+        } else {
+            dispatched = CompletableFuture.supplyAsync(() -> logger.attemptAsync(msg), senders)
+                    .thenCompose(f -> f);
+        }
+        // retry is queued before the batch stops counting as pending, so shutdown can't miss it
+        CompletableFuture<Void> sent = dispatched.thenAccept(accepted -> {
+            if (adaptive != null) adaptive.record(msg.length(), System.nanoTime() - started, accepted, full);
+            if (!accepted) {
+                retryLater(msg, attempt + 1);
+                return;
+            }
+            logger.submit_successes.incrementAndGet();
+            if (attempt > 0) logger.submit_recoveries.incrementAndGet();
+        });
+        if (sent.isDone()) {
+            in_flight.release();
+        } else {
+            pending.add(sent);
+            sent.whenComplete((r, e) -> {
+                pending.remove(sent);
+                in_flight.release();
+            });
+        }
+    }
+
+    /**
+     * Waits until all batches still in flight have completed.
+     */
+    private void awaitPending() {
+        for (CompletableFuture<Void> sent : pending) sent.join();
+    }
+
+    /**
+     * Holds failed batch until its backoff expires, or abandons it when out of attempts or retry space.
+     */
+    private void retryLater(String msg, int attempt) {
+        if (attempt > MAX_RETRIES || !reserveRetryBytes(msg.length())) {
+            logger.submit_abandoned.incrementAndGet();
+            logger.submit_failures.incrementAndGet();
+            return;
+        }
+        retries.add(new Retry(msg, attempt, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(backoff(attempt))));
+    }
+
+    /**
+     * Claims space for batch in retry buffer, returning false if it would exceed the logger's limit.
+     */
+    private boolean reserveRetryBytes(long length) {
+        long limit = logger.getMaxRetryBytes();
+        while (true) {
+            long current = retry_bytes.get();
+            if (current + length > limit) return false;
+            if (retry_bytes.compareAndSet(current, current + length)) return true;
+        }
+    }
+
+    /**
+     * Returns exponential backoff with jitter, so loggers that failed together don't retry together.
+     */
+    static long backoff(int attempt) {
+        long ceiling = Math.min(RETRY_MAX_MILLIS, RETRY_BASE_MILLIS << Math.min(attempt - 1, 16));
+        return ceiling / 2 + ThreadLocalRandom.current().nextLong(ceiling / 2 + 1);
+    }
+
+    /**
+     * Resends batches whose backoff has expired, returning true if one is still waiting for a permit.
+     */
+    private boolean resendDue() {
+        while (true) {
+            Retry due = retries.peek();
+            if (due == null || due.getDelay(TimeUnit.NANOSECONDS) > 0) return false;
+            if (!in_flight.tryAcquire()) return true;
+            due = retries.poll();
+            if (due == null) {
+                in_flight.release();
+                return false;
+            }
+            retry_bytes.addAndGet(-due.msg.length());
+            logger.submit_retries.incrementAndGet();
+            send(due.msg, due.attempt, false);
         }
     }
 
+    /**
+     * Returns milliseconds to wait for the next message before checking retries, or -1 to wait indefinitely.
+     */
+    private long retryWait() {
+        Retry next = retries.peek();
+        if (next != null) return Math.max(1, Math.min(RETRY_POLL_MILLIS, next.getDelay(TimeUnit.MILLISECONDS)));
+        return pending.isEmpty() ? -1 : RETRY_POLL_MILLIS;
+    }
+
+    /**
+     * Drops batches still waiting to be retried, since backing off would stall shutdown.
+     */
+    private void abandonRetries() {
+        logger.submit_abandoned.addAndGet(retries.size());
+        logger.submit_failures.addAndGet(retries.size());
+        retries.clear();
+        retry_bytes.set(0);
+    }
+
+    /**
+     * Failed batch waiting in retry buffer until its backoff expires.
+     */
+    private static final class Retry implements Delayed {
+
+        Retry(String msg, int attempt, long due_nanos) {
+            this.msg = msg;
+            this.attempt = attempt;
+            this.due_nanos = due_nanos;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(due_nanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            return Long.compare(due_nanos, ((Retry) other).due_nanos);
+        }
+
+        final int attempt;
+        final long due_nanos;
+        final String msg;
+    }
+
+    private static final long DEFERRED_POLL_MILLIS = 5;
+    static final long IDLE_MILLIS = 2;
+    static final int MAX_RETRIES = 6;
+    static final long RETRY_BASE_MILLIS = 250;
+    static final long RETRY_MAX_MILLIS = 30000;
+    private static final long RETRY_POLL_MILLIS = 50;
+    private static final long SPILL_POLL_MILLIS = 50;
+    private static final long THROTTLE_POLL_MILLIS = 50;
+    static final long MAX_STREAM_MILLIS = 1000;
+
     private final BaseLogger logger;
     private StringBuilder buffer;
+    private long buffer_appended;
+    private long buffer_bytes = 0;
+    private int buffer_messages = 0;
+    private long buffer_started;
+    private final AdaptiveThreshold adaptive;
+    private final AtomicLong batch_count = new AtomicLong();
+    private final AtomicLong batch_message_count = new AtomicLong();
     private final int batchingThreshold;
     private final AtomicInteger full_buffer_count = new AtomicInteger();
+    private String held;
     private final AtomicInteger empty_queue_count = new AtomicInteger();
+    private final Semaphore in_flight;
+    private final int max_in_flight;
+    private final Set<CompletableFuture<Void>> pending = ConcurrentHashMap.newKeySet();
+    private final AtomicLong retry_bytes = new AtomicLong();
+    private final DelayQueue<Retry> retries = new DelayQueue<>();
+    private final ExecutorService senders;
 }
@@ -0,0 +1,58 @@
+// © 2016-2024 Graylog, Inc.
+
+package io.resurface;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/**
+ * Memory fences ordering plain reads and writes of a buffer shared with another process. On Java 9 and later
+ * these are the VarHandle fences, which hold on every CPU. Java 8 has no fence API, so there a volatile write
+ * stands in, which HotSpot only compiles to a full fence on x86. Run SharedRingTransport on Java 9 or later
+ * on ARM and other weakly ordered CPUs.
+ */
+final class Fences {
+
+    /**
+     * Keeps reads after the fence from happening before reads ahead of it, like reading a record before its cursor.
+     */
+    static void acquireFence() {
+        fence(ACQUIRE_FENCE);
+    }
+
+    /**
+     * Keeps reads and writes ahead of the fence from happening after writes following it, like publishing a
+     * cursor before the record it covers.
+     */
+    static void releaseFence() {
+        fence(RELEASE_FENCE);
+    }
+
+    private static void fence(MethodHandle handle) {
+        if (handle == null) {
+            fallback = 0;
+            return;
+        }
+        try {
+            handle.invokeExact();
+        } catch (Throwable t) {
+            throw new IllegalStateException("Memory fence failed", t);
+        }
+    }
+
+    private static MethodHandle lookup(String name) {
+        try {
+            Class<?> var_handle = Class.forName("java.lang.invoke.VarHandle");
+            return MethodHandles.publicLookup().findStatic(var_handle, name, MethodType.methodType(void.class));
+        } catch (ReflectiveOperationException e) {
+            return null;  // Java 8
+        }
+    }
+
+    private static final MethodHandle ACQUIRE_FENCE = lookup("acquireFence");
+    private static final MethodHandle RELEASE_FENCE = lookup("releaseFence");
+
+    private static volatile int fallback;
+
+}
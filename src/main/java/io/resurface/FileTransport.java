@@ -0,0 +1,335 @@
+// © 2016-2024 Graylog, Inc.
+
+package io.resurface;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Transport that appends batches to NDJSON files in a local directory, for hosts that ship logs out of band.
+ * Files are rolled once they reach a size or age, and are written with a ".part" suffix that is removed when
+ * rolled, so only complete files are picked up. With gzip, each batch is written as its own gzip member, so
+ * whatever reached disk can be read back even if the process died mid-file. Age is only checked as batches
+ * arrive, so on an idle host the current file keeps its ".part" suffix until the next batch or until closed.
+ */
+public class FileTransport implements Transport {
+
+    /**
+     * When written files are forced to disk.
+     */
+    public enum Fsync {NEVER, ROLL, BATCH}
+
+    /**
+     * Initialize transport writing files into directory, which is created if missing.
+     */
+    public FileTransport(File directory) {
+        this(directory, "resurface");
+    }
+
+    /**
+     * Initialize transport writing files that start with prefix into directory, which is created if missing.
+     */
+    public FileTransport(File directory, String prefix) {
+        if (directory == null) throw new IllegalArgumentException("Invalid directory: null");
+        if (prefix == null || prefix.isEmpty()) throw new IllegalArgumentException("Invalid prefix: " + prefix);
+        this.directory = directory;
+        this.prefix = prefix;
+    }
+
+    /**
+     * Returns count of bytes written to files, after compression.
+     */
+    public long getBytesWritten() {
+        return bytes_written.get();
+    }
+
+    /**
+     * Returns file currently being written, or null if none is open.
+     */
+    public synchronized File getCurrentFile() {
+        return (part == null) ? null : part.toFile();
+    }
+
+    /**
+     * Returns directory where files are written.
+     */
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Returns count of files completed.
+     */
+    public int getFilesRolled() {
+        return files_rolled.get();
+    }
+
+    /**
+     * Returns policy for forcing files to disk.
+     */
+    public Fsync getFsync() {
+        return fsync;
+    }
+
+    /**
+     * Returns count of times a file was forced to disk.
+     */
+    public int getFsyncs() {
+        return fsyncs.get();
+    }
+
+    /**
+     * Returns size in bytes at which a file is rolled.
+     */
+    public long getMaxFileBytes() {
+        return max_file_bytes;
+    }
+
+    /**
+     * Returns age in milliseconds at which a file is rolled, or zero if files are only rolled by size.
+     */
+    public long getMaxFileMillis() {
+        return max_file_millis;
+    }
+
+    /**
+     * Returns true if files are gzip compressed.
+     */
+    public boolean isGzip() {
+        return gzip;
+    }
+
+    /**
+     * Sets policy for forcing files to disk: never, when each file is rolled, or after every batch.
+     */
+    public void setFsync(Fsync fsync) {
+        if (fsync == null) throw new IllegalArgumentException("Invalid fsync: null");
+        this.fsync = fsync;
+    }
+
+    /**
+     * Sets if files are gzip compressed, starting with the next file.
+     */
+    public void setGzip(boolean gzip) {
+        this.gzip = gzip;
+    }
+
+    /**
+     * Sets size in bytes at which a file is rolled. A file may exceed this by up to one batch.
+     */
+    public void setMaxFileBytes(long max_file_bytes) {
+        if (max_file_bytes < MIN_FILE_BYTES) throw new IllegalArgumentException("Invalid max file bytes: " + max_file_bytes);
+        this.max_file_bytes = max_file_bytes;
+    }
+
+    /**
+     * Sets age in milliseconds at which a file is rolled, checked as batches arrive, or zero to roll only by size.
+     */
+    public void setMaxFileMillis(long max_file_millis) {
+        if (max_file_millis < 0) throw new IllegalArgumentException("Invalid max file millis: " + max_file_millis);
+        this.max_file_millis = max_file_millis;
+    }
+
+    /**
+     * Appends batch to the current file, rolling it first if too old and afterwards if too large. If writing
+     * fails, whatever part of the batch reached the file is removed before the error is thrown.
+     */
+    @Override
+    public synchronized boolean send(String batch) throws IOException {
+        if (channel != null && max_file_millis > 0 && System.currentTimeMillis() - opened >= max_file_millis) roll();
+        if (channel == null) open();
+        long before = file_bytes;
+        int buffered = buffer.position();
+        try {
+            int length = utf8.encode(batch);
+            if (file_gzip) {
+                put(compressor.getBuffer(), 0, compressor.encode(Codec.GZIP, utf8.array(), 0, length));
+            } else {
+                put(utf8.array(), 0, length);
+            }
+            if (fsync == Fsync.BATCH) {
+                drain();
+                force();
+            }
+            if (file_bytes >= max_file_bytes) roll();
+        } catch (IOException e) {
+            discard(before, buffered);
+            throw e;
+        } finally {
+            utf8.trim();
+        }
+        return true;
+    }
+
+    /**
+     * Creates directory ahead of the first batch.
+     */
+    @Override
+    public void warmUp() throws IOException {
+        Files.createDirectories(directory.toPath());
+    }
+
+    /**
+     * Completes current file. The next batch starts a new file.
+     */
+    @Override
+    public synchronized void close() {
+        try {
+            if (channel != null) roll();
+        } catch (IOException e) {
+            // file stays with its .part suffix, so it isn't mistaken for a complete one
+            closeChannel();
+        }
+    }
+
+    /**
+     * Opens channel for a new file, which must not exist yet.
+     */
+    protected FileChannel openChannel(Path path) throws IOException {
+        return FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Drops failed batch so the file ends with the batch before it, given the file size and buffered bytes from
+     * before the batch. Previous batches still buffered are kept, unless already written. If the file can't be
+     * truncated, it's closed with its ".part" suffix and the next batch starts a new file.
+     */
+    private void discard(long before, int buffered) {
+        bytes_written.addAndGet(before - file_bytes);
+        file_bytes = before;
+        if (channel == null) return;  // failed while rolling, after the file was closed
+        try {
+            if (channel.position() >= before) {
+                channel.truncate(before);
+                ((Buffer) buffer).clear();
+            } else {
+                channel.truncate(before - buffered);
+                ((Buffer) buffer).limit(buffer.capacity()).position(buffered);
+            }
+        } catch (IOException e) {
+            closeChannel();
+        }
+    }
+
+    /**
+     * Copies bytes into write buffer, writing the buffer to the file whenever it fills.
+     */
+    private void put(byte[] bytes, int offset, int length) throws IOException {
+        file_bytes += length;
+        bytes_written.addAndGet(length);
+        if (length >= buffer.capacity()) {
+            // too large to be worth copying, so write straight after what's buffered
+            drain();
+            ByteBuffer wrapped = ByteBuffer.wrap(bytes, offset, length);
+            while (wrapped.hasRemaining()) channel.write(wrapped);
+            return;
+        }
+        while (length > 0) {
+            if (!buffer.hasRemaining()) drain();
+            int n = Math.min(length, buffer.remaining());
+            buffer.put(bytes, offset, n);
+            offset += n;
+            length -= n;
+        }
+    }
+
+    /**
+     * Writes buffered bytes to the file.
+     */
+    private void drain() throws IOException {
+        ((Buffer) buffer).flip();
+        while (buffer.hasRemaining()) channel.write(buffer);
+        ((Buffer) buffer).clear();
+    }
+
+    private void force() throws IOException {
+        channel.force(false);
+        fsyncs.incrementAndGet();
+    }
+
+    /**
+     * Opens next file, named by prefix, time opened and sequence.
+     */
+    private void open() throws IOException {
+        Files.createDirectories(directory.toPath());
+        file_gzip = gzip;
+        String stamp = STAMP.format(Instant.now());
+        while (true) {
+            name = directory.toPath().resolve(String.format("%s-%s-%06d.ndjson%s", prefix, stamp,
+                    sequence.incrementAndGet(), file_gzip ? ".gz" : ""));
+            part = name.resolveSibling(name.getFileName() + ".part");
+            try {
+                channel = openChannel(part);
+                break;
+            } catch (FileAlreadyExistsException e) {
+                // left by another process writing with the same prefix, so take the next sequence
+            }
+        }
+        opened = System.currentTimeMillis();
+        file_bytes = 0;
+    }
+
+    /**
+     * Writes what's buffered, forces the file to disk unless fsync is never, and renames it as complete.
+     */
+    private void roll() throws IOException {
+        drain();
+        if (fsync != Fsync.NEVER) force();
+        closeChannel();
+        Files.move(part, name, StandardCopyOption.ATOMIC_MOVE);
+        part = null;
+        files_rolled.incrementAndGet();
+    }
+
+    private void closeChannel() {
+        if (channel == null) return;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // nothing left to release
+        } finally {
+            channel = null;
+            ((Buffer) buffer).clear();
+        }
+    }
+
+    static final int BUFFER = 256 * 1024;
+    static final long MAX_FILE_BYTES = 64 * 1024 * 1024;
+    static final long MAX_FILE_MILLIS = 60 * 60 * 1000;
+    static final long MIN_FILE_BYTES = 1024;
+    private static final DateTimeFormatter STAMP = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'Z'").withZone(ZoneOffset.UTC);
+
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER);
+    private final AtomicLong bytes_written = new AtomicLong();
+    private FileChannel channel;
+    private final Compressor compressor = new Compressor();
+    private final File directory;
+    private long file_bytes;
+    private boolean file_gzip;
+    private final AtomicInteger files_rolled = new AtomicInteger();
+    private volatile Fsync fsync = Fsync.ROLL;
+    private final AtomicInteger fsyncs = new AtomicInteger();
+    private volatile boolean gzip = false;
+    private volatile long max_file_bytes = MAX_FILE_BYTES;
+    private volatile long max_file_millis = MAX_FILE_MILLIS;
+    private Path name;
+    private long opened;
+    private Path part;
+    private final String prefix;
+    private final AtomicInteger sequence = new AtomicInteger();
+    private final Utf8Buffer utf8 = new Utf8Buffer();
+
+}
@@ -4,6 +4,7 @@ package io.resurface;
 
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Usage logger for HTTP/HTTPS protocol.
@@ -95,6 +96,22 @@ public class HttpLogger extends BaseLogger<HttpLogger> {
         initialize(rules);
     }
 
+    /**
+     * Initialize enabled logger using transport and specified rules.
+     */
+    public HttpLogger(Transport transport, String rules) {
+        super(AGENT, transport);
+        initialize(rules);
+    }
+
+    /**
+     * Initialize enabled/disabled logger using transport and specified rules.
+     */
+    public HttpLogger(Transport transport, boolean enabled, String rules) {
+        super(AGENT, transport, enabled);
+        initialize(rules);
+    }
+
     /**
      * Initialize a new logger.
      */
@@ -103,12 +120,25 @@ public class HttpLogger extends BaseLogger<HttpLogger> {
         this.rules = new HttpRules(rules);
 
         // apply configuration rules
+        this.codec = this.rules.compression_codec;
+        this.compression_dictionary = this.rules.compression_dictionary;
+        this.compression_level = this.rules.compression_level;
+        this.compression_strategy = this.rules.compression_strategy;
         this.skip_compression = this.rules.skip_compression;
         this.skip_submission = this.rules.skip_submission;
-        if ((url != null) && (url.startsWith("http:") && !this.rules.allow_http_url)) {
-            this.enableable = false;
-            this.enabled = false;
+        if ((url != null) && !this.rules.allow_http_url) {
+            for (String u : url.split(",")) {
+                if (u.trim().startsWith("http:")) {
+                    this.enableable = false;
+                    this.enabled = false;
+                }
+            }
         }
+        if (this.rules.nio_transport && this.enableable && (this.transport instanceof HttpTransport)
+                && "http".equals(this.url_parsed.getProtocol())) {
+            this.transport = new NioTransport(this, this.url_parsed);
+        }
+        if (this.url != null) warm_up();
     }
 
     /**
@@ -118,6 +148,14 @@ public class HttpLogger extends BaseLogger<HttpLogger> {
         return rules;
     }
 
+    /**
+     * Starts warm-up once rules are applied, since they may disable this logger or replace its transport.
+     */
+    @Override
+    public CompletableFuture<Boolean> warm_up() {
+        return (rules == null) ? CompletableFuture.completedFuture(false) : super.warm_up();
+    }
+
     /**
      * Apply logging rules to message details and submit JSON message.
      */
@@ -54,11 +54,13 @@ public class HttpLoggerForJersey implements ContainerRequestFilter, ContainerRes
     }
 
     /**
-     * Interceptor method called when request is first accepted.
+     * Interceptor method called when request is first accepted, which decides once whether it is captured.
      */
     @Override
     public void filter(ContainerRequestContext context) {
-        context.setProperty("resurfaceio.start", System.nanoTime());
+        if (logger.enabled && logger.getCircuitBreaker().allowCapture()) {
+            context.setProperty("resurfaceio.start", System.nanoTime());
+        }
     }
 
     /**
@@ -66,7 +68,7 @@ public class HttpLoggerForJersey implements ContainerRequestFilter, ContainerRes
      */
     @Override
     public Object aroundReadFrom(ReaderInterceptorContext context) throws IOException, WebApplicationException {
-        if (logger.enabled) {
+        if (logger.enabled && context.getProperty("resurfaceio.start") != null) {
             LoggedInputStream lis = new LoggedInputStream(context.getInputStream());
             context.setProperty("resurfaceio.requestBodyBytes", lis.logged());
             context.setInputStream(lis);
@@ -79,7 +81,7 @@ public class HttpLoggerForJersey implements ContainerRequestFilter, ContainerRes
      */
     @Override
     public void filter(ContainerRequestContext request, ContainerResponseContext response) {
-        if (!logger.enabled) return;
+        if (!logger.enabled || request.getProperty("resurfaceio.start") == null) return;
         List<String[]> message = new ArrayList<>();
         String method = request.getMethod();
         if (method != null) message.add(new String[]{"request_method", method});
@@ -127,8 +129,8 @@ public class HttpLoggerForJersey implements ContainerRequestFilter, ContainerRes
      */
     @Override
     public void aroundWriteTo(WriterInterceptorContext context) throws IOException, WebApplicationException {
-        if (logger.enabled) {
-            List<String[]> message = (List<String[]>) context.getProperty("resurfaceio.message");
+        List<String[]> message = (List<String[]>) context.getProperty("resurfaceio.message");
+        if (logger.enabled && message != null) {
             LoggedOutputStream los = new LoggedOutputStream(context.getOutputStream());
             context.setOutputStream(los);
             context.proceed();
@@ -63,7 +63,7 @@ public class HttpLoggerForServlets implements Filter {
      */
     public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
             throws IOException, ServletException {
-        if (logger.isEnabled()) {
+        if (logger.isEnabled() && logger.getCircuitBreaker().allowCapture()) {
             log((HttpServletRequest) request, (HttpServletResponse) response, chain);
         } else {
             chain.doFilter(request, response);
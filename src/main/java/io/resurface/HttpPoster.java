@@ -0,0 +1,248 @@
+// © 2016-2024 Graylog, Inc.
+
+package io.resurface;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Posts to a single collector url with HttpURLConnection, fully reading and closing every response so the
+ * JDK keep-alive cache can reuse its sockets. Idle connections belong to that cache, which keeps no counts
+ * of its own. Going through HttpURLConnection keeps proxy settings, ProxySelector and the rest of the JDK's
+ * HTTP behavior in effect. Host names are resolved by HttpURLConnection itself, so they are cached by the JDK's
+ * own DNS cache (networkaddress.cache.ttl) rather than by AddressCache, and aren't refreshed in the background.
+ */
+public class HttpPoster {
+
+    /**
+     * Initialize poster for url.
+     */
+    public HttpPoster(URL url) {
+        this.url = url;
+    }
+
+    /**
+     * Returns milliseconds allowed for connecting. HttpURLConnection doesn't tell a fresh socket from one
+     * reused from its keep-alive cache, so connect times can't be tracked and this stays fixed.
+     */
+    public int getConnectTimeout() {
+        return CONNECT_TIMEOUT;
+    }
+
+    /**
+     * Returns milliseconds allowed for reading response, derived from recent response times once enough are known.
+     */
+    public int getReadTimeout() {
+        return readTimeout(responses);
+    }
+
+    /**
+     * Returns recent times taken from sending a request to reading its response.
+     */
+    public LatencyTracker getResponseLatencies() {
+        return responses;
+    }
+
+    /**
+     * Returns url that this poster sends to.
+     */
+    public URL getUrl() {
+        return url;
+    }
+
+    /**
+     * Posts body to url and fully drains response, so its connection goes back to the keep-alive cache.
+     * Not retried on failure, since the collector may already have accepted the batch.
+     */
+    public Response post(Map<String, String> headers, byte[] body, int offset, int length) throws IOException {
+        HttpURLConnection conn = open(headers);
+        conn.setFixedLengthStreamingMode(length);  // streaming mode also stops the JDK from silently resending
+        long started = System.nanoTime();
+        try {
+            try (OutputStream out = conn.getOutputStream()) {
+                out.write(body, offset, length);
+            }
+            Response response = complete(conn);
+            responses.record(elapsedMillis(started));
+            return response;
+        } catch (SocketTimeoutException e) {
+            responses.record(elapsedMillis(started));  // so a slower collector raises the timeout
+            conn.disconnect();
+            throw e;
+        } catch (IOException e) {
+            conn.disconnect();
+            throw e;
+        }
+    }
+
+    /**
+     * Starts chunked post to url, returning stream for the request body.
+     */
+    public Upload openChunked(Map<String, String> headers) throws IOException {
+        HttpURLConnection conn = open(headers);
+        conn.setChunkedStreamingMode(CHUNK_SIZE);
+        try {
+            return new Upload(conn, conn.getOutputStream());
+        } catch (IOException e) {
+            conn.disconnect();
+            throw e;
+        }
+    }
+
+    /**
+     * Resolves collector host and connects to it, completing a TLS handshake for https urls, then closes the
+     * socket without sending a request. This fills the JDK's DNS cache and TLS session cache, which the first
+     * batch's connection then draws on, and isn't recorded as a response time.
+     */
+    public void warmUp() throws IOException {
+        String host = url.getHost();
+        int port = (url.getPort() == -1) ? url.getDefaultPort() : url.getPort();
+        InetAddress address = InetAddress.getByName(host);
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(address, port), CONNECT_TIMEOUT);
+            if ("https".equals(url.getProtocol())) {
+                socket.setSoTimeout(READ_TIMEOUT);
+                SSLSocketFactory factory = HttpsURLConnection.getDefaultSSLSocketFactory();
+                try (SSLSocket tls = (SSLSocket) factory.createSocket(socket, host, port, true)) {
+                    tls.startHandshake();
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns connection to url with timeouts and headers set, not yet connected.
+     */
+    private HttpURLConnection open(Map<String, String> headers) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+        conn.setConnectTimeout(getConnectTimeout());
+        conn.setReadTimeout(getReadTimeout());
+        conn.setRequestMethod("POST");
+        conn.setDoOutput(true);
+        conn.setUseCaches(false);
+        for (Map.Entry<String, String> h : headers.entrySet()) conn.setRequestProperty(h.getKey(), h.getValue());
+        return conn;
+    }
+
+    /**
+     * Reads status and headers, then reads and closes the response body so the socket can be reused.
+     */
+    private static Response complete(HttpURLConnection conn) throws IOException {
+        int code = conn.getResponseCode();
+        Map<String, String> headers = new LinkedHashMap<>();
+        for (int i = 0; ; i++) {
+            String value = conn.getHeaderField(i);
+            if (value == null) break;
+            String key = conn.getHeaderFieldKey(i);
+            if (key != null) headers.put(key.toLowerCase(), value);
+        }
+        InputStream in = (code >= 400) ? conn.getErrorStream() : conn.getInputStream();
+        if (in != null) {
+            try {
+                byte[] scratch = new byte[1024];
+                while (in.read(scratch) != -1) ;
+            } finally {
+                in.close();
+            }
+        }
+        return new Response(code, headers);
+    }
+
+    /**
+     * Returns read timeout allowing several times the p99 of recent response times, within fixed bounds.
+     */
+    static int readTimeout(LatencyTracker responses) {
+        return (int) responses.timeout(READ_TIMEOUT, TIMEOUT_MULTIPLIER, MIN_READ_TIMEOUT, MAX_READ_TIMEOUT);
+    }
+
+    static long elapsedMillis(long started) {
+        return (System.nanoTime() - started) / 1000000;
+    }
+
+    /**
+     * Request body sent with chunked transfer encoding.
+     */
+    public class Upload extends OutputStream {
+
+        Upload(HttpURLConnection conn, OutputStream out) {
+            this.conn = conn;
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        /**
+         * Ends request body and reads response.
+         */
+        public Response finish() throws IOException {
+            try {
+                out.close();
+                return complete(conn);
+            } catch (IOException e) {
+                conn.disconnect();
+                throw e;
+            }
+        }
+
+        /**
+         * Abandons request and closes its connection.
+         */
+        public void abort() {
+            conn.disconnect();
+        }
+
+        private final HttpURLConnection conn;
+        private final OutputStream out;
+    }
+
+    /**
+     * Status and headers returned by collector.
+     */
+    public static class Response {
+
+        Response(int code, Map<String, String> headers) {
+            this.code = code;
+            this.headers = headers;
+        }
+
+        public final int code;
+        public final Map<String, String> headers;
+    }
+
+    static final int CHUNK_SIZE = 8192;
+    static final int CONNECT_TIMEOUT = 5000;
+    static final int MAX_READ_TIMEOUT = 30000;
+    static final int MIN_READ_TIMEOUT = 500;
+    static final int READ_TIMEOUT = 5000;
+    static final double TIMEOUT_MULTIPLIER = 4;
+    static final int TRACKED_SAMPLES = 256;
+
+    private final LatencyTracker responses = new LatencyTracker(TRACKED_SAMPLES);
+    private final URL url;
+
+}
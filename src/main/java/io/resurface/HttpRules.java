@@ -10,6 +10,7 @@ import java.util.Random;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
+import java.util.zip.Deflater;
 
 import static java.util.stream.Collectors.toList;
 
@@ -71,8 +72,26 @@ public class HttpRules {
         if ((r == null) || REGEX_BLANK_OR_COMMENT.matcher(r).matches()) return null;
         Matcher m = REGEX_ALLOW_HTTP_URL.matcher(r);
         if (m.matches()) return new HttpRule("allow_http_url", null, null, null);
+        m = REGEX_COMPRESSION_CODEC.matcher(r);
+        if (m.matches()) return new HttpRule("compression_codec", null, Codec.parse(m.group(1)), null);
+        m = REGEX_COMPRESSION_DICTIONARY.matcher(r);
+        if (m.matches()) return new HttpRule("compression_dictionary", null, null, null);
+        m = REGEX_COMPRESSION_LEVEL.matcher(r);
+        if (m.matches()) {
+            Integer m1 = Integer.valueOf(m.group(1));
+            if (m1 > 9) throw new IllegalArgumentException(String.format("Invalid compression level: %d", m1));
+            return new HttpRule("compression_level", null, m1, null);
+        }
+        m = REGEX_COMPRESSION_STRATEGY.matcher(r);
+        if (m.matches()) {
+            Integer m1 = "filtered".equals(m.group(1)) ? Deflater.FILTERED
+                    : "huffman_only".equals(m.group(1)) ? Deflater.HUFFMAN_ONLY : Deflater.DEFAULT_STRATEGY;
+            return new HttpRule("compression_strategy", null, m1, null);
+        }
         m = REGEX_COPY_SESSION_FIELD.matcher(r);
         if (m.matches()) return new HttpRule("copy_session_field", null, parseRegex(r, m.group(1)), null);
+        m = REGEX_NIO_TRANSPORT.matcher(r);
+        if (m.matches()) return new HttpRule("nio_transport", null, null, null);
         m = REGEX_REMOVE.matcher(r);
         if (m.matches()) return new HttpRule("remove", parseRegex(r, m.group(1)), null, null);
         m = REGEX_REMOVE_IF.matcher(r);
@@ -189,7 +208,15 @@ public class HttpRules {
 
         // break out rules by verb
         this.allow_http_url = prs.stream().anyMatch(r -> "allow_http_url".equals(r.verb));
+        List<HttpRule> codecs = prs.stream().filter(r -> "compression_codec".equals(r.verb)).collect(toList());
+        this.compression_codec = codecs.isEmpty() ? Codec.DEFLATE : (Codec) codecs.get(0).param1;
+        this.compression_dictionary = prs.stream().anyMatch(r -> "compression_dictionary".equals(r.verb));
+        List<HttpRule> levels = prs.stream().filter(r -> "compression_level".equals(r.verb)).collect(toList());
+        this.compression_level = levels.isEmpty() ? Deflater.DEFAULT_COMPRESSION : (Integer) levels.get(0).param1;
+        List<HttpRule> strategies = prs.stream().filter(r -> "compression_strategy".equals(r.verb)).collect(toList());
+        this.compression_strategy = strategies.isEmpty() ? Deflater.DEFAULT_STRATEGY : (Integer) strategies.get(0).param1;
         this.copy_session_field = prs.stream().filter(r -> "copy_session_field".equals(r.verb)).collect(toList());
+        this.nio_transport = prs.stream().anyMatch(r -> "nio_transport".equals(r.verb));
         this.remove = prs.stream().filter(r -> "remove".equals(r.verb)).collect(toList());
         this.remove_if = prs.stream().filter(r -> "remove_if".equals(r.verb)).collect(toList());
         this.remove_if_found = prs.stream().filter(r -> "remove_if_found".equals(r.verb)).collect(toList());
@@ -207,10 +234,18 @@ public class HttpRules {
 
         // finish validating rules
         if (this.sample.size() > 1) throw new IllegalArgumentException("Multiple sample rules");
+        if (codecs.size() > 1) throw new IllegalArgumentException("Multiple compression_codec rules");
+        if (levels.size() > 1) throw new IllegalArgumentException("Multiple compression_level rules");
+        if (strategies.size() > 1) throw new IllegalArgumentException("Multiple compression_strategy rules");
     }
 
     public final boolean allow_http_url;
+    public final Codec compression_codec;
+    public final boolean compression_dictionary;
+    public final int compression_level;
+    public final int compression_strategy;
     public final List<HttpRule> copy_session_field;
+    public final boolean nio_transport;
     public final List<HttpRule> remove;
     public final List<HttpRule> remove_if;
     public final List<HttpRule> remove_if_found;
@@ -284,7 +319,12 @@ public class HttpRules {
     private static final Random RANDOM = new Random();
     private static final Pattern REGEX_ALLOW_HTTP_URL = Pattern.compile("^\\s*allow_http_url\\s*(#.*)?$");
     private static final Pattern REGEX_BLANK_OR_COMMENT = Pattern.compile("^\\s*([#].*)*$");
+    private static final Pattern REGEX_COMPRESSION_CODEC = Pattern.compile("^\\s*compression_codec\\s+(deflate|gzip|lz4)\\s*(#.*)?$");
+    private static final Pattern REGEX_COMPRESSION_DICTIONARY = Pattern.compile("^\\s*compression_dictionary\\s*(#.*)?$");
+    private static final Pattern REGEX_COMPRESSION_LEVEL = Pattern.compile("^\\s*compression_level\\s+(\\d+)\\s*(#.*)?$");
+    private static final Pattern REGEX_COMPRESSION_STRATEGY = Pattern.compile("^\\s*compression_strategy\\s+(default|filtered|huffman_only)\\s*(#.*)?$");
     private static final Pattern REGEX_COPY_SESSION_FIELD = Pattern.compile("^\\s*copy_session_field\\s+([~!%|/].+[~!%|/])\\s*(#.*)?$");
+    private static final Pattern REGEX_NIO_TRANSPORT = Pattern.compile("^\\s*nio_transport\\s*(#.*)?$");
     private static final Pattern REGEX_REMOVE = Pattern.compile("^\\s*([~!%|/].+[~!%|/])\\s*remove\\s*(#.*)?$");
     private static final Pattern REGEX_REMOVE_IF = Pattern.compile("^\\s*([~!%|/].+[~!%|/])\\s*remove_if\\s+([~!%|/].+[~!%|/])\\s*(#.*)?$");
     private static final Pattern REGEX_REMOVE_IF_FOUND = Pattern.compile("^\\s*([~!%|/].+[~!%|/])\\s*remove_if_found\\s+([~!%|/].+[~!%|/])\\s*(#.*)?$");
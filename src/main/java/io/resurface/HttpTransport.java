@@ -0,0 +1,253 @@
+// © 2016-2024 Graylog, Inc.
+
+package io.resurface;
+
+import java.io.*;
+import java.lang.reflect.InvocationTargetException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Transport that posts batches to a collector url with HttpURLConnection, reusing connections kept alive by the JDK.
+ */
+public class HttpTransport implements StreamingTransport {
+
+    /**
+     * Initialize transport for logger using url.
+     */
+    public HttpTransport(BaseLogger logger, URL url) {
+        this.logger = logger;
+        this.poster = new HttpPoster(url);
+    }
+
+    /**
+     * Returns transport that multiplexes batches over one HTTP/2 connection, when running on Java 11+.
+     * @param max_in_flight maximum number of batches sent concurrently
+     */
+    public static Transport http2(BaseLogger logger, URL url, int max_in_flight) {
+        try {
+            return (Transport) Class.forName("io.resurface.Http2Transport")
+                    .getConstructor(BaseLogger.class, URL.class, int.class)
+                    .newInstance(logger, url, max_in_flight);
+        } catch (ClassNotFoundException e) {
+            throw new UnsupportedOperationException("HTTP/2 transport requires Java 11+");
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            throw new IllegalStateException("Failed to create HTTP/2 transport", e.getCause());
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Failed to create HTTP/2 transport", e);
+        }
+    }
+
+    /**
+     * Returns poster that sends requests to url.
+     */
+    public HttpPoster getPoster() {
+        return poster;
+    }
+
+    /**
+     * Posts batch to url, encoded with codec configured for logger.
+     */
+    @Override
+    public boolean send(String batch) throws IOException {
+        return send(batch, null);
+    }
+
+    /**
+     * Posts batch to url with idempotency key header, encoded with codec configured for logger.
+     */
+    @Override
+    public boolean send(String batch, String idempotency_key) throws IOException {
+        byte[] bytes = batch.getBytes(StandardCharsets.UTF_8);
+        Codec codec = logger.getEffectiveCodec();
+        if (codec == Codec.IDENTITY) {
+            return accepted(logger, poster.post(headers(logger, codec, null, idempotency_key), bytes, 0, bytes.length));
+        }
+        Compressor compressor = logger.takeCompressor();
+        try {
+            int length = compressor.encode(codec, bytes, 0, bytes.length);
+            boolean dictionary = usesDictionary(codec, compressor);
+            HttpPoster.Response response = poster.post(headers(logger, codec, compressor, idempotency_key),
+                    compressor.getBuffer(), 0, length);
+            if (response.code == 415 && dictionary) {
+                // collector doesn't know our dictionary, so stop using it and resend this batch without
+                logger.setCompressionDictionary(false);
+                compressor.setDictionary(null);
+                length = compressor.encode(codec, bytes, 0, bytes.length);
+                response = poster.post(headers(logger, codec, compressor, idempotency_key), compressor.getBuffer(), 0, length);
+            }
+            return accepted(logger, response);
+        } finally {
+            logger.releaseCompressor(compressor);
+        }
+    }
+
+    /**
+     * Opens chunked post that encodes messages as they are written.
+     */
+    @Override
+    public BatchWriter open() throws IOException {
+        Codec codec = logger.getEffectiveCodec();
+        Compressor compressor = (codec == Codec.IDENTITY) ? null : logger.takeCompressor();
+        try {
+            return new ChunkedBatch(logger, poster.openChunked(headers(logger, codec, compressor)), codec, compressor);
+        } catch (IOException e) {
+            if (compressor != null) logger.releaseCompressor(compressor);
+            throw e;
+        }
+    }
+
+    /**
+     * Returns headers describing batch encoded with codec and compressor.
+     */
+    static Map<String, String> headers(BaseLogger logger, Codec codec, Compressor compressor) {
+        return headers(logger, codec, compressor, null);
+    }
+
+    /**
+     * Returns headers describing batch encoded with codec and compressor, tagged with idempotency key when not null.
+     */
+    static Map<String, String> headers(BaseLogger logger, Codec codec, Compressor compressor, String idempotency_key) {
+        Map<String, String> headers = new LinkedHashMap<>();
+        headers.put("Content-Type", "application/ndjson; charset=UTF-8");
+        headers.put("User-Agent", "Resurface/" + logger.getVersion() + " (" + logger.getAgent() + ")");
+        if (codec.getContentEncoding() != null) headers.put("Content-Encoding", codec.getContentEncoding());
+        if (usesDictionary(codec, compressor)) headers.put(NdjsonDictionary.HEADER, NdjsonDictionary.ID);
+        if (idempotency_key != null) headers.put(IDEMPOTENCY_KEY, idempotency_key);
+        return headers;
+    }
+
+    /**
+     * Returns random key identifying one batch across hedged or repeated sends.
+     */
+    public static String idempotencyKey() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return String.format("%016x%016x", random.nextLong(), random.nextLong());
+    }
+
+    /**
+     * Returns true if batch encoded with codec and compressor depends on the preset dictionary.
+     */
+    static boolean usesDictionary(Codec codec, Compressor compressor) {
+        return codec == Codec.DEFLATE && compressor != null && compressor.getDictionary() != null;
+    }
+
+    /**
+     * Returns true if collector accepted batch, pausing dispatch if it answered that it is overloaded.
+     */
+    static boolean accepted(BaseLogger logger, HttpPoster.Response response) {
+        throttle(logger, response.code, response.headers.get("retry-after"));
+        return response.code == 204;
+    }
+
+    /**
+     * Pauses dispatch when status code says the collector is overloaded, for as long as its Retry-After asks.
+     */
+    static void throttle(BaseLogger logger, int code, String retry_after) {
+        if (code == 429 || code == 503) logger.throttle(retryAfterMillis(retry_after, System.currentTimeMillis()));
+    }
+
+    /**
+     * Returns pause requested by Retry-After header, given either as seconds or as an HTTP date.
+     */
+    static long retryAfterMillis(String retry_after, long now) {
+        if (retry_after == null) return DEFAULT_THROTTLE_MILLIS;
+        String value = retry_after.trim();
+        try {
+            return Math.min(Long.parseLong(value), Long.MAX_VALUE / 1000) * 1000;
+        } catch (NumberFormatException e) {
+            // not seconds, so try date
+        }
+        try {
+            return ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli() - now;
+        } catch (DateTimeParseException e) {
+            return DEFAULT_THROTTLE_MILLIS;
+        }
+    }
+
+    /**
+     * Resolves collector and connects to it ahead of the first batch, without sending a request.
+     */
+    @Override
+    public void warmUp() throws IOException {
+        poster.warmUp();
+    }
+
+    /**
+     * Batch encoded and deflated straight into a chunked request body.
+     */
+    private static final class ChunkedBatch implements BatchWriter {
+
+        ChunkedBatch(BaseLogger logger, HttpPoster.Upload upload, Codec codec, Compressor compressor)
+                throws IOException {
+            this.logger = logger;
+            this.upload = upload;
+            this.chunks = new BufferedOutputStream(upload, 8192);
+            this.compressor = compressor;
+            this.dictionary = usesDictionary(codec, compressor);
+            this.encoded = (compressor == null) ? chunks : compressor.stream(codec, chunks);
+            this.writer = new OutputStreamWriter(encoded, StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public void write(String msg) throws IOException {
+            writer.write(msg);
+            writer.write('\n');
+            size += msg.length() + 1;
+        }
+
+        @Override
+        public long size() {
+            return size;
+        }
+
+        @Override
+        public boolean finish() throws IOException {
+            try {
+                writer.flush();
+                Compressor.finish(encoded);
+                chunks.flush();
+                HttpPoster.Response response = upload.finish();
+                if (response.code == 415 && dictionary) logger.setCompressionDictionary(false);
+                return accepted(logger, response);
+            } finally {
+                release();
+            }
+        }
+
+        @Override
+        public void abort() {
+            upload.abort();
+            release();
+        }
+
+        private void release() {
+            if (compressor != null && !released) logger.releaseCompressor(compressor);
+            released = true;
+        }
+
+        private final OutputStream chunks;
+        private final Compressor compressor;
+        private final boolean dictionary;
+        private final OutputStream encoded;
+        private final BaseLogger logger;
+        private boolean released = false;
+        private long size = 0;
+        private final HttpPoster.Upload upload;
+        private final Writer writer;
+    }
+
+    static final long DEFAULT_THROTTLE_MILLIS = 1000;
+    static final String IDEMPOTENCY_KEY = "Idempotency-Key";
+
+    private final BaseLogger logger;
+    private final HttpPoster poster;
+
+}
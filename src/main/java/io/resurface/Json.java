@@ -2,6 +2,7 @@
 
 package io.resurface;
 
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -85,4 +86,78 @@ public class Json {
         return json.toString();
     }
 
+    /**
+     * Shortens values in message until its UTF-8 encoding fits max bytes, starting with the longest value, or
+     * returns null if the message can't fit even with every value emptied. Escape sequences and surrogate pairs
+     * are never split, so the result is still valid JSON.
+     */
+    public static String truncate(String message, int max_bytes) {
+        int excess = utf8Length(message, 0, message.length()) - max_bytes;
+        if (excess <= 0) return message;
+
+        // find values, which are every second string in the list of key/value pairs, as {start, end, bytes, cut}
+        List<int[]> values = new ArrayList<>();
+        boolean value = false;
+        for (int i = 0; i < message.length(); i++) {
+            if (message.charAt(i) != '"') continue;
+            int start = i + 1;
+            int end = start;
+            while (end < message.length() && message.charAt(end) != '"') end += (message.charAt(end) == '\\') ? 2 : 1;
+            end = Math.min(end, message.length());
+            if (value) values.add(new int[]{start, end, utf8Length(message, start, end), end});
+            value = !value;
+            i = end;
+        }
+
+        // cut longest values first, keeping as much of each as fits
+        List<int[]> longest = new ArrayList<>(values);
+        longest.sort((a, b) -> Integer.compare(b[2], a[2]));
+        for (int[] v : longest) {
+            if (excess <= 0) break;
+            int keep = Math.max(0, v[2] - excess);
+            int cut = v[0];
+            int bytes = 0;
+            while (cut < v[1]) {
+                int units = unitLength(message, cut, v[1]);
+                int unit_bytes = utf8Length(message, cut, cut + units);
+                if (bytes + unit_bytes > keep) break;
+                bytes += unit_bytes;
+                cut += units;
+            }
+            excess -= v[2] - bytes;
+            v[3] = cut;
+        }
+        if (excess > 0) return null;
+
+        StringBuilder json = new StringBuilder(message.length());
+        int copied = 0;
+        for (int[] v : values) {
+            json.append(message, copied, v[3]);
+            copied = v[1];
+        }
+        return json.append(message, copied, message.length()).toString();
+    }
+
+    /**
+     * Returns number of bytes in UTF-8 encoding of characters, counting unpaired surrogates generously.
+     */
+    public static int utf8Length(CharSequence s, int start, int end) {
+        int bytes = end - start;
+        for (int i = start; i < end; i++) {
+            char ch = s.charAt(i);
+            if (ch >= 0x80) bytes += (ch < 0x800 || Character.isSurrogate(ch)) ? 1 : 2;
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns number of characters in escape sequence or surrogate pair at index, which must be kept together.
+     */
+    private static int unitLength(String s, int i, int end) {
+        char ch = s.charAt(i);
+        if (ch == '\\') return Math.min((i + 1 < end && s.charAt(i + 1) == 'u') ? 6 : 2, end - i);
+        if (Character.isHighSurrogate(ch) && i + 1 < end && Character.isLowSurrogate(s.charAt(i + 1))) return 2;
+        return 1;
+    }
+
 }
@@ -0,0 +1,70 @@
+// © 2016-2024 Graylog, Inc.
+
+package io.resurface;
+
+import java.util.Arrays;
+
+/**
+ * Recent latencies observed for one endpoint, used to derive timeouts and hedging delays from percentiles
+ * rather than fixed values.
+ */
+public class LatencyTracker {
+
+    /**
+     * Initialize tracker keeping the most recent samples.
+     */
+    public LatencyTracker(int capacity) {
+        if (capacity < 1) throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        this.samples = new long[capacity];
+    }
+
+    /**
+     * Returns number of samples currently held, up to capacity.
+     */
+    public synchronized int getCount() {
+        return count;
+    }
+
+    /**
+     * Returns latency in milliseconds that the given fraction of recent samples didn't exceed, or -1 if none recorded.
+     */
+    public synchronized long percentile(double p) {
+        if (p < 0 || p > 1) throw new IllegalArgumentException("Invalid percentile: " + p);
+        if (count == 0) return -1;
+        // re-sort once enough new samples arrive, rather than on every call
+        if (sorted == null || unsorted >= Math.max(1, count / RESORT_FRACTION)) {
+            sorted = Arrays.copyOf(samples, count);
+            Arrays.sort(sorted);
+            unsorted = 0;
+        }
+        return sorted[Math.max(0, (int) Math.ceil(p * sorted.length) - 1)];
+    }
+
+    /**
+     * Adds latency sample in milliseconds, replacing the oldest one once full.
+     */
+    public synchronized void record(long millis) {
+        samples[next] = Math.max(0, millis);
+        next = (next + 1) % samples.length;
+        if (count < samples.length) count++;
+        unsorted++;
+    }
+
+    /**
+     * Returns p99 latency scaled by multiplier and clamped to bounds, or fallback until MIN_SAMPLES are recorded.
+     */
+    public long timeout(long fallback, double multiplier, long min, long max) {
+        if (getCount() < MIN_SAMPLES) return fallback;
+        return Math.max(min, Math.min(max, (long) Math.ceil(percentile(0.99) * multiplier)));
+    }
+
+    static final int MIN_SAMPLES = 10;
+    private static final int RESORT_FRACTION = 16;
+
+    private int count = 0;
+    private int next = 0;
+    private final long[] samples;
+    private long[] sorted;
+    private int unsorted = 0;
+
+}
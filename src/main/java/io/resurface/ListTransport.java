@@ -0,0 +1,39 @@
+// © 2016-2024 Graylog, Inc.
+
+package io.resurface;
+
+import java.util.List;
+
+/**
+ * Transport that appends batches to an in-memory list.
+ */
+public class ListTransport implements Transport {
+
+    /**
+     * Initialize transport using list destination.
+     */
+    public ListTransport(List<String> queue) {
+        this.queue = queue;
+    }
+
+    /**
+     * Returns list where batches are appended.
+     */
+    public List<String> getQueue() {
+        return queue;
+    }
+
+    /**
+     * Appends batch to list, guarding against concurrent senders.
+     */
+    @Override
+    public boolean send(String batch) {
+        synchronized (queue) {
+            queue.add(batch);
+        }
+        return true;
+    }
+
+    private final List<String> queue;
+
+}
@@ -0,0 +1,224 @@
+// © 2016-2024 Graylog, Inc.
+
+package io.resurface;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Minimal LZ4 encoder producing standard frames of independent blocks, with no checksums.
+ * Trades compression ratio for speed, using a single hash probe per position.
+ */
+public final class Lz4 {
+
+    /**
+     * Largest uncompressed size of a single block.
+     */
+    public static final int BLOCK_SIZE = 64 * 1024;
+
+    /**
+     * Frame magic, FLG (version 1, independent blocks), BD (64 KB blocks), and header checksum.
+     */
+    static final byte[] FRAME_HEADER = {0x04, 0x22, 0x4D, 0x18, 0x60, 0x40, (byte) 0x82};
+
+    /**
+     * Returns worst-case size of a compressed block.
+     */
+    public static int maxCompressedLength(int length) {
+        return length + length / 255 + 16;
+    }
+
+    /**
+     * Returns worst-case size of a complete frame.
+     */
+    public static int maxFrameLength(int length) {
+        int blocks = (length + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        return FRAME_HEADER.length + blocks * 4 + maxCompressedLength(length) + 4;
+    }
+
+    /**
+     * Writes complete frame into dst, returning number of bytes written.
+     */
+    public static int compressFrame(byte[] src, int src_off, int src_len, byte[] dst, int dst_off, int[] table) {
+        int dp = dst_off;
+        System.arraycopy(FRAME_HEADER, 0, dst, dp, FRAME_HEADER.length);
+        dp += FRAME_HEADER.length;
+        for (int p = src_off, end = src_off + src_len; p < end; p += BLOCK_SIZE) {
+            dp = writeBlock(src, p, Math.min(BLOCK_SIZE, end - p), dst, dp, table);
+        }
+        writeIntLE(dst, dp, 0);
+        return dp + 4 - dst_off;
+    }
+
+    /**
+     * Compresses single block into dst, returning compressed length. Table holds at least 4096 entries.
+     */
+    public static int compressBlock(byte[] src, int src_off, int src_len, byte[] dst, int dst_off, int[] table) {
+        final int src_end = src_off + src_len;
+        final int match_limit = src_end - LAST_LITERALS;
+        final int mf_limit = src_end - MIN_MATCH_DISTANCE_FROM_END;
+        int anchor = src_off;
+        int sp = src_off;
+        int dp = dst_off;
+
+        if (src_len > MIN_MATCH_DISTANCE_FROM_END) {
+            Arrays.fill(table, 0, HASH_SIZE, -1);
+            while (sp < mf_limit) {
+                int seq = readIntLE(src, sp);
+                int h = (seq * -1640531535) >>> (32 - HASH_LOG);
+                int ref = table[h];
+                table[h] = sp;
+                if (ref < 0 || sp - ref > MAX_OFFSET || readIntLE(src, ref) != seq) {
+                    sp += 1 + ((sp - anchor) >>> SKIP_STRENGTH);
+                    continue;
+                }
+                while (sp > anchor && ref > src_off && src[sp - 1] == src[ref - 1]) {
+                    sp--;
+                    ref--;
+                }
+                int match_len = MIN_MATCH;
+                while (sp + match_len + 4 <= match_limit
+                        && readIntLE(src, sp + match_len) == readIntLE(src, ref + match_len)) match_len += 4;
+                while (sp + match_len < match_limit && src[sp + match_len] == src[ref + match_len]) match_len++;
+                dp = writeSequence(src, anchor, sp - anchor, sp - ref, match_len, dst, dp);
+                sp += match_len;
+                anchor = sp;
+            }
+        }
+
+        // remaining bytes are always sent as literals
+        int literals = src_end - anchor;
+        int token_pos = dp++;
+        dp = writeLength(dst, dp, literals);
+        dst[token_pos] = (byte) (Math.min(literals, 15) << 4);
+        System.arraycopy(src, anchor, dst, dp, literals);
+        return dp + literals - dst_off;
+    }
+
+    /**
+     * Allocates hash table for use with compressBlock.
+     */
+    public static int[] newTable() {
+        return new int[HASH_SIZE];
+    }
+
+    private static int writeBlock(byte[] src, int src_off, int src_len, byte[] dst, int dst_off, int[] table) {
+        int compressed = compressBlock(src, src_off, src_len, dst, dst_off + 4, table);
+        if (compressed >= src_len) {
+            // incompressible, so store block as-is
+            writeIntLE(dst, dst_off, src_len | 0x80000000);
+            System.arraycopy(src, src_off, dst, dst_off + 4, src_len);
+            return dst_off + 4 + src_len;
+        }
+        writeIntLE(dst, dst_off, compressed);
+        return dst_off + 4 + compressed;
+    }
+
+    private static int writeSequence(byte[] src, int literal_off, int literals, int offset, int match_len,
+                                     byte[] dst, int dp) {
+        int token_pos = dp++;
+        dp = writeLength(dst, dp, literals);
+        System.arraycopy(src, literal_off, dst, dp, literals);
+        dp += literals;
+        dst[dp++] = (byte) offset;
+        dst[dp++] = (byte) (offset >>> 8);
+        int extra = match_len - MIN_MATCH;
+        dp = writeLength(dst, dp, extra);
+        dst[token_pos] = (byte) ((Math.min(literals, 15) << 4) | Math.min(extra, 15));
+        return dp;
+    }
+
+    private static int writeLength(byte[] dst, int dp, int length) {
+        if (length >= 15) {
+            length -= 15;
+            while (length >= 255) {
+                dst[dp++] = (byte) 255;
+                length -= 255;
+            }
+            dst[dp++] = (byte) length;
+        }
+        return dp;
+    }
+
+    private static int readIntLE(byte[] b, int i) {
+        return (b[i] & 0xFF) | ((b[i + 1] & 0xFF) << 8) | ((b[i + 2] & 0xFF) << 16) | ((b[i + 3] & 0xFF) << 24);
+    }
+
+    static void writeIntLE(byte[] b, int i, int v) {
+        b[i] = (byte) v;
+        b[i + 1] = (byte) (v >>> 8);
+        b[i + 2] = (byte) (v >>> 16);
+        b[i + 3] = (byte) (v >>> 24);
+    }
+
+    /**
+     * Stream that buffers one block at a time and writes it as part of a frame.
+     */
+    public static class FrameOutputStream extends FilterOutputStream {
+
+        public FrameOutputStream(OutputStream out, int[] table) {
+            super(out);
+            this.table = table;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (pending == BLOCK_SIZE) flushBlock();
+            block[pending++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (pending == BLOCK_SIZE) flushBlock();
+                int n = Math.min(len, BLOCK_SIZE - pending);
+                System.arraycopy(b, off, block, pending, n);
+                pending += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        /**
+         * Writes last block and end mark without closing underlying stream.
+         */
+        public void finish() throws IOException {
+            if (pending > 0) flushBlock();
+            writeHeader();
+            byte[] end_mark = new byte[4];
+            out.write(end_mark);
+        }
+
+        private void flushBlock() throws IOException {
+            writeHeader();
+            int length = writeBlock(block, 0, pending, encoded, 0, table);
+            out.write(encoded, 0, length);
+            pending = 0;
+        }
+
+        private void writeHeader() throws IOException {
+            if (!header_written) out.write(FRAME_HEADER);
+            header_written = true;
+        }
+
+        private final byte[] block = new byte[BLOCK_SIZE];
+        private final byte[] encoded = new byte[4 + maxCompressedLength(BLOCK_SIZE)];
+        private boolean header_written = false;
+        private int pending = 0;
+        private final int[] table;
+    }
+
+    private static final int HASH_LOG = 12;
+    private static final int HASH_SIZE = 1 << HASH_LOG;
+    private static final int LAST_LITERALS = 5;
+    private static final int MAX_OFFSET = 65535;
+    private static final int MIN_MATCH = 4;
+    private static final int MIN_MATCH_DISTANCE_FROM_END = 12;
+    private static final int SKIP_STRENGTH = 6;
+
+    private Lz4() {
+    }
+
+}
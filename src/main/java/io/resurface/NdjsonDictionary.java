@@ -0,0 +1,83 @@
+// © 2016-2024 Graylog, Inc.
+
+package io.resurface;
+
+import java.nio.charset.StandardCharsets;
+import java.util.zip.Adler32;
+
+/**
+ * Preset deflate dictionary of key names and header values repeated in every logged message.
+ */
+public final class NdjsonDictionary {
+
+    /**
+     * Identifier sent to collector so it can load the same dictionary before inflating.
+     */
+    public static final String ID = "resurface-ndjson-1";
+
+    /**
+     * Name of request header that carries the dictionary identifier.
+     */
+    public static final String HEADER = "X-Resurface-Dictionary";
+
+    /**
+     * Returns copy of dictionary bytes.
+     */
+    public static byte[] bytes() {
+        return BYTES.clone();
+    }
+
+    /**
+     * Returns Adler-32 checksum of dictionary, as carried in the zlib header of each batch.
+     */
+    public static int checksum() {
+        Adler32 adler = new Adler32();
+        adler.update(BYTES, 0, BYTES.length);
+        return (int) adler.getValue();
+    }
+
+    // deflate favors short distances, so the most frequent strings go last
+    static final byte[] BYTES = (
+            "[\"request_header:accept-language\",\"en-US,en;q=0.9\"],"
+                    + "[\"request_header:accept-encoding\",\"gzip, deflate, br\"],"
+                    + "[\"request_header:cache-control\",\"no-cache\"],"
+                    + "[\"request_header:connection\",\"keep-alive\"],"
+                    + "[\"request_header:cookie\",\""
+                    + "[\"request_header:authorization\",\"Bearer "
+                    + "[\"request_header:origin\",\"https://"
+                    + "[\"request_header:referer\",\"https://"
+                    + "[\"request_header:x-forwarded-for\",\""
+                    + "[\"request_header:x-forwarded-proto\",\"https\"],"
+                    + "[\"request_header:x-request-id\",\""
+                    + "[\"request_header:user-agent\",\"Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 "
+                    + "(KHTML, like Gecko) Chrome/120.0.0.0 Safari/537.36\"],"
+                    + "[\"request_header:accept\",\"*/*\"],"
+                    + "[\"request_header:accept\",\"application/json\"],"
+                    + "[\"request_header:content-type\",\"application/json\"],"
+                    + "[\"request_header:host\",\""
+                    + "[\"request_param:"
+                    + "[\"request_body\",\"{\\\""
+                    + "[\"response_header:cache-control\",\"no-cache, no-store, must-revalidate\"],"
+                    + "[\"response_header:content-length\",\""
+                    + "[\"response_header:date\",\""
+                    + "[\"response_header:server\",\""
+                    + "[\"response_header:set-cookie\",\""
+                    + "[\"response_header:vary\",\"Accept-Encoding\"],"
+                    + "[\"response_header:content-type\",\"text/html; charset=utf-8\"],"
+                    + "[\"response_header:content-type\",\"application/json; charset=utf-8\"],"
+                    + "[\"response_body\",\"{\\\""
+                    + "[\"response_body\",\"<html>"
+                    + "[\"request_method\",\"POST\"],"
+                    + "[[\"request_method\",\"GET\"],[\"request_url\",\"https://"
+                    + "[\"response_code\",\"404\"],"
+                    + "[\"response_code\",\"200\"],"
+                    + "[\"host\",\""
+                    + "[\"interval\",\""
+                    + "[\"now\",\"1"
+                    + "\"]]\n"
+    ).getBytes(StandardCharsets.UTF_8);
+
+    private NdjsonDictionary() {
+    }
+
+}
@@ -0,0 +1,504 @@
+// © 2016-2024 Graylog, Inc.
+
+package io.resurface;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.net.URL;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Transport that posts batches to a plain HTTP collector over persistent socket channels. Request head and
+ * batch are written from direct buffers with a single gathering write, without intermediate streams.
+ */
+public class NioTransport implements Transport {
+
+    /**
+     * Initialize transport for logger using url, which must use plain HTTP.
+     */
+    public NioTransport(BaseLogger logger, URL url) {
+        if (url == null || !"http".equalsIgnoreCase(url.getProtocol())) {
+            throw new IllegalArgumentException("Invalid url for NIO transport: " + url);
+        }
+        this.logger = logger;
+        this.url = url;
+        this.port = (url.getPort() == -1) ? url.getDefaultPort() : url.getPort();
+        this.addresses = new AddressCache(url.getHost(), port, AddressCache.DEFAULT_TTL);
+        String host_header = (url.getPort() == -1) ? url.getHost() : url.getHost() + ":" + url.getPort();
+        String path = (url.getFile() == null || url.getFile().isEmpty()) ? "/" : url.getFile();
+        this.head_prefix = ("POST " + path + " HTTP/1.1\r\nHost: " + host_header
+                + "\r\nContent-Type: application/ndjson; charset=UTF-8\r\nUser-Agent: Resurface/" + logger.getVersion()
+                + " (" + logger.getAgent() + ")\r\n").getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Posts batch to url, encoded with codec configured for logger.
+     */
+    @Override
+    public boolean send(String batch) throws IOException {
+        return send(batch, null);
+    }
+
+    /**
+     * Posts batch to url with idempotency key header, encoded with codec configured for logger.
+     */
+    @Override
+    public boolean send(String batch, String idempotency_key) throws IOException {
+        Codec codec = logger.getEffectiveCodec();
+        Payload payload = takePayload();
+        try {
+            if (codec == Codec.IDENTITY) {
+                payload.encode(batch);
+                return HttpTransport.accepted(logger, post(codec, false, idempotency_key, payload.buffer));
+            }
+            Compressor compressor = logger.takeCompressor();
+            try {
+                // compressor only writes to arrays, so its much smaller output is what gets copied
+                int length = payload.utf8.encode(batch);
+                payload.copy(compressor.getBuffer(), compressor.encode(codec, payload.utf8.array(), 0, length));
+                boolean dictionary = HttpTransport.usesDictionary(codec, compressor);
+                HttpPoster.Response response = post(codec, dictionary, idempotency_key, payload.buffer);
+                if (response.code == 415 && dictionary) {
+                    // collector doesn't know our dictionary, so stop using it and resend this batch without
+                    logger.setCompressionDictionary(false);
+                    compressor.setDictionary(null);
+                    payload.copy(compressor.getBuffer(), compressor.encode(codec, payload.utf8.array(), 0, length));
+                    response = post(codec, false, idempotency_key, payload.buffer);
+                }
+                return HttpTransport.accepted(logger, response);
+            } finally {
+                logger.releaseCompressor(compressor);
+            }
+        } finally {
+            releasePayload(payload);
+        }
+    }
+
+    /**
+     * Returns cached address of url host.
+     */
+    public AddressCache getAddresses() {
+        return addresses;
+    }
+
+    /**
+     * Returns recent times taken to connect.
+     */
+    public LatencyTracker getConnectLatencies() {
+        return connects;
+    }
+
+    /**
+     * Returns milliseconds allowed for connecting, derived from recent connect times once enough are known.
+     */
+    public int getConnectTimeout() {
+        return (int) connects.timeout(HttpPoster.CONNECT_TIMEOUT, HttpPoster.TIMEOUT_MULTIPLIER, MIN_CONNECT_TIMEOUT,
+                HttpPoster.CONNECT_TIMEOUT);
+    }
+
+    /**
+     * Returns milliseconds allowed for reading response, derived from recent response times once enough are known.
+     */
+    public int getReadTimeout() {
+        return HttpPoster.readTimeout(responses);
+    }
+
+    /**
+     * Returns recent times taken from sending a request to reading its response.
+     */
+    public LatencyTracker getResponseLatencies() {
+        return responses;
+    }
+
+    /**
+     * Returns count of requests that reused an idle connection.
+     */
+    public int getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Returns count of requests that had to open a new connection.
+     */
+    public int getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Returns url that this transport posts to.
+     */
+    public URL getUrl() {
+        return url;
+    }
+
+    /**
+     * Resolves url host and opens a connection into the pool, unless one is already idle there.
+     */
+    @Override
+    public void warmUp() throws IOException {
+        synchronized (this) {
+            if (!idle.isEmpty()) return;
+        }
+        release(open());
+    }
+
+    /**
+     * Closes idle connections.
+     */
+    @Override
+    public synchronized void close() {
+        for (Connection c : idle) c.close();
+        idle.clear();
+    }
+
+    /**
+     * Posts encoded batch, retrying once on a fresh connection if a pooled one was closed while idle. Never
+     * retried after a timeout, since a slow collector may still accept the first copy.
+     */
+    private HttpPoster.Response post(Codec codec, boolean dictionary, String idempotency_key, ByteBuffer body)
+            throws IOException {
+        Connection c = acquire();
+        try {
+            return exchange(c, codec, dictionary, idempotency_key, body);
+        } catch (IOException e) {
+            c.close();
+            if (!c.reused || c.response_started || e instanceof SocketTimeoutException) throw e;
+            c = open();
+            try {
+                return exchange(c, codec, dictionary, idempotency_key, body);
+            } catch (IOException e2) {
+                c.close();
+                throw e2;
+            }
+        }
+    }
+
+    /**
+     * Sends request within read timeout derived from recent response times, and records how long it took.
+     */
+    private HttpPoster.Response exchange(Connection c, Codec codec, boolean dictionary, String idempotency_key,
+                                                 ByteBuffer body) throws IOException {
+        c.read_timeout = getReadTimeout();
+        long started = System.nanoTime();
+        try {
+            HttpPoster.Response response = roundTrip(c, codec, dictionary, idempotency_key, body);
+            responses.record(HttpPoster.elapsedMillis(started));
+            return response;
+        } catch (SocketTimeoutException e) {
+            responses.record(HttpPoster.elapsedMillis(started));  // so a slower collector raises the timeout
+            throw e;
+        }
+    }
+
+    /**
+     * Writes request head and body with gathering writes, then reads response.
+     */
+    private HttpPoster.Response roundTrip(Connection c, Codec codec, boolean dictionary, String idempotency_key,
+                                                  ByteBuffer body) throws IOException {
+        ByteBuffer head = c.head;
+        ((Buffer) head).clear();
+        head.put(head_prefix);
+        if (codec.getContentEncoding() != null) putAscii(head, "Content-Encoding: " + codec.getContentEncoding() + "\r\n");
+        if (dictionary) putAscii(head, NdjsonDictionary.HEADER + ": " + NdjsonDictionary.ID + "\r\n");
+        if (idempotency_key != null) putAscii(head, HttpTransport.IDEMPOTENCY_KEY + ": " + idempotency_key + "\r\n");
+        putAscii(head, "Content-Length: " + body.remaining() + "\r\n\r\n");
+        ((Buffer) head).flip();
+        ByteBuffer[] buffers = {head, body.duplicate()};
+        ByteBuffer last = buffers[1];
+        while (last.hasRemaining() || head.hasRemaining()) {
+            if (c.channel.write(buffers) == 0) await(c, SelectionKey.OP_WRITE, WRITE_TIMEOUT, "Write");
+        }
+        return complete(c);
+    }
+
+    /**
+     * Reads status line, headers and body, then returns connection to pool or closes it.
+     */
+    private HttpPoster.Response complete(Connection c) throws IOException {
+        ByteBuffer in = c.in;
+        ((Buffer) in).clear();
+        int end;
+        while ((end = headEnd(in)) == -1) {
+            if (!in.hasRemaining()) throw new IOException("Response head too large");
+            read(c);
+        }
+        c.response_started = true;
+        byte[] head_bytes = new byte[end];
+        ByteBuffer view = in.duplicate();
+        ((Buffer) view).flip();
+        view.get(head_bytes);
+        String[] lines = new String(head_bytes, StandardCharsets.ISO_8859_1).split("\r\n");
+        String[] parts = lines[0].split(" ", 3);
+        if (parts.length < 2 || !parts[0].startsWith("HTTP/")) throw new IOException("Invalid status line: " + lines[0]);
+        int code;
+        try {
+            code = Integer.parseInt(parts[1]);
+        } catch (NumberFormatException nfe) {
+            throw new IOException("Invalid status line: " + lines[0]);
+        }
+        Map<String, String> headers = new LinkedHashMap<>();
+        for (int i = 1; i < lines.length; i++) {
+            int colon = lines[i].indexOf(':');
+            if (colon > 0) headers.put(lines[i].substring(0, colon).trim().toLowerCase(), lines[i].substring(colon + 1).trim());
+        }
+
+        boolean keep_alive = !"close".equalsIgnoreCase(headers.get("connection")) && !"HTTP/1.0".equals(parts[0]);
+        String content_length = headers.get("content-length");
+        if (code == 204 || code == 304 || code < 200) {
+            // no body allowed
+        } else if (content_length != null && headers.get("transfer-encoding") == null) {
+            long remaining = contentLength(content_length) - (in.position() - end - 4);
+            while (remaining > 0) {
+                ((Buffer) in).clear();
+                if (remaining < in.capacity()) ((Buffer) in).limit((int) remaining);
+                remaining -= read(c);
+            }
+        } else {
+            keep_alive = false;  // body isn't needed, so close rather than parse chunks
+        }
+        HttpPoster.Response response = new HttpPoster.Response(code, headers);
+        if (keep_alive) {
+            release(c);
+        } else {
+            c.close();
+        }
+        return response;
+    }
+
+    /**
+     * Parses content length header, throwing IOException for a malformed value so the connection is closed.
+     */
+    private static long contentLength(String value) throws IOException {
+        try {
+            long length = Long.parseLong(value);
+            if (length >= 0) return length;
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        throw new IOException("Invalid content length: " + value);
+    }
+
+    /**
+     * Returns offset of blank line ending the response head, or -1 if not read yet.
+     */
+    private static int headEnd(ByteBuffer in) {
+        for (int i = 3; i < in.position(); i++) {
+            if (in.get(i) == '\n' && in.get(i - 1) == '\r' && in.get(i - 2) == '\n' && in.get(i - 3) == '\r') return i - 3;
+        }
+        return -1;
+    }
+
+    /**
+     * Reads at least one byte into connection buffer, waiting up to read timeout.
+     */
+    private static int read(Connection c) throws IOException {
+        int n;
+        while ((n = c.channel.read(c.in)) == 0) await(c, SelectionKey.OP_READ, c.read_timeout, "Read");
+        if (n == -1) throw new EOFException("Connection closed before response");
+        return n;
+    }
+
+    /**
+     * Waits until channel is ready for operation, or throws if timeout passes first.
+     */
+    private static void await(Connection c, int ops, long timeout, String what) throws IOException {
+        if (c.key.interestOps() != ops) c.key.interestOps(ops);  // each change costs a system call, so keep it
+        int ready = c.selector.select(timeout);
+        c.selector.selectedKeys().clear();
+        if (ready == 0) throw new SocketTimeoutException(what + " timed out");
+    }
+
+    private static void putAscii(ByteBuffer buffer, String s) {
+        for (int i = 0; i < s.length(); i++) buffer.put((byte) s.charAt(i));
+    }
+
+    /**
+     * Takes idle connection, or opens a new one.
+     */
+    private Connection acquire() throws IOException {
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            while (!idle.isEmpty()) {
+                Connection c = idle.pollLast();
+                if (now - c.last_used < IDLE_TIMEOUT && c.channel.isOpen()) {
+                    hits.incrementAndGet();
+                    c.reused = true;
+                    c.response_started = false;
+                    return c;
+                }
+                c.close();
+            }
+        }
+        return open();
+    }
+
+    /**
+     * Returns connection to pool, or closes it if the pool is full.
+     */
+    private void release(Connection c) {
+        c.last_used = System.currentTimeMillis();
+        synchronized (this) {
+            if (idle.size() < MAX_IDLE) {
+                idle.addLast(c);
+                return;
+            }
+        }
+        c.close();
+    }
+
+    /**
+     * Opens new non-blocking connection to url.
+     */
+    private Connection open() throws IOException {
+        misses.incrementAndGet();
+        SocketChannel channel = SocketChannel.open();
+        Selector selector = null;
+        try {
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            channel.setOption(StandardSocketOptions.SO_SNDBUF, SEND_BUFFER);  // typical batch leaves in one write
+            selector = Selector.open();
+            Connection c = new Connection(channel, selector, channel.register(selector, 0), head_prefix.length + 256);
+            InetSocketAddress address = addresses.get();
+            long started = System.nanoTime();
+            try {
+                if (!channel.connect(address)) {
+                    await(c, SelectionKey.OP_CONNECT, getConnectTimeout(), "Connect");
+                    channel.finishConnect();
+                }
+            } catch (SocketTimeoutException e) {
+                connects.record(HttpPoster.elapsedMillis(started));  // so a slower network raises the timeout
+                throw e;
+            }
+            connects.record(HttpPoster.elapsedMillis(started));
+            return c;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            if (selector != null) selector.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Takes idle payload buffer, or allocates a new one.
+     */
+    private Payload takePayload() {
+        synchronized (payloads) {
+            Payload p = payloads.pollLast();
+            if (p != null) return p;
+        }
+        return new Payload();
+    }
+
+    /**
+     * Returns payload buffer for reuse, unless it grew too large to keep around.
+     */
+    private void releasePayload(Payload p) {
+        if (p.buffer.capacity() > MAX_POOLED_PAYLOAD) return;
+        p.utf8.trim();
+        synchronized (payloads) {
+            if (payloads.size() < MAX_IDLE) payloads.addLast(p);
+        }
+    }
+
+    /**
+     * Persistent socket channel with its own selector and direct buffers.
+     */
+    private static final class Connection {
+
+        Connection(SocketChannel channel, Selector selector, SelectionKey key, int head_capacity) {
+            this.channel = channel;
+            this.head = ByteBuffer.allocateDirect(head_capacity);
+            this.selector = selector;
+            this.key = key;
+        }
+
+        void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // ignore
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+
+        final SocketChannel channel;
+        final ByteBuffer head;
+        final ByteBuffer in = ByteBuffer.allocateDirect(8192);
+        final SelectionKey key;
+        long last_used;
+        int read_timeout = HttpPoster.READ_TIMEOUT;
+        boolean reused;
+        boolean response_started;
+        final Selector selector;
+    }
+
+    /**
+     * Direct buffer holding one encoded batch, grown as needed.
+     */
+    private static final class Payload {
+
+        /**
+         * Encodes batch as UTF-8 straight into buffer.
+         */
+        void encode(String batch) {
+            buffer = utf8.encode(batch, buffer);
+        }
+
+        /**
+         * Copies encoded bytes into buffer.
+         */
+        void copy(byte[] bytes, int length) {
+            ensure(length);
+            buffer.put(bytes, 0, length);
+            ((Buffer) buffer).flip();
+        }
+
+        private void ensure(int capacity) {
+            if (buffer.capacity() < capacity) {
+                buffer = ByteBuffer.allocateDirect(Math.max(capacity, buffer.capacity() * 2));
+            } else {
+                ((Buffer) buffer).clear();
+            }
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+        final Utf8Buffer utf8 = new Utf8Buffer();
+    }
+
+    static final long IDLE_TIMEOUT = 15000;
+    static final int MAX_IDLE = 4;
+    static final int MAX_POOLED_PAYLOAD = 4 * 1024 * 1024;
+    static final int MIN_CONNECT_TIMEOUT = 1000;
+    static final int SEND_BUFFER = 256 * 1024;
+    static final long WRITE_TIMEOUT = 5000;
+
+    private final AddressCache addresses;
+    private final LatencyTracker connects = new LatencyTracker(HttpPoster.TRACKED_SAMPLES);
+    private final byte[] head_prefix;
+    private final AtomicInteger hits = new AtomicInteger();
+    private final ArrayDeque<Connection> idle = new ArrayDeque<>();
+    private final BaseLogger logger;
+    private final AtomicInteger misses = new AtomicInteger();
+    private final ArrayDeque<Payload> payloads = new ArrayDeque<>();
+    private final int port;
+    private final LatencyTracker responses = new LatencyTracker(HttpPoster.TRACKED_SAMPLES);
+    private final URL url;
+
+}
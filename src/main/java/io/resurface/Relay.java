@@ -0,0 +1,295 @@
+// © 2016-2024 Graylog, Inc.
+
+package io.resurface;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+
+/**
+ * Node-local daemon that accepts NDJSON batches from loggers in other JVMs over HTTP, and forwards their
+ * messages upstream through its own logger. The logger's dispatcher coalesces messages from every client into
+ * larger batches, so compression and connections to the collector are paid once per node rather than per JVM.
+ * Clients point their url at the relay's plain http url, so they need the allow_http_url rule, and ideally skip
+ * compression. Batches compressed with lz4 are refused with 415, so clients must use deflate, gzip or none.
+ */
+public class Relay implements AutoCloseable {
+
+    /**
+     * Runs relay on loopback until killed.
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("Usage: java -cp resurfaceio-logger.jar io.resurface.Relay <upstream url> [port]");
+            System.exit(2);
+        }
+        int port = (args.length == 2) ? Integer.parseInt(args[1]) : PORT;
+        BaseLogger logger = new BaseLogger(AGENT, args[0]);
+        if (!logger.isEnabled()) {
+            System.err.println("Invalid upstream url: " + args[0]);
+            System.exit(2);
+        }
+        logger.setLingerMillis(LINGER_MILLIS);
+        logger.setMaxLatencyMillis(MAX_LATENCY_MILLIS);
+        logger.init_dispatcher(BATCH_THRESHOLD, 2);
+        Relay relay = new Relay(logger, new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            relay.close();
+            logger.stop_dispatcher();
+        }, "resurface-relay-shutdown"));
+        System.err.println("Relaying " + relay.getUrl() + " to " + args[0]);
+    }
+
+    /**
+     * Starts accepting batches at address, submitting their messages to logger.
+     * @param logger logger whose dispatcher forwards messages upstream
+     * @param address local address to listen on, with port 0 to pick any free port
+     */
+    public Relay(BaseLogger logger, InetSocketAddress address) throws IOException {
+        if (logger == null) throw new IllegalArgumentException("Invalid logger: null");
+        if (address == null) throw new IllegalArgumentException("Invalid address: null");
+        this.logger = logger;
+        this.server = HttpServer.create(address, BACKLOG);
+        this.workers = Executors.newFixedThreadPool(WORKERS, r -> {
+            Thread t = new Thread(r, "resurface-relay");
+            t.setDaemon(true);
+            return t;
+        });
+        server.createContext("/", this::handle);
+        server.setExecutor(workers);
+        server.start();
+    }
+
+    /**
+     * Returns count of client batches accepted.
+     */
+    public int getBatchesReceived() {
+        return batches_received.get();
+    }
+
+    /**
+     * Returns count of client batches refused, whether malformed, too large or while upstream is paused.
+     */
+    public int getBatchesRejected() {
+        return batches_rejected.get();
+    }
+
+    /**
+     * Returns count of bytes received from clients, before decompression.
+     */
+    public long getBytesReceived() {
+        return bytes_received.get();
+    }
+
+    /**
+     * Returns logger forwarding messages upstream.
+     */
+    public BaseLogger getLogger() {
+        return logger;
+    }
+
+    /**
+     * Returns count of messages submitted to the logger.
+     */
+    public long getMessagesReceived() {
+        return messages_received.get();
+    }
+
+    /**
+     * Returns port the relay is listening on.
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Returns url for clients to send batches to.
+     */
+    public String getUrl() {
+        InetSocketAddress address = server.getAddress();
+        return "http://" + address.getAddress().getHostAddress() + ":" + address.getPort() + "/message";
+    }
+
+    /**
+     * Stops accepting batches. Messages already submitted are still forwarded by the logger.
+     */
+    @Override
+    public void close() {
+        server.stop(0);
+        workers.shutdown();
+    }
+
+    /**
+     * Accepts batch from a client, answering 204 once every message is queued upstream.
+     */
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                reject(exchange, 405);
+                return;
+            }
+            long throttled = logger.getThrottleMillis();
+            if (throttled > 0) {
+                // pass the collector's pause back to clients, so they hold messages instead of the relay dropping them
+                exchange.getResponseHeaders().set("Retry-After", String.valueOf((throttled + 999) / 1000));
+                reject(exchange, 429);
+                return;
+            }
+            byte[] body = read(exchange.getRequestBody());
+            if (body == null) {
+                reject(exchange, 413);
+                return;
+            }
+            bytes_received.addAndGet(body.length);
+            String encoding = exchange.getRequestHeaders().getFirst("Content-Encoding");
+            if (encoding != null && !"deflated".equals(encoding) && !"gzip".equals(encoding)) {
+                reject(exchange, 415);
+                return;
+            }
+            String dictionary = exchange.getRequestHeaders().getFirst(NdjsonDictionary.HEADER);
+            if (dictionary != null && !NdjsonDictionary.ID.equals(dictionary)) {
+                reject(exchange, 415);
+                return;
+            }
+            byte[] decoded;
+            try {
+                decoded = decode(encoding, body);
+            } catch (IOException e) {
+                reject(exchange, 400);
+                return;
+            }
+            if (decoded == null) {
+                reject(exchange, 413);
+                return;
+            }
+            List<String> messages = split(new String(decoded, StandardCharsets.UTF_8));
+            if (messages == null) {
+                reject(exchange, 400);
+                return;
+            }
+            if (!messages.isEmpty()) {
+                for (String msg : messages) logger.submit(msg);
+                messages_received.addAndGet(messages.size());
+                batches_received.incrementAndGet();
+            }
+            exchange.sendResponseHeaders(204, -1);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void reject(HttpExchange exchange, int code) throws IOException {
+        batches_rejected.incrementAndGet();
+        exchange.sendResponseHeaders(code, -1);
+    }
+
+    /**
+     * Returns request body, or null if it's larger than MAX_BODY_BYTES.
+     */
+    static byte[] read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(8192);
+        byte[] buf = new byte[8192];
+        int n;
+        while ((n = in.read(buf)) != -1) {
+            out.write(buf, 0, n);
+            if (out.size() > MAX_BODY_BYTES) return null;
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Returns body decoded according to content encoding, as sent by HttpTransport, or null if it decodes to
+     * more than MAX_BODY_BYTES. Decoding stops there, so a small compressed body can't exhaust the heap.
+     */
+    static byte[] decode(String encoding, byte[] body) throws IOException {
+        if (encoding == null) return body;
+        if ("gzip".equals(encoding)) {
+            try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(body))) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream(body.length * 4);
+                byte[] buf = new byte[8192];
+                int n;
+                while ((n = in.read(buf)) != -1) {
+                    out.write(buf, 0, n);
+                    if (out.size() > MAX_BODY_BYTES) return null;
+                }
+                return out.toByteArray();
+            }
+        }
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(body);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(body.length * 4);
+            byte[] buf = new byte[8192];
+            while (!inflater.finished()) {
+                int n = inflater.inflate(buf);
+                out.write(buf, 0, n);
+                if (out.size() > MAX_BODY_BYTES) return null;
+                if (n == 0 && inflater.needsDictionary()) {
+                    if (inflater.getAdler() != NdjsonDictionary.checksum()) throw new IOException("Unknown dictionary");
+                    inflater.setDictionary(NdjsonDictionary.bytes());
+                } else if (n == 0 && inflater.needsInput()) {
+                    throw new IOException("Truncated zlib stream");
+                }
+            }
+            return out.toByteArray();
+        } catch (DataFormatException e) {
+            throw new IOException(e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Returns messages in NDJSON batch, or null if any line isn't a JSON array.
+     */
+    static List<String> split(String ndjson) {
+        List<String> messages = new ArrayList<>();
+        int start = 0;
+        while (start < ndjson.length()) {
+            int end = ndjson.indexOf('\n', start);
+            if (end < 0) end = ndjson.length();
+            int last = end;
+            if (last > start && ndjson.charAt(last - 1) == '\r') last--;
+            if (last > start) {
+                if (ndjson.charAt(start) != '[' || ndjson.charAt(last - 1) != ']') return null;
+                messages.add(ndjson.substring(start, last));
+            }
+            start = end + 1;
+        }
+        return messages;
+    }
+
+    static final String AGENT = "Relay.java";
+    static final int BACKLOG = 256;
+    static final int BATCH_THRESHOLD = 512 * 1024;
+    static final long LINGER_MILLIS = 100;
+    static final int MAX_BODY_BYTES = 16 * 1024 * 1024;
+    static final long MAX_LATENCY_MILLIS = 1000;
+    static final int PORT = 7701;
+    static final int WORKERS = 4;
+
+    private final AtomicInteger batches_received = new AtomicInteger();
+    private final AtomicInteger batches_rejected = new AtomicInteger();
+    private final AtomicLong bytes_received = new AtomicLong();
+    private final BaseLogger logger;
+    private final AtomicLong messages_received = new AtomicLong();
+    private final HttpServer server;
+    private final ExecutorService workers;
+
+}
@@ -0,0 +1,126 @@
+// © 2016-2024 Graylog, Inc.
+
+package io.resurface;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Consumer of batches published by a SharedRingTransport, usually running in a separate process on the same
+ * host. Resumes from its own cursor in the ring header, so batches aren't lost or repeated across restarts.
+ */
+public class SharedRingReader {
+
+    /**
+     * Streams batches from ring file to standard output as NDJSON, polling until killed.
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length != 1) {
+            System.err.println("Usage: java -cp resurfaceio-logger.jar io.resurface.SharedRingReader <ring file>");
+            System.exit(2);
+        }
+        SharedRingReader reader = new SharedRingReader(new File(args[0]));
+        OutputStream out = new BufferedOutputStream(System.out, 64 * 1024);
+        while (true) {
+            byte[] batch = reader.pollBytes();
+            if (batch != null) {
+                out.write(batch);
+            } else {
+                out.flush();
+                Thread.sleep(POLL_MILLIS);
+            }
+        }
+    }
+
+    /**
+     * Opens existing ring file for reading.
+     */
+    public SharedRingReader(File file) throws IOException {
+        this.file = file;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            long length = raf.length();
+            long min_length = SharedRingTransport.HEADER_SIZE + SharedRingTransport.MIN_CAPACITY;
+            if (length < min_length || length > Integer.MAX_VALUE) {
+                throw new IOException("Not a ring file: " + file);
+            }
+            this.map = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+        }
+        boolean initialized = map.getInt(SharedRingTransport.MAGIC_OFFSET) == SharedRingTransport.MAGIC;
+        Fences.acquireFence();  // magic is read before the header it guards
+        this.capacity = map.getInt(SharedRingTransport.CAPACITY_OFFSET);
+        if (!initialized || capacity != map.capacity() - SharedRingTransport.HEADER_SIZE) {
+            throw new IOException("Not a ring file: " + file);
+        }
+        this.head = map.getLong(SharedRingTransport.HEAD_OFFSET);
+    }
+
+    /**
+     * Returns size of ring in bytes, excluding header.
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Returns file backing this ring.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Returns bytes of the ring holding records not yet read.
+     */
+    public synchronized long getPendingBytes() {
+        return map.getLong(SharedRingTransport.TAIL_OFFSET) - head;
+    }
+
+    /**
+     * Removes and returns oldest batch, or returns null if none is published.
+     */
+    public String poll() {
+        byte[] batch = pollBytes();
+        return (batch == null) ? null : new String(batch, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Removes and returns oldest batch as UTF-8 bytes, or returns null if none is published.
+     */
+    public synchronized byte[] pollBytes() {
+        long tail = map.getLong(SharedRingTransport.TAIL_OFFSET);
+        if (tail == head) return null;
+        Fences.acquireFence();  // cursor is read before the record it covers
+        int offset = (int) (head % capacity);
+        int length = map.getInt(SharedRingTransport.HEADER_SIZE + offset);
+        if (length == SharedRingTransport.WRAP) {
+            head += capacity - offset;
+            offset = 0;
+            length = map.getInt(SharedRingTransport.HEADER_SIZE);
+        }
+        if (length < 0 || SharedRingTransport.align(4 + length) > tail - head) {
+            throw new IllegalStateException("Corrupt ring record at " + head + ": " + length);
+        }
+        byte[] batch = new byte[length];
+        ((Buffer) map).position(SharedRingTransport.HEADER_SIZE + offset + 4);
+        map.get(batch);
+        head += SharedRingTransport.align(4 + length);
+        Fences.releaseFence();  // record is copied before the writer can see its space freed
+        map.putLong(SharedRingTransport.HEAD_OFFSET, head);
+        return batch;
+    }
+
+    static final long POLL_MILLIS = 1;
+
+    private final int capacity;
+    private final File file;
+    private long head;
+    private final MappedByteBuffer map;
+
+}
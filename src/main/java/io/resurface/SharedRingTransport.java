@@ -0,0 +1,157 @@
+// © 2016-2024 Graylog, Inc.
+
+package io.resurface;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Transport that publishes batches into a memory-mapped ring file, for a SharedRingReader in another process
+ * on the same host to consume. Sending makes no system calls, so put the file on a memory-backed filesystem
+ * like /dev/shm to keep the kernel from writing it back to disk.
+ * <p>
+ * The ring has one writer and one reader, each owning a cursor in the file header. The writer publishes a
+ * record by advancing its tail cursor only after the record is written, and the reader frees space by
+ * advancing its head cursor only after the record is read, so neither takes a lock. A writer that dies
+ * mid-record never advances the tail, so the reader never sees the partial record, and the next writer to
+ * open the ring resumes from the last published tail. Batches are refused while the ring is full.
+ * <p>
+ * Cursors are ordered against records with memory fences, which Java 8 lacks. On ARM and other weakly ordered
+ * CPUs, run writer and reader on Java 9 or later.
+ */
+public class SharedRingTransport implements Transport {
+
+    /**
+     * Opens ring file for writing, creating it when missing or when it was created with a different capacity.
+     * @param file path to ring file, ideally on a memory-backed filesystem
+     * @param capacity size of ring in bytes, excluding header, as a multiple of 8
+     */
+    public SharedRingTransport(File file, int capacity) throws IOException {
+        if (capacity < MIN_CAPACITY || capacity % ALIGNMENT != 0 || capacity > Integer.MAX_VALUE - HEADER_SIZE) {
+            throw new IllegalArgumentException("Invalid ring capacity: " + capacity);
+        }
+        this.file = file;
+        this.capacity = capacity;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            if (raf.length() != HEADER_SIZE + capacity) raf.setLength(HEADER_SIZE + capacity);
+            this.map = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + capacity);
+        }
+        if (map.getInt(MAGIC_OFFSET) == MAGIC && map.getInt(CAPACITY_OFFSET) == capacity) {
+            tail = map.getLong(TAIL_OFFSET);  // resume after the last record published, dropping any partial one
+            long head = map.getLong(HEAD_OFFSET);
+            if (tail < 0 || head < 0 || head > tail || tail - head > capacity) reset();
+        } else {
+            reset();
+        }
+    }
+
+    /**
+     * Returns count of batches refused because the ring was full.
+     */
+    public int getBatchesRefused() {
+        return batches_refused.get();
+    }
+
+    /**
+     * Returns count of batches published to the ring.
+     */
+    public int getBatchesWritten() {
+        return batches_written.get();
+    }
+
+    /**
+     * Returns size of ring in bytes, excluding header.
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Returns file backing this ring.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Returns bytes of the ring holding records not yet read.
+     */
+    public synchronized long getUsedBytes() {
+        return tail - map.getLong(HEAD_OFFSET);
+    }
+
+    /**
+     * Publishes batch to the ring, returning false if the reader hasn't freed enough room for it.
+     */
+    @Override
+    public synchronized boolean send(String batch) {
+        int length = utf8.encode(batch);
+        int needed = align(4 + length);
+        int offset = (int) (tail % capacity);
+        int skip = (capacity - offset < needed) ? capacity - offset : 0;
+        long head = map.getLong(HEAD_OFFSET);
+        Fences.acquireFence();  // reader is done with the space it freed before it is overwritten
+        if (needed > capacity || (tail - head) + skip + needed > capacity) {
+            batches_refused.incrementAndGet();
+            return false;
+        }
+        if (skip > 0) {
+            // record would straddle the end of the ring, so mark the gap and start over at the front
+            map.putInt(HEADER_SIZE + offset, WRAP);
+            offset = 0;
+        }
+        map.putInt(HEADER_SIZE + offset, length);
+        ((Buffer) map).position(HEADER_SIZE + offset + 4);
+        map.put(utf8.array(), 0, length);
+        tail += skip + needed;
+        Fences.releaseFence();  // record is written before the reader can see the cursor cover it
+        map.putLong(TAIL_OFFSET, tail);
+        batches_written.incrementAndGet();
+        utf8.trim();
+        return true;
+    }
+
+    /**
+     * Returns record length rounded up to alignment, so every record and wrap marker starts on a long boundary.
+     */
+    static int align(int length) {
+        return (length + ALIGNMENT - 1) & -ALIGNMENT;
+    }
+
+    /**
+     * Empties ring, writing the magic number last so a reader never sees a half-initialized header.
+     */
+    private void reset() {
+        tail = 0;
+        map.putInt(MAGIC_OFFSET, 0);
+        map.putInt(CAPACITY_OFFSET, capacity);
+        map.putLong(TAIL_OFFSET, 0);
+        map.putLong(HEAD_OFFSET, 0);
+        Fences.releaseFence();
+        map.putInt(MAGIC_OFFSET, MAGIC);
+    }
+
+    static final int ALIGNMENT = 8;
+    static final int CAPACITY_OFFSET = 4;
+    static final int HEAD_OFFSET = 128;  // cursors on separate cache lines, so writer and reader don't contend
+    static final int HEADER_SIZE = 192;
+    static final int MAGIC = 0x52494E47;
+    static final int MAGIC_OFFSET = 0;
+    static final int MIN_CAPACITY = 4096;
+    static final int TAIL_OFFSET = 64;
+    static final int WRAP = -1;
+
+    private final AtomicInteger batches_refused = new AtomicInteger();
+    private final AtomicInteger batches_written = new AtomicInteger();
+    private final int capacity;
+    private final File file;
+    private final MappedByteBuffer map;
+    private long tail;
+    private final Utf8Buffer utf8 = new Utf8Buffer();
+
+}
@@ -0,0 +1,182 @@
+// © 2016-2024 Graylog, Inc.
+
+package io.resurface;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Size-capped ring of messages in a memory-mapped file, used when the in-memory message queue is full.
+ * Positions are kept in the file header, so messages not yet dispatched are read back after a restart.
+ * The file is locked while open, so two loggers can't share one ring.
+ */
+public class SpillFile implements AutoCloseable {
+
+    /**
+     * Opens ring file, creating it when missing or when it was written with a different capacity.
+     * Throws IOException if the file is already open by this or another process.
+     * @param file path to ring file on local disk
+     * @param capacity size of ring in bytes, excluding header
+     */
+    public SpillFile(File file, int capacity) throws IOException {
+        if (capacity < 1024 || capacity > Integer.MAX_VALUE - HEADER_SIZE) {
+            throw new IllegalArgumentException("Invalid spill capacity: " + capacity);
+        }
+        this.file = file;
+        this.capacity = capacity;
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        this.channel = raf.getChannel();
+        try {
+            FileLock lock;
+            try {
+                lock = channel.tryLock();
+            } catch (OverlappingFileLockException e) {
+                lock = null;  // held by this process
+            }
+            if (lock == null) throw new IOException("Spill file already in use: " + file);
+            raf.setLength(HEADER_SIZE + capacity);
+            this.map = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + capacity);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        if (map.getInt(0) == MAGIC && map.getInt(4) == capacity) {
+            head = map.getLong(8);
+            tail = map.getLong(16);
+            count = map.getInt(24);
+            if (head < 0 || tail < head || tail - head > capacity || count < 0) reset();
+        } else {
+            reset();
+        }
+    }
+
+    /**
+     * Appends message, returning false if the ring doesn't have room for it.
+     */
+    public synchronized boolean offer(String msg) {
+        if (closed) return false;
+        byte[] bytes = msg.getBytes(StandardCharsets.UTF_8);
+        int needed = 4 + bytes.length;
+        int offset = (int) (tail % capacity);
+        int skip = (capacity - offset < needed) ? capacity - offset : 0;
+        if (needed > capacity || (tail - head) + skip + needed > capacity) return false;
+        if (skip > 0) {
+            // record would straddle the end of the ring, so mark the gap and start over at the front
+            if (skip >= 4) map.putInt(HEADER_SIZE + offset, WRAP);
+            offset = 0;
+        }
+        map.putInt(HEADER_SIZE + offset, bytes.length);
+        ((Buffer) map).position(HEADER_SIZE + offset + 4);
+        map.put(bytes);
+        tail += skip + needed;
+        count++;
+        writePositions();
+        return true;
+    }
+
+    /**
+     * Removes and returns oldest message, or returns null if the ring is empty.
+     */
+    public synchronized String poll() {
+        if (closed || count == 0) return null;
+        int offset = (int) (head % capacity);
+        if (capacity - offset < 4 || map.getInt(HEADER_SIZE + offset) == WRAP) {
+            head += capacity - offset;
+            offset = 0;
+        }
+        int length = map.getInt(HEADER_SIZE + offset);
+        byte[] bytes = new byte[length];
+        ((Buffer) map).position(HEADER_SIZE + offset + 4);
+        map.get(bytes);
+        head += 4 + length;
+        if (--count == 0) head = tail;
+        writePositions();
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns size of ring in bytes, excluding header.
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Returns number of messages waiting in the ring.
+     */
+    public synchronized int getCount() {
+        return count;
+    }
+
+    /**
+     * Returns file backing this ring.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Returns bytes of the ring currently holding messages.
+     */
+    public synchronized long getUsedBytes() {
+        return tail - head;
+    }
+
+    /**
+     * Returns true if no messages are waiting in the ring.
+     */
+    public synchronized boolean isEmpty() {
+        return count == 0;
+    }
+
+    /**
+     * Writes pending changes to disk, stops accepting messages and releases the file lock.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) return;
+        closed = true;
+        map.force();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // lock is released with the process anyway
+        }
+    }
+
+    private void reset() {
+        head = 0;
+        tail = 0;
+        count = 0;
+        map.putInt(0, MAGIC);
+        map.putInt(4, capacity);
+        writePositions();
+    }
+
+    private void writePositions() {
+        map.putLong(8, head);
+        map.putLong(16, tail);
+        map.putInt(24, count);
+    }
+
+    private static final int HEADER_SIZE = 32;
+    private static final int MAGIC = 0x52534631;  // "RSF1"
+    private static final int WRAP = -1;
+
+    private final int capacity;
+    private final FileChannel channel;
+    private boolean closed = false;
+    private int count;
+    private final File file;
+    private long head;
+    private final MappedByteBuffer map;
+    private long tail;
+
+}
@@ -0,0 +1,17 @@
+// © 2016-2024 Graylog, Inc.
+
+package io.resurface;
+
+import java.io.IOException;
+
+/**
+ * Transport that can encode messages into an open request as they are dequeued.
+ */
+public interface StreamingTransport extends Transport {
+
+    /**
+     * Opens a new batch at the destination.
+     */
+    BatchWriter open() throws IOException;
+
+}
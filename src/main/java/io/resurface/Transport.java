@@ -0,0 +1,80 @@
+// © 2016-2024 Graylog, Inc.
+
+package io.resurface;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Destination where the dispatcher thread sends NDJSON batches.
+ */
+public interface Transport {
+
+    /**
+     * Returns transport that writes length-framed batches to a node-local agent's Unix domain socket,
+     * when running on Java 16+.
+     */
+    static Transport unixSocket(Path path) {
+        try {
+            return (Transport) Class.forName("io.resurface.UnixSocketTransport")
+                    .getConstructor(Path.class)
+                    .newInstance(path);
+        } catch (ClassNotFoundException e) {
+            throw new UnsupportedOperationException("Unix domain socket transport requires Java 16+");
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Failed to create Unix domain socket transport", e);
+        }
+    }
+
+    /**
+     * Sends NDJSON batch, returning true if the destination accepted it.
+     */
+    boolean send(String batch) throws IOException;
+
+    /**
+     * Sends NDJSON batch tagged with idempotency key, so a destination that receives it twice can drop the copy.
+     * Transports without a way to carry the key send the batch as usual.
+     */
+    default boolean send(String batch, String idempotency_key) throws IOException {
+        return send(batch);
+    }
+
+    /**
+     * Starts sending NDJSON batch, completing with true if the destination accepted it.
+     * Transports that support several batches in flight override this, others send synchronously.
+     */
+    default CompletableFuture<Boolean> sendAsync(String batch) {
+        CompletableFuture<Boolean> result = new CompletableFuture<>();
+        try {
+            result.complete(send(batch));
+        } catch (Exception e) {
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    /**
+     * Returns number of batches worth keeping in flight at once, used by the dispatcher unless the logger sets
+     * its own limit. Transports that send synchronously keep the default of one.
+     */
+    default int getMaxInFlight() {
+        return 1;
+    }
+
+    /**
+     * Resolves and connects to the destination ahead of the first batch, so that batch isn't slowed by setup.
+     * Called from a background thread, and may be called again after failing.
+     */
+    default void warmUp() throws IOException {
+        // nothing to prepare by default
+    }
+
+    /**
+     * Releases connections or files held between batches. Transport remains usable afterwards.
+     */
+    default void close() {
+        // nothing held by default
+    }
+
+}
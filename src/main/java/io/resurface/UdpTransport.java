@@ -0,0 +1,173 @@
+// © 2016-2024 Graylog, Inc.
+
+package io.resurface;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Transport that fires deflated batches at a collector as UDP datagrams, never waiting on a connection or
+ * a response. Batches are split into frames that each fit one datagram, and each frame is handed to the
+ * kernel with a single send, so frames lost on the way are lost for good.
+ * <p>
+ * Each frame starts with a 14-byte big-endian header: version, flags (bit 0 set when the preset dictionary
+ * was used), frame sequence (int), batch sequence (int), frame index (short) and frame count (short).
+ * Sequences let a receiver measure loss and reassemble batches whose frames arrive out of order.
+ */
+public class UdpTransport implements Transport {
+
+    /**
+     * Initialize transport for logger sending to host and port, with frames sized for a 1500-byte MTU.
+     */
+    public UdpTransport(BaseLogger logger, String host, int port) {
+        this(logger, host, port, MAX_DATAGRAM);
+    }
+
+    /**
+     * Initialize transport for logger sending to host and port, with frames up to max datagram bytes.
+     */
+    public UdpTransport(BaseLogger logger, String host, int port, int max_datagram) {
+        if (max_datagram <= HEADER || max_datagram > 65507) {
+            throw new IllegalArgumentException("Invalid max datagram: " + max_datagram);
+        }
+        this.logger = logger;
+        this.addresses = new AddressCache(host, port, AddressCache.DEFAULT_TTL);
+        this.frame = ByteBuffer.allocateDirect(max_datagram);
+    }
+
+    /**
+     * Returns count of batches sent, including those with dropped frames.
+     */
+    public int getBatchesSent() {
+        return batches_sent.get();
+    }
+
+    /**
+     * Returns count of frames dropped locally because the socket send buffer was full or sending failed.
+     */
+    public long getFramesDropped() {
+        return frames_dropped.get();
+    }
+
+    /**
+     * Returns count of frames handed to the kernel.
+     */
+    public long getFramesSent() {
+        return frames_sent.get();
+    }
+
+    /**
+     * Returns largest number of bytes sent in one datagram, including the frame header.
+     */
+    public int getMaxDatagram() {
+        return frame.capacity();
+    }
+
+    /**
+     * Deflates batch and hands its frames to the kernel, returning true even if some were dropped. UDP never
+     * confirms delivery and resending would duplicate frames already out, so loss is only counted in frames dropped.
+     */
+    @Override
+    public synchronized boolean send(String batch) throws IOException {
+        int utf8_length = utf8.encode(batch);
+        Compressor compressor = logger.takeCompressor();
+        try {
+            int length = compressor.encode(Codec.DEFLATE, utf8.array(), 0, utf8_length);
+            int chunk = frame.capacity() - HEADER;
+            int count = (length + chunk - 1) / chunk;
+            if (count > 0xFFFF) {
+                frames_dropped.addAndGet(count);  // more frames than the header can number
+                return true;
+            }
+            byte flags = HttpTransport.usesDictionary(Codec.DEFLATE, compressor) ? FLAG_DICTIONARY : 0;
+            DatagramChannel channel = channel();
+            InetSocketAddress address = addresses.get();
+            int batch_sequence = batches_sent.getAndIncrement();
+            for (int index = 0, offset = 0; index < count; index++, offset += chunk) {
+                ((Buffer) frame).clear();
+                frame.put(VERSION).put(flags).putInt(frame_sequence++).putInt(batch_sequence)
+                        .putShort((short) index).putShort((short) count)
+                        .put(compressor.getBuffer(), offset, Math.min(chunk, length - offset));
+                ((Buffer) frame).flip();
+                try {
+                    if (channel.send(frame, address) == 0) {
+                        frames_dropped.incrementAndGet();
+                    } else {
+                        frames_sent.incrementAndGet();
+                    }
+                } catch (IOException e) {
+                    frames_dropped.incrementAndGet();  // other frames of the batch may still get through
+                }
+            }
+            return true;
+        } finally {
+            logger.releaseCompressor(compressor);
+            utf8.trim();
+        }
+    }
+
+    /**
+     * Resolves the collector and opens the channel ahead of the first batch.
+     */
+    @Override
+    public synchronized void warmUp() throws IOException {
+        addresses.resolve();
+        channel();
+    }
+
+    /**
+     * Closes channel, which is opened again by the next batch.
+     */
+    @Override
+    public synchronized void close() {
+        try {
+            if (channel != null) channel.close();
+        } catch (IOException e) {
+            // already unusable
+        } finally {
+            channel = null;
+        }
+    }
+
+    /**
+     * Returns open non-blocking channel, so a full send buffer drops a frame rather than stalling dispatch.
+     * Opens a new channel if the last one was closed by a failed send.
+     */
+    private DatagramChannel channel() throws IOException {
+        if (channel == null || !channel.isOpen()) {
+            DatagramChannel c = DatagramChannel.open();
+            try {
+                c.configureBlocking(false);
+                c.setOption(StandardSocketOptions.SO_SNDBUF, SEND_BUFFER);
+            } catch (IOException | RuntimeException e) {
+                c.close();
+                throw e;
+            }
+            channel = c;
+        }
+        return channel;
+    }
+
+    static final byte FLAG_DICTIONARY = 1;
+    static final int HEADER = 14;
+    static final int MAX_DATAGRAM = 1500 - 20 - 8;  // Ethernet MTU less IPv4 and UDP headers
+    static final int SEND_BUFFER = 1024 * 1024;
+    static final byte VERSION = 1;
+
+    private final AddressCache addresses;
+    private final AtomicInteger batches_sent = new AtomicInteger();
+    private DatagramChannel channel;
+    private final ByteBuffer frame;
+    private int frame_sequence = 0;
+    private final AtomicLong frames_dropped = new AtomicLong();
+    private final AtomicLong frames_sent = new AtomicLong();
+    private final BaseLogger logger;
+    private final Utf8Buffer utf8 = new Utf8Buffer();
+
+}
@@ -0,0 +1,107 @@
+// © 2016-2024 Graylog, Inc.
+
+package io.resurface;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reused heap buffer that strings are encoded into as UTF-8, without the copy String.getBytes allocates for
+ * every call. Encoding between arrays takes the encoder's fast path, which a wrapped string would miss.
+ * Strings can also be encoded straight into a caller's direct buffer, for channels that write from one.
+ * Not thread-safe, so each transport keeps its own.
+ */
+final class Utf8Buffer {
+
+    /**
+     * Returns backing array, holding encoded bytes from the offset passed to the last encode.
+     */
+    byte[] array() {
+        return bytes.array();
+    }
+
+    /**
+     * Returns buffer positioned after the last encoded byte.
+     */
+    ByteBuffer buffer() {
+        return bytes;
+    }
+
+    /**
+     * Encodes string from the start of the buffer, returning number of bytes encoded.
+     */
+    int encode(String s) {
+        return encode(s, 0);
+    }
+
+    /**
+     * Encodes string after leaving offset bytes free for a prefix, returning number of bytes encoded.
+     */
+    int encode(String s, int offset) {
+        int worst = offset + s.length() * 3;  // each UTF-16 char takes at most three bytes
+        if (bytes.capacity() < worst) bytes = ByteBuffer.allocate(Math.max(worst, bytes.capacity() * 2));
+        ((Buffer) bytes).clear();
+        ((Buffer) bytes).position(offset);
+        encoder.reset();
+        CoderResult result = encoder.encode(chars(s), bytes, true);
+        if (!result.isUnderflow()) throw new IllegalStateException("UTF-8 encoding failed: " + result);
+        encoder.flush(bytes);
+        return bytes.position() - offset;
+    }
+
+    /**
+     * Encodes string into direct buffer from its start, returning that buffer flipped for reading, or a larger
+     * direct buffer if the string didn't fit. Sized for the common case of one byte per char, so only batches
+     * with many multi-byte chars need to grow it.
+     */
+    ByteBuffer encode(String s, ByteBuffer target) {
+        if (target.capacity() < s.length()) target = ByteBuffer.allocateDirect(Math.max(s.length(), target.capacity() * 2));
+        ((Buffer) target).clear();
+        CharBuffer in = chars(s);
+        encoder.reset();
+        CoderResult result;
+        while ((result = encoder.encode(in, target, true)).isOverflow()) {
+            ByteBuffer larger = ByteBuffer.allocateDirect(Math.max(target.capacity() * 2, target.position() + in.remaining() * 3));
+            ((Buffer) target).flip();
+            larger.put(target);
+            target = larger;
+        }
+        if (!result.isUnderflow()) throw new IllegalStateException("UTF-8 encoding failed: " + result);
+        encoder.flush(target);
+        ((Buffer) target).flip();
+        return target;
+    }
+
+    /**
+     * Drops arrays grown for an unusually large string, so they aren't held between batches.
+     */
+    void trim() {
+        if (bytes.capacity() > MAX_POOLED) {
+            bytes = ByteBuffer.allocate(INITIAL_CAPACITY);
+            chars = new char[INITIAL_CAPACITY];
+        }
+    }
+
+    /**
+     * Copies string into reused char array, since encoding a wrapped string misses the encoder's fast path.
+     */
+    private CharBuffer chars(String s) {
+        if (chars.length < s.length()) chars = new char[Math.max(s.length(), chars.length * 2)];
+        s.getChars(0, s.length(), chars, 0);
+        return CharBuffer.wrap(chars, 0, s.length());
+    }
+
+    static final int INITIAL_CAPACITY = 64 * 1024;
+    static final int MAX_POOLED = 4 * 1024 * 1024;
+
+    private ByteBuffer bytes = ByteBuffer.allocate(INITIAL_CAPACITY);
+    private char[] chars = new char[INITIAL_CAPACITY];
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+}
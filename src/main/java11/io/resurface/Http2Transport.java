@@ -0,0 +1,177 @@
+// © 2016-2024 Graylog, Inc.
+
+package io.resurface;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Transport that sends several batches at once over one multiplexed HTTP/2 connection.
+ * Only available on Java 11+, create using HttpTransport.http2.
+ */
+public class Http2Transport implements Transport {
+
+    /**
+     * Initialize transport for logger using url and concurrency cap.
+     */
+    public Http2Transport(BaseLogger logger, URL url, int max_in_flight) throws URISyntaxException {
+        if (max_in_flight < 1) throw new IllegalArgumentException("Invalid max in flight: " + max_in_flight);
+        this.logger = logger;
+        this.uri = url.toURI();
+        this.max_in_flight = max_in_flight;
+        this.permits = new Semaphore(max_in_flight);
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(Duration.ofMillis(HttpPoster.CONNECT_TIMEOUT))
+                .build();
+    }
+
+    /**
+     * Returns number of batches currently in flight.
+     */
+    public int getInFlight() {
+        return max_in_flight - permits.availablePermits();
+    }
+
+    /**
+     * Returns maximum number of batches sent concurrently, which the dispatcher keeps in flight by default.
+     */
+    @Override
+    public int getMaxInFlight() {
+        return max_in_flight;
+    }
+
+    /**
+     * Returns recent times taken from sending a request to reading its response.
+     */
+    public LatencyTracker getResponseLatencies() {
+        return responses;
+    }
+
+    /**
+     * Returns milliseconds allowed for each request, derived from recent response times once enough are known.
+     */
+    public int getTimeout() {
+        return HttpPoster.CONNECT_TIMEOUT + HttpPoster.readTimeout(responses);
+    }
+
+    /**
+     * Sends batch and waits for response.
+     */
+    @Override
+    public boolean send(String batch) throws IOException {
+        return send(batch, null);
+    }
+
+    /**
+     * Sends batch with idempotency key header and waits for response.
+     */
+    @Override
+    public boolean send(String batch, String idempotency_key) throws IOException {
+        try {
+            return sendAsync(batch, idempotency_key).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Starts sending batch, waiting first if the concurrency cap has been reached.
+     */
+    @Override
+    public CompletableFuture<Boolean> sendAsync(String batch) {
+        return sendAsync(batch, null);
+    }
+
+    /**
+     * Starts sending batch with idempotency key header, waiting first if the concurrency cap has been reached.
+     * Request timeout is derived from recent response times once enough are known.
+     */
+    public CompletableFuture<Boolean> sendAsync(String batch, String idempotency_key) {
+        CompletableFuture<Boolean> result = new CompletableFuture<>();
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            result.completeExceptionally(e);
+            return result;
+        }
+        post(batch, idempotency_key, result);
+        return result;
+    }
+
+    /**
+     * Posts batch while holding a permit, releasing it once result is complete. A collector that doesn't know
+     * our dictionary gets the batch once more without it, as HttpTransport does.
+     */
+    private void post(String batch, String idempotency_key, CompletableFuture<Boolean> result) {
+        try {
+            Codec codec = logger.getEffectiveCodec();
+            byte[] bytes = batch.getBytes(StandardCharsets.UTF_8);
+            HttpRequest.Builder request = HttpRequest.newBuilder(uri)
+                    .timeout(Duration.ofMillis(getTimeout()));
+            boolean dictionary = false;
+            if (codec == Codec.IDENTITY) {
+                HttpTransport.headers(logger, codec, null, idempotency_key).forEach(request::header);
+            } else {
+                Compressor compressor = logger.takeCompressor();
+                try {
+                    bytes = Arrays.copyOf(compressor.getBuffer(), compressor.encode(codec, bytes, 0, bytes.length));
+                    dictionary = HttpTransport.usesDictionary(codec, compressor);
+                    HttpTransport.headers(logger, codec, compressor, idempotency_key).forEach(request::header);
+                } finally {
+                    logger.releaseCompressor(compressor);
+                }
+            }
+            final boolean sent_dictionary = dictionary;
+            request.POST(HttpRequest.BodyPublishers.ofByteArray(bytes));
+            long started = System.nanoTime();
+            client.sendAsync(request.build(), HttpResponse.BodyHandlers.discarding()).whenComplete((response, e) -> {
+                // timed out requests count too, so a slower collector raises the timeout
+                if (e == null || e instanceof HttpTimeoutException || e.getCause() instanceof HttpTimeoutException) {
+                    responses.record(HttpPoster.elapsedMillis(started));
+                }
+                if (e == null && response.statusCode() == 415 && sent_dictionary) {
+                    // collector doesn't know our dictionary, so stop using it and resend this batch without
+                    logger.setCompressionDictionary(false);
+                    post(batch, idempotency_key, result);
+                    return;
+                }
+                permits.release();
+                if (e != null) {
+                    result.completeExceptionally(e);
+                } else {
+                    HttpTransport.throttle(logger, response.statusCode(),
+                            response.headers().firstValue("retry-after").orElse(null));
+                    result.complete(response.statusCode() == 204);
+                }
+            });
+        } catch (Exception e) {
+            permits.release();
+            result.completeExceptionally(e);
+        }
+    }
+
+    private final HttpClient client;
+    private final BaseLogger logger;
+    private final int max_in_flight;
+    private final Semaphore permits;
+    private final LatencyTracker responses = new LatencyTracker(HttpPoster.TRACKED_SAMPLES);
+    private final URI uri;
+
+}
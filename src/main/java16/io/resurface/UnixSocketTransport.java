@@ -0,0 +1,139 @@
+// © 2016-2024 Graylog, Inc.
+
+package io.resurface;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Transport that hands batches to a node-local agent over a Unix domain socket, without TCP or HTTP in between.
+ * Each batch is framed as a 4-byte big-endian length followed by uncompressed UTF-8 NDJSON, and counts as
+ * accepted once written to the socket. Only available on Java 16+, create using Transport.unixSocket.
+ */
+public class UnixSocketTransport implements Transport {
+
+    /**
+     * Initialize transport for agent listening on socket path.
+     */
+    public UnixSocketTransport(Path path) {
+        this.address = UnixDomainSocketAddress.of(path);
+    }
+
+    /**
+     * Returns count of connections opened to the agent.
+     */
+    public int getConnects() {
+        return connects.get();
+    }
+
+    /**
+     * Returns path of socket where the agent listens.
+     */
+    public Path getPath() {
+        return address.getPath();
+    }
+
+    /**
+     * Writes batch as one frame, reconnecting once if the agent closed the connection since the last batch.
+     */
+    @Override
+    public synchronized boolean send(String batch) throws IOException {
+        int length = utf8.encode(batch, 4);
+        ByteBuffer frame = utf8.buffer();
+        frame.putInt(0, length).flip();
+        boolean reused = (channel != null);
+        if (!reused) connect();
+        try {
+            write(frame);
+        } catch (IOException e) {
+            close();
+            if (!reused || e instanceof SocketTimeoutException) throw e;
+            // agent restarted, and discards the partial frame with the old connection, so send the whole frame again
+            connect();
+            frame.rewind();
+            try {
+                write(frame);
+            } catch (IOException e2) {
+                close();
+                throw e2;
+            }
+        }
+        utf8.trim();
+        return true;
+    }
+
+    /**
+     * Connects to the agent ahead of the first batch.
+     */
+    @Override
+    public synchronized void warmUp() throws IOException {
+        if (channel == null) connect();
+    }
+
+    /**
+     * Closes connection to the agent, which is opened again by the next batch.
+     */
+    @Override
+    public synchronized void close() {
+        try {
+            if (channel != null) channel.close();
+            if (selector != null) selector.close();
+        } catch (IOException e) {
+            // already unusable
+        } finally {
+            channel = null;
+            selector = null;
+        }
+    }
+
+    /**
+     * Opens non-blocking connection to the agent.
+     */
+    private void connect() throws IOException {
+        SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+        Selector selector = null;
+        try {
+            channel.connect(address);  // local socket either accepts or refuses immediately
+            channel.configureBlocking(false);
+            selector = Selector.open();
+            channel.register(selector, SelectionKey.OP_WRITE);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            if (selector != null) selector.close();
+            throw e;
+        }
+        connects.incrementAndGet();
+        this.channel = channel;
+        this.selector = selector;
+    }
+
+    /**
+     * Writes whole frame, waiting up to write timeout whenever the socket buffer is full.
+     */
+    private void write(ByteBuffer frame) throws IOException {
+        while (frame.hasRemaining()) {
+            if (channel.write(frame) == 0) {
+                int ready = selector.select(WRITE_TIMEOUT);
+                selector.selectedKeys().clear();
+                if (ready == 0) throw new SocketTimeoutException("Write timed out");
+            }
+        }
+    }
+
+    static final long WRITE_TIMEOUT = 5000;
+
+    private final UnixDomainSocketAddress address;
+    private SocketChannel channel;
+    private final AtomicInteger connects = new AtomicInteger();
+    private Selector selector;
+    private final Utf8Buffer utf8 = new Utf8Buffer();
+
+}
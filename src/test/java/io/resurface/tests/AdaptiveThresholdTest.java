@@ -0,0 +1,76 @@
+// © 2016-2024 Graylog, Inc.
+
+package io.resurface.tests;
+
+import io.resurface.AdaptiveThreshold;
+import io.resurface.BaseLogger;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static com.mscharhag.oleaster.matcher.Matchers.expect;
+import static io.resurface.tests.Helper.*;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests against controller that tunes batch threshold at runtime.
+ */
+public class AdaptiveThresholdTest {
+
+    @Test
+    public void growsWhileThroughputHoldsTest() {
+        AdaptiveThreshold threshold = new AdaptiveThreshold(10000, 100000);
+        expect(threshold.get()).toEqual(10000);
+        for (int i = 0; i < 100; i++) {
+            // fixed latency, so bigger batches always move more bytes per second
+            threshold.record(threshold.get(), 20000000L, true, true);
+        }
+        expect(threshold.get()).toEqual(100000);
+        expect(threshold.getThroughput()).toBeGreaterThan(4000000.0);
+
+        threshold.record(1, 1, true, false);  // partial batches don't count
+        expect(threshold.get()).toEqual(100000);
+        threshold.record(threshold.get(), 20000000L, false, true);
+        expect(threshold.get()).toEqual(50000);
+        for (int i = 0; i < 10; i++) threshold.record(threshold.get(), 1000000000L, false, true);
+        expect(threshold.get()).toEqual(10000);
+    }
+
+    @Test
+    public void backsOffWhenThroughputDropsTest() {
+        AdaptiveThreshold threshold = new AdaptiveThreshold(1000, 1000000);
+        for (int i = 0; i < 5; i++) threshold.record(threshold.get(), 1000000L, true, true);
+        int grown = threshold.get();
+        expect(grown).toBeGreaterThan(1000);
+        threshold.record(threshold.get(), 1000000000L, true, true);
+        expect(threshold.get()).toBeSmallerThan(grown);
+
+        try {
+            new AdaptiveThreshold(100, 10);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+            expect(expected.getMessage()).toContain("Invalid max threshold");
+        }
+    }
+
+    @Test
+    public void tunesDispatcherTest() {
+        BaseLogger logger = new BaseLogger(MOCK_AGENT, batch -> {
+            try {
+                Thread.sleep(5);
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            return true;
+        });
+        expect(logger.getAdaptiveThreshold() == null).toBeTrue();
+        logger.setAdaptiveBatching(MOCK_MESSAGE.length() * 10, MOCK_MESSAGE.length() * 1000);
+        logger.init_dispatcher();
+        expect(logger.getDispatcher().getBatchThreshold()).toEqual(MOCK_MESSAGE.length() * 10);
+        for (int i = 0; i < 20000; i++) logger.submit(MOCK_MESSAGE);
+        logger.stop_dispatcher();
+        expect(logger.getDispatcher().getBatchThreshold()).toBeGreaterThan(MOCK_MESSAGE.length() * 100);
+        expect(logger.getSubmitFailures()).toEqual(0);
+    }
+
+}
@@ -0,0 +1,60 @@
+// © 2016-2024 Graylog, Inc.
+
+package io.resurface.tests;
+
+import io.resurface.AddressCache;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+
+import static com.mscharhag.oleaster.matcher.Matchers.expect;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests against cached address of collector host.
+ */
+public class AddressCacheTest {
+
+    @Test
+    public void cachesAddressTest() throws Exception {
+        AddressCache cache = new AddressCache("localhost", 4001, 60000);
+        expect(cache.getLookups()).toEqual(0);
+        InetSocketAddress address = cache.get();
+        expect(address.getPort()).toEqual(4001);
+        expect(address.isUnresolved()).toBeFalse();
+        for (int i = 0; i < 10; i++) expect(cache.get() == address).toBeTrue();
+        expect(cache.getLookups()).toEqual(1);
+    }
+
+    @Test
+    public void refreshesInBackgroundTest() throws Exception {
+        AddressCache cache = new AddressCache("localhost", 4001, 0);
+        InetSocketAddress address = cache.get();
+        expect(cache.getLookups()).toEqual(1);
+
+        // expired address is still returned while a fresh one is looked up
+        expect(cache.get() == address).toBeTrue();
+        for (int i = 0; i < 100 && cache.getLookups() < 2; i++) Thread.sleep(10);
+        expect(cache.getLookups()).toBeGreaterThan(1);
+        expect(cache.get().getAddress()).toEqual(address.getAddress());
+    }
+
+    @Test
+    public void failsForUnknownHostTest() {
+        AddressCache cache = new AddressCache("unknown.invalid", 4001, 60000);
+        try {
+            cache.get();
+            fail("Expected UnknownHostException");
+        } catch (UnknownHostException expected) {
+            expect(cache.getLookups()).toEqual(1);
+        }
+        try {
+            new AddressCache("localhost", 4001, -1);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+            expect(expected.getMessage()).toContain("Invalid ttl millis");
+        }
+    }
+
+}
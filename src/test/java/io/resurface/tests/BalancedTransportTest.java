@@ -0,0 +1,219 @@
+// © 2016-2024 Graylog, Inc.
+
+package io.resurface.tests;
+
+import io.resurface.BalancedTransport;
+import io.resurface.BaseLogger;
+import io.resurface.Transport;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.mscharhag.oleaster.matcher.Matchers.expect;
+import static io.resurface.tests.Helper.*;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests against transport spreading batches across several collectors.
+ */
+public class BalancedTransportTest {
+
+    @Test
+    public void spreadsAcrossCollectorsTest() throws Exception {
+        try (MockCollector a = new MockCollector(); MockCollector b = new MockCollector(); MockCollector c = new MockCollector()) {
+            BaseLogger logger = new BaseLogger(MOCK_AGENT, a.url() + ", " + b.url() + "," + c.url());
+            expect(logger.isEnabled()).toBeTrue();
+            expect(logger.getTransport() instanceof BalancedTransport).toBeTrue();
+            BalancedTransport transport = (BalancedTransport) logger.getTransport();
+            expect(transport.getEndpoints().size()).toEqual(3);
+            expect(transport.getEndpoints().get(1).getName()).toEqual(b.url());
+            expect(transport.getMaxInFlight()).toEqual(3);
+
+            logger.setMaxInFlight(4);
+            logger.init_dispatcher(MOCK_MESSAGE.length() * 10);
+            for (int i = 0; i < 3000; i++) logger.submit(MOCK_MESSAGE);
+            logger.stop_dispatcher();
+            expect(a.messages() + b.messages() + c.messages()).toEqual(3000);
+            for (MockCollector collector : new MockCollector[]{a, b, c}) expect(collector.batches()).toBeGreaterThan(0);
+            int successes = 0;
+            for (BalancedTransport.Endpoint e : transport.getEndpoints()) {
+                successes += e.getSuccesses();
+                expect(e.getFailures()).toEqual(0);
+                expect(e.getOutstanding()).toEqual(0);
+            }
+            expect(successes).toEqual(a.batches() + b.batches() + c.batches());
+        }
+
+        BaseLogger logger = new BaseLogger(MOCK_AGENT, "http://localhost/message,ftp://localhost/message");
+        expect(logger.isEnabled()).toBeFalse();
+        expect(logger.getTransport() == null).toBeTrue();
+    }
+
+    @Test
+    public void ejectsFailingCollectorTest() throws Exception {
+        AtomicBoolean down = new AtomicBoolean(true);
+        BalancedTransport.Endpoint flaky = new BalancedTransport.Endpoint("flaky", batch -> {
+            if (down.get()) throw new IOException("connection refused");
+            return true;
+        });
+        BalancedTransport.Endpoint steady = new BalancedTransport.Endpoint("steady", batch -> {
+            try {
+                Thread.sleep(5);  // slower than flaky collector, so flaky one stays preferred until ejected
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            return true;
+        });
+        BalancedTransport transport = new BalancedTransport(Arrays.asList(flaky, steady));
+        transport.setSelection(BalancedTransport.Selection.LEAST_OUTSTANDING);
+        transport.setEjection(2, 1000);
+
+        // every batch fails over to the steady collector, and the flaky one is skipped once ejected
+        for (int i = 0; i < 100 && !flaky.isEjected(); i++) expect(transport.send(MOCK_MESSAGE)).toBeTrue();
+        expect(flaky.getFailures()).toEqual(2);
+        expect(flaky.getEjections()).toEqual(1);
+        for (int i = 0; i < 20; i++) expect(transport.send(MOCK_MESSAGE)).toBeTrue();
+        expect(flaky.getFailures()).toEqual(2);
+        expect(steady.getFailures()).toEqual(0);
+
+        // recovered collector rejoins after cooldown
+        down.set(false);
+        for (int i = 0; i < 100 && flaky.isEjected(); i++) Thread.sleep(20);
+        expect(flaky.isEjected()).toBeFalse();
+        for (int i = 0; i < 20; i++) expect(transport.send(MOCK_MESSAGE)).toBeTrue();
+        expect(flaky.getSuccesses()).toBeGreaterThan(5);
+        expect(flaky.getEjections()).toEqual(1);
+
+        // batches still go out when every collector is ejected
+        down.set(true);
+        BalancedTransport single = new BalancedTransport(Collections.singletonList(flaky));
+        single.setEjection(1, 60000);
+        expect(single.send(MOCK_MESSAGE)).toBeFalse();
+        expect(flaky.isEjected()).toBeTrue();
+        down.set(false);
+        expect(single.send(MOCK_MESSAGE)).toBeTrue();
+        expect(flaky.isEjected()).toBeFalse();
+
+        try {
+            transport.setEjection(0, 1000);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+            expect(expected.getMessage()).toContain("Invalid ejection failures");
+        }
+        try {
+            new BalancedTransport(Collections.emptyList());
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+            expect(expected.getMessage()).toContain("Invalid endpoints");
+        }
+    }
+
+    @Test
+    public void failsOverWithSameKeyTest() throws Exception {
+        List<String> keys = Collections.synchronizedList(new ArrayList<>());
+        BalancedTransport.Endpoint refusing = new BalancedTransport.Endpoint("refusing", keyed(keys, false));
+        BalancedTransport.Endpoint accepting = new BalancedTransport.Endpoint("accepting", keyed(keys, true));
+        BalancedTransport transport = new BalancedTransport(Arrays.asList(refusing, accepting));
+        transport.setSelection(BalancedTransport.Selection.LEAST_OUTSTANDING);
+        transport.setEjection(100, 1000);
+        for (int i = 0; i < 10; i++) expect(transport.send(MOCK_MESSAGE)).toBeTrue();
+        expect(refusing.getFailures()).toBeGreaterThan(0);
+        expect(keys.size()).toEqual(10 + refusing.getFailures());
+        expect(new HashSet<>(keys).size()).toEqual(10);
+        expect(keys.contains(null)).toBeFalse();
+    }
+
+    @Test
+    public void favorsFasterCollectorTest() {
+        BalancedTransport.Endpoint slow = new BalancedTransport.Endpoint("slow", batch -> {
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            return true;
+        });
+        BalancedTransport.Endpoint fast = new BalancedTransport.Endpoint("fast", batch -> true);
+        BalancedTransport transport = new BalancedTransport(Arrays.asList(slow, fast));
+        expect(transport.getSelection() == BalancedTransport.Selection.TWO_CHOICES).toBeTrue();
+        for (int i = 0; i < 100; i++) expect(transport.send(MOCK_MESSAGE)).toBeTrue();
+        expect(slow.getSuccesses()).toBeSmallerThan(3);
+        expect(fast.getSuccesses()).toBeGreaterThan(97);
+        expect(slow.getLatencyMillis()).toBeGreaterThan(fast.getLatencyMillis());
+    }
+
+    @Test
+    public void hedgesSlowBatchesTest() throws Exception {
+        List<String> keys = Collections.synchronizedList(new ArrayList<>());
+        Transport stalling = new Transport() {
+            @Override
+            public boolean send(String batch) throws IOException {
+                return send(batch, null);
+            }
+
+            @Override
+            public boolean send(String batch, String idempotency_key) throws IOException {
+                boolean primary = !keys.contains(idempotency_key);
+                keys.add(idempotency_key);
+                if (primary) {
+                    try {
+                        Thread.sleep(300);  // first copy of each batch stalls, so only its hedge is fast
+                    } catch (InterruptedException e) {
+                        throw new IOException(e);
+                    }
+                }
+                return true;
+            }
+        };
+        BalancedTransport.Endpoint a = new BalancedTransport.Endpoint("a", stalling);
+        BalancedTransport.Endpoint b = new BalancedTransport.Endpoint("b", stalling);
+        BalancedTransport transport = new BalancedTransport(Arrays.asList(a, b));
+        expect(transport.isHedging()).toBeFalse();
+        expect(a.getHedgeDelay()).toEqual(-1L);
+        for (int i = 0; i < 20; i++) {
+            a.getLatencies().record(i < 19 ? 1 : 50);
+            b.getLatencies().record(i < 19 ? 1 : 50);
+        }
+        expect(a.getHedgeDelay()).toEqual(50L);
+
+        transport.setHedging(true);
+        long started = System.nanoTime();
+        for (int i = 0; i < 5; i++) expect(transport.send(MOCK_MESSAGE)).toBeTrue();
+        expect((System.nanoTime() - started) / 1000000).toBeSmallerThan(1000L);
+        expect(transport.getHedgesFired()).toEqual(5);
+        expect(transport.getHedgesWon()).toEqual(5);
+
+        // both copies of each batch carry the same key, so the collector can drop the later one
+        Thread.sleep(500);
+        expect(keys.size()).toEqual(10);
+        expect(new HashSet<>(keys).size()).toEqual(5);
+        expect(keys.contains(null)).toBeFalse();
+        expect(a.getSuccesses() + b.getSuccesses()).toEqual(10);
+        transport.close();
+    }
+
+    /**
+     * Returns transport recording the idempotency key of every batch, and accepting or refusing all of them.
+     */
+    private static Transport keyed(List<String> keys, boolean accepting) {
+        return new Transport() {
+            @Override
+            public boolean send(String batch) {
+                return send(batch, null);
+            }
+
+            @Override
+            public boolean send(String batch, String idempotency_key) {
+                keys.add(idempotency_key);
+                return accepting;
+            }
+        };
+    }
+
+}
@@ -3,12 +3,18 @@
 package io.resurface.tests;
 
 import io.resurface.BaseLogger;
+import io.resurface.ListTransport;
+import io.resurface.Transport;
 import io.resurface.UsageLoggers;
 import org.junit.Test;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
 
 import static com.mscharhag.oleaster.matcher.Matchers.expect;
 import static io.resurface.tests.Helper.*;
@@ -148,6 +154,7 @@ public class BaseLoggerTest {
         BaseLogger logger = new BaseLogger(MOCK_AGENT, queue);
         logger.init_dispatcher();
         expect(logger.getQueue()).toEqual(queue);
+        expect(logger.getTransport() instanceof ListTransport).toBeTrue();
         expect(logger.getUrl()).toBeNull();
         expect(logger.isEnableable()).toBeTrue();
         expect(logger.isEnabled()).toBeTrue();
@@ -163,6 +170,58 @@ public class BaseLoggerTest {
         expect(logger.getSubmitSuccesses()).toEqual(2);
     }
 
+    @Test
+    public void submitsToTransportTest() {
+        List<String> batches = new ArrayList<>();
+        BaseLogger logger = new BaseLogger(MOCK_AGENT, batch -> batches.add(batch) && batches.size() < 2);
+        expect(logger.getQueue()).toBeNull();
+        expect(logger.getUrl()).toBeNull();
+        expect(logger.isEnableable()).toBeTrue();
+        expect(logger.isEnabled()).toBeTrue();
+        logger.dispatch(MOCK_MESSAGE);
+        logger.dispatch(MOCK_MESSAGE);
+        logger.dispatch(null);
+        expect(batches.size()).toEqual(2);
+        expect(logger.getSubmitSuccesses()).toEqual(1);
+        expect(logger.getSubmitFailures()).toEqual(1);
+
+        logger = new BaseLogger(MOCK_AGENT, batch -> {
+            throw new IOException("simulated failure");
+        });
+        logger.dispatch(MOCK_MESSAGE);
+        expect(logger.getSubmitSuccesses()).toEqual(0);
+        expect(logger.getSubmitFailures()).toEqual(1);
+
+        logger = new BaseLogger(MOCK_AGENT, (Transport) null);
+        expect(logger.isEnableable()).toBeFalse();
+        expect(logger.isEnabled()).toBeFalse();
+    }
+
+    @Test
+    public void usesCompressionOptionsTest() {
+        BaseLogger logger = new BaseLogger(MOCK_AGENT, Helper.DEMO_URL);
+        expect(logger.getCompressionLevel()).toEqual(Deflater.DEFAULT_COMPRESSION);
+        expect(logger.getCompressionStrategy()).toEqual(Deflater.DEFAULT_STRATEGY);
+        logger.setCompressionLevel(Deflater.BEST_SPEED);
+        logger.setCompressionStrategy(Deflater.FILTERED);
+        expect(logger.getCompressionLevel()).toEqual(Deflater.BEST_SPEED);
+        expect(logger.getCompressionStrategy()).toEqual(Deflater.FILTERED);
+        for (int invalid : new int[]{-2, 10}) {
+            try {
+                logger.setCompressionLevel(invalid);
+                fail();
+            } catch (IllegalArgumentException expected) {
+                expect(logger.getCompressionLevel()).toEqual(Deflater.BEST_SPEED);
+            }
+        }
+        try {
+            logger.setCompressionStrategy(3);
+            fail();
+        } catch (IllegalArgumentException expected) {
+            expect(logger.getCompressionStrategy()).toEqual(Deflater.FILTERED);
+        }
+    }
+
     @Test
     public void usesSkipOptionsTest() {
         BaseLogger logger = new BaseLogger(MOCK_AGENT, Helper.DEMO_URL);
@@ -420,4 +479,297 @@ public class BaseLoggerTest {
             expect(Messages.toString()).toEqual(NDJSON_MESSAGE);
         }
     }
+
+    @Test
+    public void pipelinedBatchTest() {
+        final AtomicInteger concurrent = new AtomicInteger();
+        final AtomicInteger peak = new AtomicInteger();
+        final AtomicInteger delivered = new AtomicInteger();
+        final AtomicInteger attempts = new AtomicInteger();
+        final AtomicInteger accepted = new AtomicInteger();
+        final AtomicInteger refused = new AtomicInteger();
+        BaseLogger logger = new BaseLogger(MOCK_AGENT, batch -> {
+            peak.accumulateAndGet(concurrent.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            concurrent.decrementAndGet();
+            delivered.addAndGet(batch.split("\n").length);
+            boolean accept = attempts.incrementAndGet() % 3 != 0;
+            (accept ? accepted : refused).incrementAndGet();
+            return accept;
+        });
+        logger.init_dispatcher(MOCK_MESSAGE.length() * 5, 4);
+        expect(logger.getDispatcher().getMaxInFlight()).toEqual(4);
+        for (int i = 0; i < 500; i++) logger.submit(MOCK_MESSAGE);
+        logger.stop_dispatcher();
+
+        expect(delivered.get()).toEqual(500);
+        expect(peak.get()).toBeGreaterThan(1);
+        expect(peak.get()).toBeSmallerThan(5);
+        expect(logger.getDispatcher().getInFlight()).toEqual(0);
+        expect(refused.get()).toBeGreaterThan(0);
+        expect(logger.getSubmitSuccesses()).toEqual(accepted.get());
+        expect(logger.getSubmitFailures()).toEqual(refused.get());
+        expect((long) (accepted.get() + refused.get())).toEqual(logger.getDispatcher().getBatchCount());
+    }
+
+    @Test
+    public void pipelinedAccountingTest() {
+        List<String> queue = new ArrayList<>();
+        BaseLogger logger = new BaseLogger(MOCK_AGENT, queue);
+        logger.setMaxInFlight(8);
+        expect(logger.getMaxInFlight()).toEqual(8);
+        logger.init_dispatcher(0);
+        for (int i = 0; i < 1000; i++) logger.submit(MOCK_MESSAGE);
+        logger.stop_dispatcher();
+        int messages = 0;
+        for (String batch : queue) messages += batch.split("\n").length;
+        expect(messages).toEqual(1000);
+        expect(logger.getSubmitSuccesses()).toEqual(queue.size());
+        expect(logger.getSubmitFailures()).toEqual(0);
+    }
+
+    @Test
+    public void retriesFailedBatchesTest() throws Exception {
+        List<String> delivered = new ArrayList<>();
+        AtomicInteger outage = new AtomicInteger(2);
+        BaseLogger logger = new BaseLogger(MOCK_AGENT, batch -> {
+            if (outage.getAndDecrement() > 0) throw new IOException("collector restarting");
+            synchronized (delivered) {
+                delivered.add(batch);
+            }
+            return true;
+        });
+        logger.setMaxRetryBytes(1024 * 1024);
+        logger.init_dispatcher();
+        logger.submit(MOCK_MESSAGE);
+        for (int i = 0; i < 100 && logger.getSubmitRecoveries() == 0; i++) Thread.sleep(50);
+        logger.submit(MOCK_MESSAGE);
+        logger.stop_dispatcher();
+        int messages = 0;
+        for (String batch : delivered) messages += batch.split("\n").length;
+        expect(messages).toEqual(2);
+        expect(logger.getSubmitSuccesses()).toEqual(2);  // recovered batch counts once, not per attempt
+        expect(logger.getSubmitFailures()).toEqual(0);
+        expect(logger.getSubmitRetries()).toEqual(2);
+        expect(logger.getSubmitRecoveries()).toEqual(1);
+        expect(logger.getSubmitAbandoned()).toEqual(0);
+        expect(logger.getDispatcher().getRetryBytes()).toEqual(0L);
+    }
+
+    @Test
+    public void abandonsRetriesTest() {
+        BaseLogger logger = new BaseLogger(MOCK_AGENT, batch -> false);
+        expect(logger.getMaxRetryBytes()).toEqual(0L);
+        logger.init_dispatcher(0);
+        for (int i = 0; i < 5; i++) logger.submit(MOCK_MESSAGE);
+        logger.stop_dispatcher();
+        expect(logger.getSubmitFailures()).toEqual(logger.getSubmitAbandoned());
+        expect(logger.getSubmitRetries()).toEqual(0);
+
+        // batches still backing off at shutdown are abandoned rather than delaying it
+        logger = new BaseLogger(MOCK_AGENT, batch -> false);
+        logger.setMaxRetryBytes(1024 * 1024);
+        logger.init_dispatcher();
+        logger.submit(MOCK_MESSAGE);
+        long start = System.currentTimeMillis();
+        logger.stop_dispatcher();
+        expect(System.currentTimeMillis() - start).toBeSmallerThan(1000L);
+        expect(logger.getSubmitFailures()).toEqual(1);
+        expect(logger.getSubmitAbandoned()).toEqual(1);
+
+        try {
+            logger.setMaxRetryBytes(-1);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+            expect(expected.getMessage()).toContain("Invalid max retry bytes");
+        }
+    }
+
+    @Test
+    public void lingersBatchesTest() throws Exception {
+        List<String> queue = Collections.synchronizedList(new ArrayList<>());
+        BaseLogger logger = new BaseLogger(MOCK_AGENT, queue);
+        expect(logger.getLingerMillis()).toEqual(0L);
+        logger.setLingerMillis(500);
+        logger.init_dispatcher();
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < 10; i++) {
+            logger.submit(MOCK_MESSAGE);
+            Thread.sleep(5);
+        }
+        for (int i = 0; i < 100 && queue.isEmpty(); i++) Thread.sleep(20);
+        expect(System.currentTimeMillis() - start).toBeGreaterThan(450L);
+        logger.stop_dispatcher();
+        expect(queue.size()).toEqual(1);
+        expect(logger.getDispatcher().getBatchCount()).toEqual(1L);
+        expect(logger.getDispatcher().getAverageBatchMessages()).toEqual(10.0);
+
+        // batch reaching its size threshold is sent without waiting out the window
+        queue.clear();
+        logger.setLingerMillis(60000);
+        logger.init_dispatcher(MOCK_MESSAGE.length() * 5);
+        for (int i = 0; i < 12; i++) logger.submit(MOCK_MESSAGE);
+        for (int i = 0; i < 100 && queue.size() < 2; i++) Thread.sleep(20);
+        expect(queue.size()).toEqual(2);
+        start = System.currentTimeMillis();
+        logger.stop_dispatcher();
+        expect(System.currentTimeMillis() - start).toBeSmallerThan(1000L);
+        expect(queue.size()).toEqual(3);
+        expect(logger.getDispatcher().getAverageBatchMessages()).toEqual(4.0);
+
+        try {
+            logger.setLingerMillis(-1);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+            expect(expected.getMessage()).toContain("Invalid linger millis");
+        }
+    }
+
+    @Test
+    public void boundsBatchLatencyTest() throws Exception {
+        List<String> queue = Collections.synchronizedList(new ArrayList<>());
+        BaseLogger logger = new BaseLogger(MOCK_AGENT, queue);
+        logger.setLingerMillis(60000);
+        logger.setMaxLatencyMillis(100);
+        expect(logger.getMaxLatencyMillis()).toEqual(100L);
+        logger.init_dispatcher();
+        long start = System.currentTimeMillis();
+        logger.submit(MOCK_MESSAGE);
+        for (int i = 0; i < 100 && queue.isEmpty(); i++) Thread.sleep(10);
+        expect(System.currentTimeMillis() - start).toBeSmallerThan(1000L);
+        expect(queue.size()).toEqual(1);
+
+        // bound holds under a steady trickle, while the linger window keeps the batch open
+        for (int i = 0; i < 50; i++) {
+            logger.submit(MOCK_MESSAGE);
+            Thread.sleep(5);
+        }
+        expect(queue.size()).toBeGreaterThan(2);
+        logger.stop_dispatcher();
+        int messages = 0;
+        for (String batch : queue) messages += batch.split("\n").length;
+        expect(messages).toEqual(51);
+
+        try {
+            logger.setMaxLatencyMillis(-1);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+            expect(expected.getMessage()).toContain("Invalid max latency millis");
+        }
+    }
+
+    @Test
+    public void shedsMessagesWhileThrottledTest() {
+        AtomicInteger delivered = new AtomicInteger();
+        BaseLogger logger = new BaseLogger(MOCK_AGENT, batch -> {
+            delivered.addAndGet(batch.split("\n").length);
+            return true;
+        }, true, 10);
+        logger.throttle(60000);
+        expect(logger.isThrottled()).toBeTrue();
+        logger.init_dispatcher(MOCK_MESSAGE.length() * 10);
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < 1000; i++) logger.submit(MOCK_MESSAGE);
+        expect(System.currentTimeMillis() - start).toBeSmallerThan(1000L);
+        expect(delivered.get()).toEqual(0);
+        expect(logger.getSubmitDropped()).toBeGreaterThan(900);
+
+        // shutdown makes a last attempt rather than waiting out the pause
+        start = System.currentTimeMillis();
+        logger.stop_dispatcher();
+        expect(System.currentTimeMillis() - start).toBeSmallerThan(1000L);
+        expect(delivered.get() + logger.getSubmitDropped()).toEqual(1000);
+        expect(logger.getSubmitThrottled()).toEqual(1);
+    }
+
+    @Test
+    public void capsRequestBytesTest() {
+        List<String> queue = Collections.synchronizedList(new ArrayList<>());
+        BaseLogger logger = new BaseLogger(MOCK_AGENT, queue);
+        expect(logger.getMaxRequestBytes()).toEqual(0);
+        logger.setMaxRequestBytes(4096);
+        logger.init_dispatcher(1024 * 1024);
+
+        // batches are split by encoded size, which for these messages is three times their length
+        String whale = "[[\"response_body\",\"" + repeat("鯨", 500) + "\"]]";
+        for (int i = 0; i < 20; i++) logger.submit(whale);
+        logger.submit("[[\"request_url\",\"http://localhost/\"],[\"response_body\",\"" + repeat("鯨", 5000) + "\"]]");
+        for (int i = 0; i < 100; i++) logger.submit(MOCK_MESSAGE);
+        logger.stop_dispatcher();
+        expect(queue.size()).toBeGreaterThan(10);
+        int messages = 0;
+        for (String batch : queue) {
+            expect(batch.getBytes(StandardCharsets.UTF_8).length).toBeSmallerThan(4097);
+            messages += batch.split("\n").length;
+        }
+        expect(messages).toEqual(121);
+        expect(logger.getSubmitTruncated()).toEqual(1);
+        boolean found = false;
+        for (String batch : queue) {
+            for (String msg : batch.split("\n")) {
+                if (!msg.startsWith("[[\"request_url\"")) continue;
+                found = true;
+                expect(msg).toEndWith("鯨\"]]");
+                expect(msg.getBytes(StandardCharsets.UTF_8).length).toBeGreaterThan(4000);
+            }
+        }
+        expect(found).toBeTrue();
+
+        // no cap leaves batches to their threshold
+        queue.clear();
+        logger.setMaxRequestBytes(0);
+        logger.init_dispatcher(1024 * 1024);
+        for (int i = 0; i < 20; i++) logger.submit(whale);
+        logger.stop_dispatcher();
+        expect(queue.size()).toEqual(1);
+
+        try {
+            logger.setMaxRequestBytes(100);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+            expect(expected.getMessage()).toContain("Invalid max request bytes");
+        }
+    }
+
+    @Test
+    public void divertsOversizeMessagesTest() {
+        List<String> queue = Collections.synchronizedList(new ArrayList<>());
+        List<String> oversize = Collections.synchronizedList(new ArrayList<>());
+        BaseLogger logger = new BaseLogger(MOCK_AGENT, queue);
+        logger.setMaxRequestBytes(2048);
+        logger.setOversizeTransport(new ListTransport(oversize));
+        expect(logger.getOversizeTransport() != null).toBeTrue();
+        logger.init_dispatcher();
+        String large = "[[\"response_body\",\"" + repeat("x", 5000) + "\"]]";
+        logger.submit(MOCK_MESSAGE);
+        logger.submit(large);
+        logger.submit(MOCK_MESSAGE);
+        logger.stop_dispatcher();
+        expect(oversize.size()).toEqual(1);
+        expect(oversize.get(0)).toEqual(large + "\n");
+        expect(String.join("", queue)).toEqual(MOCK_MESSAGE + "\n" + MOCK_MESSAGE + "\n");
+        expect(logger.getSubmitDiverted()).toEqual(1);
+        expect(logger.getSubmitTruncated()).toEqual(0);
+
+        // failed diversion is counted rather than retried
+        logger.setOversizeTransport(batch -> {
+            throw new IOException("too large");
+        });
+        logger.init_dispatcher();
+        logger.submit(large);
+        logger.stop_dispatcher();
+        expect(logger.getSubmitDiverted()).toEqual(1);
+        expect(logger.getSubmitFailures()).toEqual(1);
+    }
+
+    private static String repeat(String s, int count) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) sb.append(s);
+        return sb.toString();
+    }
+
 }
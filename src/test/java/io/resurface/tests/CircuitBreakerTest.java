@@ -0,0 +1,86 @@
+// © 2016-2024 Graylog, Inc.
+
+package io.resurface.tests;
+
+import io.resurface.BaseLogger;
+import io.resurface.CircuitBreaker;
+import org.junit.Test;
+
+import static com.mscharhag.oleaster.matcher.Matchers.expect;
+import static io.resurface.CircuitBreaker.State.*;
+import static io.resurface.tests.Helper.*;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests against breaker that stops capture while the collector is failing.
+ */
+public class CircuitBreakerTest {
+
+    @Test
+    public void opensOnFailureRateTest() {
+        CircuitBreaker breaker = new CircuitBreaker(10, 4, 0.5, 60000, 2);
+        expect(breaker.getState()).toEqual(CLOSED);
+        breaker.record(false);
+        breaker.record(false);
+        breaker.record(false);
+        expect(breaker.getState()).toEqual(CLOSED);  // not enough results yet
+        breaker.record(true);
+        expect(breaker.getState()).toEqual(OPEN);
+        expect(breaker.getFailureRate()).toEqual(0.75);
+        expect(breaker.getTransitions(OPEN)).toEqual(1);
+        for (int i = 0; i < 5; i++) expect(breaker.allowCapture()).toBeFalse();
+        expect(breaker.getShortCircuited()).toEqual(5);
+
+        breaker = new CircuitBreaker(4, 4, 0.5, 60000, 2);
+        for (int i = 0; i < 20; i++) breaker.record(i % 4 != 0);
+        expect(breaker.getState()).toEqual(CLOSED);
+        expect(breaker.allowCapture()).toBeTrue();
+        expect(breaker.getShortCircuited()).toEqual(0);
+    }
+
+    @Test
+    public void probesWhenHalfOpenTest() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(4, 2, 0.5, 50, 2);
+        breaker.record(false);
+        breaker.record(false);
+        expect(breaker.getState()).toEqual(OPEN);
+        expect(breaker.allowCapture()).toBeFalse();
+        Thread.sleep(60);
+        expect(breaker.allowCapture()).toBeTrue();
+        expect(breaker.getState()).toEqual(HALF_OPEN);
+        expect(breaker.allowCapture()).toBeTrue();
+        expect(breaker.allowCapture()).toBeFalse();  // trial messages used up
+        breaker.record(false);
+        expect(breaker.getState()).toEqual(OPEN);
+        expect(breaker.getTransitions(OPEN)).toEqual(2);
+
+        Thread.sleep(60);
+        expect(breaker.allowCapture()).toBeTrue();
+        breaker.record(true);
+        expect(breaker.getState()).toEqual(CLOSED);
+        expect(breaker.getFailureRate()).toEqual(0.0);
+        expect(breaker.getTransitions(HALF_OPEN)).toEqual(2);
+        expect(breaker.getTransitions(CLOSED)).toEqual(1);
+    }
+
+    @Test
+    public void tracksDispatchResultsTest() {
+        BaseLogger logger = new BaseLogger(MOCK_AGENT, batch -> false);
+        logger.setCircuitBreaker(new CircuitBreaker(5, 5, 0.5, 60000, 1));
+        for (int i = 0; i < 5; i++) logger.dispatch(MOCK_MESSAGE);
+        expect(logger.getCircuitBreaker().getState()).toEqual(OPEN);
+        try {
+            logger.setCircuitBreaker(null);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+            expect(expected.getMessage()).toContain("Invalid circuit breaker");
+        }
+        try {
+            new CircuitBreaker(10, 11, 0.5, 1000, 1);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+            expect(expected.getMessage()).toContain("Invalid min results");
+        }
+    }
+
+}
@@ -0,0 +1,121 @@
+// © 2016-2024 Graylog, Inc.
+
+package io.resurface.tests;
+
+import io.resurface.Codec;
+import io.resurface.Compressor;
+import io.resurface.NdjsonDictionary;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import static com.mscharhag.oleaster.matcher.Matchers.expect;
+import static io.resurface.tests.Helper.*;
+
+/**
+ * Tests against reusable compressor and its codecs.
+ */
+public class CompressorTest {
+
+    @Test
+    public void deflatesRepeatedlyTest() throws Exception {
+        Compressor compressor = new Compressor();
+        for (int messages : new int[]{1, 1000, 10}) {
+            byte[] input = mockNdjson(messages).getBytes(StandardCharsets.UTF_8);
+            int length = compressor.deflate(input, 0, input.length);
+            expect(length).toBeGreaterThan(0);
+            expect(length).toBeSmallerThan(input.length);
+            expect(inflate(compressor.getBuffer(), length, input.length)).toEqual(new String(input, StandardCharsets.UTF_8));
+        }
+        compressor.end();
+    }
+
+    @Test
+    public void usesLevelAndStrategyTest() throws Exception {
+        byte[] input = mockNdjson(100).getBytes(StandardCharsets.UTF_8);
+        Compressor compressor = new Compressor(Deflater.NO_COMPRESSION, Deflater.DEFAULT_STRATEGY);
+        int stored = compressor.deflate(input, 0, input.length);
+        expect(stored).toBeGreaterThan(input.length);
+        compressor.configure(Deflater.BEST_COMPRESSION, Deflater.FILTERED);
+        expect(compressor.getLevel()).toEqual(Deflater.BEST_COMPRESSION);
+        expect(compressor.getStrategy()).toEqual(Deflater.FILTERED);
+        int best = compressor.deflate(input, 0, input.length);
+        expect(best).toBeSmallerThan(input.length / 4);
+        expect(inflate(compressor.getBuffer(), best, input.length)).toEqual(new String(input, StandardCharsets.UTF_8));
+        compressor.end();
+    }
+
+    @Test
+    public void encodesWithEachCodecTest() throws Exception {
+        Random random = new Random(42);
+        byte[] noise = new byte[150000];
+        random.nextBytes(noise);
+        byte[][] inputs = {new byte[0], mockNdjson(1).getBytes(StandardCharsets.UTF_8),
+                mockNdjson(1000).getBytes(StandardCharsets.UTF_8), noise};
+        Compressor compressor = new Compressor();
+        for (Codec codec : Codec.values()) {
+            for (byte[] input : inputs) {
+                int length = compressor.encode(codec, input, 0, input.length);
+                byte[] encoded = Arrays.copyOf(compressor.getBuffer(), length);
+                expect(Arrays.equals(MockCollector.decode(codec.getContentEncoding(), encoded), input)).toBeTrue();
+
+                ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+                OutputStream stream = compressor.stream(codec, streamed);
+                for (int i = 0; i < input.length; i += 1000) stream.write(input, i, Math.min(1000, input.length - i));
+                Compressor.finish(stream);
+                expect(Arrays.equals(MockCollector.decode(codec.getContentEncoding(), streamed.toByteArray()), input)).toBeTrue();
+            }
+        }
+        compressor.end();
+    }
+
+    @Test
+    public void deflatesWithDictionaryTest() throws Exception {
+        byte[] input = mockNdjson(1).getBytes(StandardCharsets.UTF_8);
+        Compressor compressor = new Compressor();
+        int plain = compressor.deflate(input, 0, input.length);
+        compressor.setDictionary(NdjsonDictionary.bytes());
+        int preset = compressor.deflate(input, 0, input.length);
+        expect(preset).toBeSmallerThan(plain);
+        byte[] encoded = Arrays.copyOf(compressor.getBuffer(), preset);
+        expect(Arrays.equals(MockCollector.inflate(encoded), input)).toBeTrue();
+
+        ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+        OutputStream stream = compressor.stream(Codec.DEFLATE, streamed);
+        stream.write(input);
+        Compressor.finish(stream);
+        expect(Arrays.equals(MockCollector.inflate(streamed.toByteArray()), input)).toBeTrue();
+        compressor.end();
+    }
+
+    @Test
+    public void parsesCodecNamesTest() {
+        expect(Codec.parse("gzip")).toEqual(Codec.GZIP);
+        expect(Codec.parse("LZ4")).toEqual(Codec.LZ4);
+        expect(Codec.DEFLATE.getContentEncoding()).toEqual("deflated");
+        expect(Codec.IDENTITY.getContentEncoding() == null).toBeTrue();
+        try {
+            Codec.parse("snappy");
+            expect(false).toBeTrue();
+        } catch (IllegalArgumentException expected) {
+            expect(expected.getMessage()).toContain("Invalid codec");
+        }
+    }
+
+    private static String inflate(byte[] compressed, int length, int original_length) throws Exception {
+        Inflater inflater = new Inflater();
+        inflater.setInput(compressed, 0, length);
+        byte[] output = new byte[original_length];
+        int size = inflater.inflate(output);
+        expect(inflater.finished()).toBeTrue();
+        inflater.end();
+        return new String(output, 0, size, StandardCharsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,132 @@
+// © 2016-2024 Graylog, Inc.
+
+package io.resurface.tests;
+
+import io.resurface.Codec;
+import io.resurface.HttpLogger;
+import io.resurface.HttpMessage;
+import io.resurface.HttpServletRequestImpl;
+import io.resurface.HttpServletResponseImpl;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.CyclicBarrier;
+
+import static io.resurface.tests.Helper.*;
+
+/**
+ * Benchmarks that drive HttpLogger from producer threads into a local collector, covering rules, JSON,
+ * queueing, batching, compression and HTTP together.
+ */
+@Ignore
+public class EndToEndThroughputTest {
+
+    @Test
+    public void timedProducersTest() throws Exception {
+        System.out.println("END TO END (producer threads)");
+        try (MockCollector collector = new MockCollector()) {
+            for (int threads : new int[]{1, 4, 16}) {
+                timedLogger("Threads = " + threads, collector, logger(collector), threads, 100000);
+            }
+        }
+        System.out.println();
+    }
+
+    @Test
+    public void timedCodecsTest() throws Exception {
+        System.out.println("END TO END (codecs, 8 threads)");
+        try (MockCollector collector = new MockCollector()) {
+            for (Codec codec : Codec.values()) {
+                HttpLogger logger = logger(collector);
+                if (codec == Codec.IDENTITY) {
+                    logger.setSkipCompression(true);
+                } else {
+                    logger.setCodec(codec);
+                }
+                timedLogger(codec.toString(), collector, logger, 8, 100000);
+            }
+        }
+        System.out.println();
+    }
+
+    @Test
+    public void timedSlowCollectorTest() throws Exception {
+        System.out.println("END TO END (collector latency = 10 ms, 8 threads)");
+        try (MockCollector collector = new MockCollector().withLatency(10)) {
+            for (int max_in_flight : new int[]{1, 4}) {
+                HttpLogger logger = logger(collector);
+                logger.setMaxInFlight(max_in_flight);
+                timedLogger("Max in flight = " + max_in_flight, collector, logger, 8, 100000);
+            }
+            HttpLogger logger = logger(collector);
+            logger.setLingerMillis(20);
+            timedLogger("Linger = 20 ms", collector, logger, 8, 100000);
+        }
+        System.out.println();
+    }
+
+    @Test
+    public void timedFailingCollectorTest() throws Exception {
+        System.out.println("END TO END (failing collector, 8 threads)");
+        try (MockCollector collector = new MockCollector().withErrors(500, 0.05)) {
+            timedLogger("5% errors", collector, logger(collector), 8, 100000);
+        }
+        try (MockCollector collector = new MockCollector().withThrottle(429, "1", 3)) {
+            timedLogger("3 throttled batches", collector, logger(collector), 8, 100000);
+        }
+        System.out.println();
+    }
+
+    private static HttpLogger logger(MockCollector collector) {
+        return new HttpLogger(collector.url(), "allow_http_url");
+    }
+
+    /**
+     * Submits messages from producer threads, then reports delivery rates, submit latency and batch sizes.
+     */
+    static void timedLogger(String name, MockCollector collector, HttpLogger logger, int threads, int messages)
+            throws Exception {
+        collector.reset();
+        logger.init_dispatcher();
+        int per_thread = messages / threads;
+        long[][] latencies = new long[threads][per_thread];
+        CyclicBarrier barrier = new CyclicBarrier(threads + 1);
+        Thread[] producers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final long[] times = latencies[t];
+            producers[t] = new Thread(() -> {
+                HttpServletRequestImpl request = mockRequestWithJson2();
+                HttpServletResponseImpl response = mockResponseWithHtml();
+                try {
+                    barrier.await();
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+                for (int i = 0; i < times.length; i++) {
+                    long start = System.nanoTime();
+                    HttpMessage.send(logger, request, response, MOCK_HTML, MOCK_JSON);
+                    times[i] = System.nanoTime() - start;
+                }
+            });
+            producers[t].start();
+        }
+        barrier.await();
+        long start = System.nanoTime();
+        for (Thread producer : producers) producer.join();
+        logger.stop_dispatcher();
+        double elapsed = (System.nanoTime() - start) / 1e9;
+
+        long[] sorted = new long[threads * per_thread];
+        for (int t = 0; t < threads; t++) System.arraycopy(latencies[t], 0, sorted, t * per_thread, per_thread);
+        Arrays.sort(sorted);
+        int batches = Math.max(1, collector.batches());
+        System.out.printf("%s: %.0f messages/sec, %.0f KB/sec, submit p50 = %.1f us, p99 = %.1f us, " +
+                        "batch avg = %d messages (%d bytes), max = %d messages, failures = %d, dropped = %d%n",
+                name, collector.messages() / elapsed, collector.bytes() / elapsed / 1024,
+                sorted[sorted.length / 2] / 1e3, sorted[sorted.length * 99 / 100] / 1e3,
+                collector.messages() / batches, collector.bytes() / batches, collector.largestBatch(),
+                logger.getSubmitFailures(), logger.getSubmitDropped());
+    }
+
+}
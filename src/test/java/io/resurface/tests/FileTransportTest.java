@@ -0,0 +1,350 @@
+// © 2016-2024 Graylog, Inc.
+
+package io.resurface.tests;
+
+import io.resurface.BaseLogger;
+import io.resurface.FileTransport;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+import static com.mscharhag.oleaster.matcher.Matchers.expect;
+import static io.resurface.tests.Helper.*;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests against transport appending batches to rolled NDJSON files.
+ */
+public class FileTransportTest {
+
+    @Test
+    public void rollsBySizeTest() throws Exception {
+        File directory = tempDirectory();
+        try {
+            FileTransport transport = new FileTransport(directory, "app");
+            transport.setMaxFileBytes(64 * 1024);
+            expect(transport.getFsync() == FileTransport.Fsync.ROLL).toBeTrue();
+            String batch = mockNdjson(20);
+            for (int i = 0; i < 52; i++) expect(transport.send(batch)).toBeTrue();
+            expect(transport.getFilesRolled()).toBeGreaterThan(1);
+            expect(transport.getFsyncs()).toEqual(transport.getFilesRolled());
+            File current = transport.getCurrentFile();
+            expect(current.getName()).toEndWith(".ndjson.part");
+            expect(current.getName()).toStartWith("app-");
+            transport.close();
+            expect(transport.getCurrentFile() == null).toBeTrue();
+            expect(current.exists()).toBeFalse();
+
+            File[] files = files(directory);
+            expect(files.length).toEqual(transport.getFilesRolled());
+            StringBuilder contents = new StringBuilder();
+            for (File file : files) {
+                expect(file.getName()).toEndWith(".ndjson");
+                if (file != files[files.length - 1]) expect(file.length()).toBeGreaterThan(64 * 1024 - 1L);
+                contents.append(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+            }
+            StringBuilder expected = new StringBuilder();
+            for (int i = 0; i < 52; i++) expected.append(batch);
+            expect(contents.toString()).toEqual(expected.toString());
+            expect(transport.getBytesWritten()).toEqual((long) expected.length());
+
+            // still usable after closing
+            expect(transport.send(batch)).toBeTrue();
+            transport.close();
+            expect(files(directory).length).toEqual(files.length + 1);
+        } finally {
+            delete(directory);
+        }
+    }
+
+    @Test
+    public void rollsByTimeTest() throws Exception {
+        File directory = tempDirectory();
+        try {
+            FileTransport transport = new FileTransport(directory);
+            transport.setMaxFileMillis(50);
+            transport.setFsync(FileTransport.Fsync.NEVER);
+            expect(transport.send(mockNdjson(1))).toBeTrue();
+            expect(transport.send(mockNdjson(1))).toBeTrue();
+            Thread.sleep(60);
+            expect(transport.send(mockNdjson(1))).toBeTrue();
+            expect(transport.getFilesRolled()).toEqual(1);
+            transport.close();
+            expect(transport.getFilesRolled()).toEqual(2);
+            expect(transport.getFsyncs()).toEqual(0);
+            expect(files(directory).length).toEqual(2);
+        } finally {
+            delete(directory);
+        }
+    }
+
+    @Test
+    public void compressesEachBatchTest() throws Exception {
+        File directory = tempDirectory();
+        try {
+            FileTransport transport = new FileTransport(directory);
+            transport.setGzip(true);
+            transport.setFsync(FileTransport.Fsync.BATCH);
+            String unicode = "[[\"request_body\",\"été 🌞\"]]\n";
+            expect(transport.send(mockNdjson(100))).toBeTrue();
+            expect(transport.send(unicode)).toBeTrue();
+            expect(transport.getFsyncs()).toEqual(2);
+
+            // every batch forced to disk is readable before the file is complete
+            File current = transport.getCurrentFile();
+            expect(current.getName()).toEndWith(".ndjson.gz.part");
+            expect(gunzip(Files.readAllBytes(current.toPath()))).toEqual(mockNdjson(100) + unicode);
+            expect(transport.getBytesWritten()).toEqual(current.length());
+            expect(current.length()).toBeSmallerThan((long) mockNdjson(100).length() / 5);
+
+            transport.close();
+            File[] files = files(directory);
+            expect(files.length).toEqual(1);
+            expect(gunzip(Files.readAllBytes(files[0].toPath()))).toEqual(mockNdjson(100) + unicode);
+        } finally {
+            delete(directory);
+        }
+    }
+
+    @Test
+    public void dropsFailedBatchTest() throws Exception {
+        File directory = tempDirectory();
+        try {
+            AtomicLong allowance = new AtomicLong(Long.MAX_VALUE);
+            FileTransport transport = new FileTransport(directory) {
+                @Override
+                protected FileChannel openChannel(Path path) throws IOException {
+                    return new FailingChannel(super.openChannel(path), allowance);
+                }
+            };
+            String small = mockNdjson(1);
+            StringBuilder large = new StringBuilder();
+            while (large.length() < 300 * 1024) large.append(small);
+            expect(transport.send(small)).toBeTrue();
+
+            // fails while writing out the buffered batch before it, which stays buffered
+            allowance.set(10);
+            try {
+                transport.send(large.toString());
+                fail("Expected IOException");
+            } catch (IOException expected) {
+                expect(expected.getMessage()).toEqual("No space left on device");
+            }
+
+            // fails after the batch before it was written, which stays in the file
+            allowance.set(small.length() + 10);
+            try {
+                transport.send(large.toString());
+                fail("Expected IOException");
+            } catch (IOException expected) {
+                expect(expected.getMessage()).toEqual("No space left on device");
+            }
+            File current = transport.getCurrentFile();
+            expect(current.length()).toEqual((long) small.length());
+
+            allowance.set(Long.MAX_VALUE);
+            expect(transport.send(small)).toBeTrue();
+            expect(transport.getBytesWritten()).toEqual(2L * small.length());
+            transport.close();
+            File[] files = files(directory);
+            expect(files.length).toEqual(1);
+            expect(new String(Files.readAllBytes(files[0].toPath()), StandardCharsets.UTF_8)).toEqual(small + small);
+        } finally {
+            delete(directory);
+        }
+    }
+
+    @Test
+    public void dispatchesThroughLoggerTest() throws Exception {
+        File directory = tempDirectory();
+        try {
+            FileTransport transport = new FileTransport(directory);
+            BaseLogger logger = new BaseLogger(MOCK_AGENT, transport);
+            logger.init_dispatcher(MOCK_MESSAGE.length() * 50);
+            for (int i = 0; i < 1000; i++) logger.submit(MOCK_MESSAGE);
+            logger.stop_dispatcher();
+            transport.close();
+            expect(logger.getSubmitFailures()).toEqual(0);
+            int lines = 0;
+            for (File file : files(directory)) lines += Files.readAllLines(file.toPath()).size();
+            expect(lines).toEqual(1000);
+        } finally {
+            delete(directory);
+        }
+
+        FileTransport transport = new FileTransport(new File("."));
+        try {
+            transport.setMaxFileBytes(1000);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+            expect(expected.getMessage()).toContain("Invalid max file bytes");
+        }
+        try {
+            transport.setMaxFileMillis(-1);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+            expect(expected.getMessage()).toContain("Invalid max file millis");
+        }
+        try {
+            new FileTransport(null);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+            expect(expected.getMessage()).toContain("Invalid directory");
+        }
+    }
+
+    static File tempDirectory() throws IOException {
+        return Files.createTempDirectory("resurface-files").toFile();
+    }
+
+    static File[] files(File directory) {
+        File[] files = directory.listFiles();
+        Arrays.sort(files);
+        return files;
+    }
+
+    static void delete(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) for (File file : files) file.delete();
+        directory.delete();
+    }
+
+    /**
+     * Channel that writes until its allowance of bytes runs out, then fails as if the disk were full.
+     */
+    private static final class FailingChannel extends FileChannel {
+
+        FailingChannel(FileChannel channel, AtomicLong allowance) {
+            this.channel = channel;
+            this.allowance = allowance;
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            if (allowance.get() <= 0) throw new IOException("No space left on device");
+            int limit = src.limit();
+            ((Buffer) src).limit(src.position() + (int) Math.min(src.remaining(), allowance.get()));
+            try {
+                int n = channel.write(src);
+                allowance.addAndGet(-n);
+                return n;
+            } finally {
+                ((Buffer) src).limit(limit);
+            }
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+            long n = 0;
+            for (int i = offset; i < offset + length; i++) n += write(srcs[i]);
+            return n;
+        }
+
+        @Override
+        public int write(ByteBuffer src, long position) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            return channel.read(dst);
+        }
+
+        @Override
+        public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+            return channel.read(dsts, offset, length);
+        }
+
+        @Override
+        public int read(ByteBuffer dst, long position) throws IOException {
+            return channel.read(dst, position);
+        }
+
+        @Override
+        public long position() throws IOException {
+            return channel.position();
+        }
+
+        @Override
+        public FileChannel position(long position) throws IOException {
+            channel.position(position);
+            return this;
+        }
+
+        @Override
+        public long size() throws IOException {
+            return channel.size();
+        }
+
+        @Override
+        public FileChannel truncate(long size) throws IOException {
+            channel.truncate(size);
+            return this;
+        }
+
+        @Override
+        public void force(boolean metadata) throws IOException {
+            channel.force(metadata);
+        }
+
+        @Override
+        public long transferTo(long position, long count, WritableByteChannel target) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long transferFrom(ReadableByteChannel src, long position, long count) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public MappedByteBuffer map(MapMode mode, long position, long size) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public FileLock lock(long position, long size, boolean shared) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public FileLock tryLock(long position, long size, boolean shared) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        protected void implCloseChannel() throws IOException {
+            channel.close();
+        }
+
+        private final AtomicLong allowance;
+        private final FileChannel channel;
+    }
+
+    private static String gunzip(byte[] bytes) throws IOException {
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(bytes))) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[8192];
+            int n;
+            while ((n = in.read(buf)) != -1) out.write(buf, 0, n);
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+}
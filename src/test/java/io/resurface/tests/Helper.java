@@ -3,6 +3,7 @@
 package io.resurface.tests;
 
 import com.google.gson.Gson;
+import io.resurface.HttpMessage;
 import io.resurface.HttpServletRequestImpl;
 import io.resurface.HttpServletResponseImpl;
 import io.resurface.Json;
@@ -10,6 +11,7 @@ import io.resurface.Json;
 import javax.servlet.FilterChain;
 import javax.servlet.http.HttpServletResponse;
 import java.io.UnsupportedEncodingException;
+import java.util.List;
 
 /**
  * Provides mock objects and utilities for testing.
@@ -155,6 +157,23 @@ public class Helper {
         return r;
     }
 
+    static String mockNdjson(int messages) {
+        StringBuilder ndjson = new StringBuilder();
+        for (int i = 0; i < messages; i++) {
+            HttpServletRequestImpl request = mockRequestWithJson2();
+            request.setRequestURL("http://something.com:3000/accounts/" + (1000 + i * 7) + "/index.html");
+            request.addHeader("User-Agent", "Mozilla/5.0 (X11; Linux x86_64) AppleWebKit/537.36");
+            HttpServletResponseImpl response = mockResponseWithHtml();
+            response.setStatus(i % 10 == 0 ? 404 : 200);
+            List<String[]> message = HttpMessage.build(request, response, MOCK_HTML3, MOCK_JSON);
+            message.add(new String[]{"now", String.valueOf(MOCK_NOW + i * 13)});
+            message.add(new String[]{"interval", String.valueOf(1.5 + (i % 17) / 3.0)});
+            message.add(new String[]{"host", "web-" + (i % 3)});
+            ndjson.append(Json.stringify(message)).append("\n");
+        }
+        return ndjson.toString();
+    }
+
     static boolean parseable(String msg) {
         if (msg == null || !msg.trim().startsWith("[") || !msg.trim().endsWith("]")
                 || msg.contains("[]") || (msg.contains(",,"))) return false;
@@ -0,0 +1,99 @@
+// © 2016-2024 Graylog, Inc.
+
+package io.resurface.tests;
+
+import io.resurface.BaseLogger;
+import io.resurface.HttpTransport;
+import io.resurface.Transport;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static com.mscharhag.oleaster.matcher.Matchers.expect;
+import static io.resurface.tests.Helper.*;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests against transport multiplexing batches over HTTP/2.
+ */
+public class Http2TransportTest {
+
+    static Transport http2(BaseLogger logger, String url, int max_in_flight) throws Exception {
+        try {
+            return HttpTransport.http2(logger, new URL(url), max_in_flight);
+        } catch (UnsupportedOperationException e) {
+            Assume.assumeNoException(e);
+            return null;
+        }
+    }
+
+    @Test
+    public void sendsBatchesConcurrentlyTest() throws Exception {
+        try (MockCollector collector = new MockCollector().withLatency(200)) {
+            BaseLogger logger = new BaseLogger(MOCK_AGENT, collector.url());
+            Transport transport = http2(logger, collector.url(), 4);
+            expect((boolean) transport.sendAsync(MOCK_MESSAGE + "\n").get()).toBeTrue();  // client started outside timing
+            long start = System.nanoTime();
+            List<CompletableFuture<Boolean>> sent = new ArrayList<>();
+            for (int i = 0; i < 4; i++) sent.add(transport.sendAsync(MOCK_MESSAGE + "\n"));
+            for (CompletableFuture<Boolean> s : sent) expect((boolean) s.get()).toBeTrue();
+            long elapsed_millis = (System.nanoTime() - start) / 1000000;
+            expect(elapsed_millis).toBeSmallerThan(700L);
+            expect(collector.messages()).toEqual(5);
+        }
+    }
+
+    @Test
+    public void dispatchesThroughLoggerTest() throws Exception {
+        try (MockCollector collector = new MockCollector().withLatency(20)) {
+            BaseLogger logger = new BaseLogger(MOCK_AGENT, collector.url());
+            logger.setTransport(http2(logger, collector.url(), 2));
+            expect(logger.getMaxInFlight()).toEqual(2);
+            logger.init_dispatcher(0);
+            expect(logger.getDispatcher().getMaxInFlight()).toEqual(2);
+            for (int i = 0; i < 20; i++) logger.submit(MOCK_MESSAGE);
+            logger.stop_dispatcher();
+            expect(collector.peakRequests()).toEqual(2);
+            expect(logger.getSubmitFailures()).toEqual(0);
+            expect(logger.getSubmitSuccesses()).toEqual(collector.batches());
+            expect(collector.messages()).toEqual(20);
+        }
+    }
+
+    @Test
+    public void countsFailuresTest() throws Exception {
+        BaseLogger logger = new BaseLogger(MOCK_AGENT, "http://127.0.0.1:1/message");
+        logger.setTransport(http2(logger, logger.getUrl(), 2));
+        logger.dispatch(MOCK_MESSAGE);
+        expect(logger.getSubmitSuccesses()).toEqual(0);
+        expect(logger.getSubmitFailures()).toEqual(1);
+    }
+
+    @Test
+    public void resendsWithoutDictionaryTest() throws Exception {
+        try (MockCollector collector = new MockCollector().withoutDictionary()) {
+            BaseLogger logger = new BaseLogger(MOCK_AGENT, collector.url());
+            logger.setCompressionDictionary(true);
+            Transport transport = http2(logger, collector.url(), 2);
+            expect(transport.send(mockNdjson(5))).toBeTrue();
+            expect(logger.getCompressionDictionary()).toBeFalse();
+            expect(transport.send(mockNdjson(5))).toBeTrue();
+            expect(collector.messages()).toEqual(10);
+        }
+    }
+
+    @Test
+    public void rejectsInvalidCapTest() throws Exception {
+        try {
+            http2(new BaseLogger(MOCK_AGENT), "http://127.0.0.1:1/message", 0);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+            expect(expected.getMessage()).toContain("Invalid max in flight");
+        }
+    }
+
+}
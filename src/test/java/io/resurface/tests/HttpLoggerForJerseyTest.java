@@ -0,0 +1,135 @@
+// © 2016-2024 Graylog, Inc.
+
+package io.resurface.tests;
+
+import io.resurface.CircuitBreaker;
+import io.resurface.HttpLoggerForJersey;
+import org.junit.Test;
+
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.core.MultivaluedHashMap;
+import javax.ws.rs.core.UriInfo;
+import javax.ws.rs.ext.WriterInterceptorContext;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Proxy;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import static com.mscharhag.oleaster.matcher.Matchers.expect;
+import static io.resurface.tests.Helper.*;
+
+/**
+ * Tests against Jersey filters and interceptors for HTTP usage logging.
+ */
+public class HttpLoggerForJerseyTest {
+
+    @Test
+    public void logsHtmlTest() throws Exception {
+        List<String> queue = new ArrayList<>();
+        HttpLoggerForJersey filter = new HttpLoggerForJersey(queue, "include standard");
+        filter.getLogger().init_dispatcher();
+        exchange(filter, new HashMap<>());
+        filter.getLogger().stop_dispatcher();
+        expect(queue.size()).toEqual(1);
+        String msg = queue.get(0);
+        expect(parseable(msg)).toBeTrue();
+        expect(msg).toContain("[\"request_method\",\"GET\"]");
+        expect(msg).toContain("[\"request_url\",\"" + MOCK_URL + "\"]");
+        expect(msg).toContain("[\"response_body\",\"" + MOCK_HTML + "\"]");
+        expect(msg).toContain("[\"response_code\",\"200\"]");
+        expect(msg).toContain("[\"response_header:content-type\",\"text/html\"]");
+    }
+
+    @Test
+    public void skipsCaptureWhenBreakerOpenTest() throws Exception {
+        List<String> queue = new ArrayList<>();
+        HttpLoggerForJersey filter = new HttpLoggerForJersey(queue, "include standard");
+        filter.getLogger().setCircuitBreaker(new CircuitBreaker(2, 2, 0.5, 60000, 1));
+        filter.getLogger().getCircuitBreaker().record(false);
+        filter.getLogger().getCircuitBreaker().record(false);
+        filter.getLogger().init_dispatcher();
+        Map<String, Object> properties = new HashMap<>();
+        OutputStream out = exchange(filter, properties);
+        filter.getLogger().stop_dispatcher();
+        expect(out instanceof ByteArrayOutputStream).toBeTrue();  // response body wasn't wrapped
+        expect(properties.isEmpty()).toBeTrue();
+        expect(queue.size()).toEqual(0);
+        expect(filter.getLogger().getCircuitBreaker().getShortCircuited()).toEqual(1);
+    }
+
+    /**
+     * Runs request through filters and interceptors as Jersey would, returning stream the body was written to.
+     */
+    private static OutputStream exchange(HttpLoggerForJersey filter, Map<String, Object> properties) throws Exception {
+        UriInfo uri_info = mock(UriInfo.class, properties, m -> {
+            if (m.equals("getRequestUri")) return URI.create(MOCK_URL);
+            if (m.equals("getQueryParameters")) return new MultivaluedHashMap<String, String>();
+            return null;
+        });
+        ContainerRequestContext request = mock(ContainerRequestContext.class, properties, m -> {
+            if (m.equals("getMethod")) return "GET";
+            if (m.equals("getUriInfo")) return uri_info;
+            if (m.equals("getHeaders")) return new MultivaluedHashMap<String, String>();
+            return null;
+        });
+        MultivaluedHashMap<String, String> response_headers = new MultivaluedHashMap<>();
+        response_headers.putSingle("Content-Type", "text/html");
+        ContainerResponseContext response = mock(ContainerResponseContext.class, properties, m -> {
+            if (m.equals("getStatus")) return 200;
+            if (m.equals("getStringHeaders")) return response_headers;
+            return null;
+        });
+        OutputStream[] out = {new ByteArrayOutputStream()};
+        WriterInterceptorContext writer = (WriterInterceptorContext) Proxy.newProxyInstance(
+                WriterInterceptorContext.class.getClassLoader(), new Class<?>[]{WriterInterceptorContext.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getProperty":
+                            return properties.get((String) args[0]);
+                        case "getOutputStream":
+                            return out[0];
+                        case "setOutputStream":
+                            out[0] = (OutputStream) args[0];
+                            return null;
+                        case "proceed":
+                            out[0].write(MOCK_HTML.getBytes(StandardCharsets.UTF_8));
+                            return null;
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+
+        filter.filter(request);
+        filter.filter(request, response);
+        filter.aroundWriteTo(writer);
+        return out[0];
+    }
+
+    /**
+     * Returns context sharing request properties, answering other methods by name or failing if not answered.
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> T mock(Class<T> type, Map<String, Object> properties, Function<String, Object> answers) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getProperty":
+                    return properties.get((String) args[0]);
+                case "setProperty":
+                    properties.put((String) args[0], args[1]);
+                    return null;
+                default:
+                    Object answer = answers.apply(method.getName());
+                    if (answer == null) throw new UnsupportedOperationException(method.getName());
+                    return answer;
+            }
+        });
+    }
+
+}
@@ -2,10 +2,13 @@
 
 package io.resurface.tests;
 
+import io.resurface.CircuitBreaker;
 import io.resurface.HttpLoggerForServlets;
+import io.resurface.HttpServletResponseImpl;
 import org.junit.Test;
 
 import javax.servlet.ServletException;
+import javax.servlet.ServletResponse;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
@@ -109,6 +112,27 @@ public class HttpLoggerForServletsTest {
         expect(msg).toContain("[\"response_header:content-type\",\"text/html\"]");
     }
 
+    @Test
+    public void skipsCaptureWhenBreakerOpenTest() throws IOException, ServletException {
+        List<String> queue = new ArrayList<>();
+        HttpLoggerForServlets filter = new HttpLoggerForServlets(queue, "include standard");
+        filter.init(null);
+        filter.getLogger().setCircuitBreaker(new CircuitBreaker(2, 2, 0.5, 60000, 1));
+        filter.getLogger().getCircuitBreaker().record(false);
+        filter.getLogger().getCircuitBreaker().record(false);
+        filter.getLogger().init_dispatcher();
+        HttpServletResponseImpl response = mockResponse();
+        List<ServletResponse> seen = new ArrayList<>();
+        filter.doFilter(mockRequest(), response, (req, res) -> {
+            seen.add(res);
+            mockHtmlApp().doFilter(req, res);
+        });
+        filter.getLogger().stop_dispatcher();
+        expect(seen.get(0) == response).toBeTrue();
+        expect(queue.size()).toEqual(0);
+        expect(filter.getLogger().getCircuitBreaker().getShortCircuited()).toEqual(1);
+    }
+
     @Test
     public void skipsExceptionTest() {
         List<String> queue = new ArrayList<>();
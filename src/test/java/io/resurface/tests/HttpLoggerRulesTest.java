@@ -2,6 +2,7 @@
 
 package io.resurface.tests;
 
+import io.resurface.Codec;
 import io.resurface.HttpLogger;
 import io.resurface.HttpMessage;
 import io.resurface.HttpRules;
@@ -11,6 +12,7 @@ import org.junit.Assert;
 import javax.servlet.http.HttpServletRequest;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.zip.Deflater;
 
 import static com.mscharhag.oleaster.matcher.Matchers.expect;
 import static io.resurface.tests.Helper.*;
@@ -71,6 +73,10 @@ public class HttpLoggerRulesTest {
         expect(logger.isEnableable()).toBeTrue();
         logger = new HttpLogger("https://mysite.com", "allow_http_url\nallow_http_url");
         expect(logger.isEnableable()).toBeTrue();
+        logger = new HttpLogger("https://mysite.com/message,http://othersite.com/message");
+        expect(logger.isEnableable()).toBeFalse();
+        logger = new HttpLogger("https://mysite.com/message, http://othersite.com/message", "allow_http_url");
+        expect(logger.isEnableable()).toBeTrue();
     }
 
     @Test
@@ -631,6 +637,21 @@ public class HttpLoggerRulesTest {
         expect(flat_queue.size()).toBeBetween(2, 20);
     }
 
+    @Test
+    public void usesCompressionRulesTest() {
+        HttpLogger logger = new HttpLogger("http://mysite.com");
+        expect(logger.getCodec()).toEqual(Codec.DEFLATE);
+        expect(logger.getCompressionDictionary()).toBeFalse();
+        expect(logger.getCompressionLevel()).toEqual(Deflater.DEFAULT_COMPRESSION);
+        expect(logger.getCompressionStrategy()).toEqual(Deflater.DEFAULT_STRATEGY);
+        logger = new HttpLogger("http://mysite.com", "compression_codec lz4\ncompression_dictionary");
+        expect(logger.getCodec()).toEqual(Codec.LZ4);
+        expect(logger.getCompressionDictionary()).toBeTrue();
+        logger = new HttpLogger("http://mysite.com", "compression_level 1\ncompression_strategy filtered");
+        expect(logger.getCompressionLevel()).toEqual(Deflater.BEST_SPEED);
+        expect(logger.getCompressionStrategy()).toEqual(Deflater.FILTERED);
+    }
+
     @Test
     public void usesSkipCompressionRulesTest() {
         HttpLogger logger = new HttpLogger("http://mysite.com");
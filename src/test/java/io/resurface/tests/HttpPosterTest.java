@@ -0,0 +1,131 @@
+// © 2016-2024 Graylog, Inc.
+
+package io.resurface.tests;
+
+import io.resurface.BaseLogger;
+import io.resurface.HttpPoster;
+import io.resurface.HttpLogger;
+import io.resurface.HttpTransport;
+import org.junit.Test;
+
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+
+import static com.mscharhag.oleaster.matcher.Matchers.expect;
+import static io.resurface.tests.Helper.*;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests against posting to collector with HttpURLConnection.
+ */
+public class HttpPosterTest {
+
+    @Test
+    public void reusesConnectionsTest() throws Exception {
+        try (MockCollector collector = new MockCollector()) {
+            HttpPoster poster = new HttpPoster(new URL(collector.url()));
+            byte[] body = (MOCK_MESSAGE + "\n").getBytes(StandardCharsets.UTF_8);
+            for (int i = 0; i < 5; i++) {
+                expect(poster.post(new HashMap<>(), body, 0, body.length).code).toEqual(204);
+            }
+            expect(collector.connections()).toEqual(1);
+            expect(collector.messages()).toEqual(5);
+        }
+    }
+
+    @Test
+    public void dispatchesThroughPosterTest() throws Exception {
+        try (MockCollector collector = new MockCollector()) {
+            BaseLogger logger = new BaseLogger(MOCK_AGENT, collector.url());
+            expect(logger.getWarmUp().get()).toEqual(true);
+            for (int i = 0; i < 3; i++) logger.dispatch(MOCK_MESSAGE + "\n");
+            expect(logger.getSubmitSuccesses()).toEqual(3);
+            expect(logger.getSubmitFailures()).toEqual(0);
+            expect(collector.connections()).toEqual(1);
+            expect(collector.batches()).toEqual(3);
+            expect(collector.messages()).toEqual(3);
+        }
+    }
+
+    @Test
+    public void warmsUpAtStartupTest() throws Exception {
+        try (MockCollector collector = new MockCollector()) {
+            HttpLogger logger = new HttpLogger(collector.url(), "allow_http_url");
+            expect(logger.getWarmUp().get()).toEqual(true);
+            HttpPoster poster = ((HttpTransport) logger.getTransport()).getPoster();
+
+            // warm-up only connects, so the collector sees no request and no response time is recorded
+            expect(collector.connections()).toEqual(0);
+            expect(collector.batches()).toEqual(0);
+            expect(poster.getResponseLatencies().getCount()).toEqual(0);
+
+            logger.dispatch(MOCK_MESSAGE + "\n");
+            expect(logger.getSubmitSuccesses()).toEqual(1);
+            expect(collector.batches()).toEqual(1);
+            expect(poster.getResponseLatencies().getCount()).toEqual(1);
+
+            expect(logger.warm_up().get()).toEqual(true);
+            expect(collector.batches()).toEqual(1);
+        }
+
+        // unreachable collector leaves the connect to the first batch
+        HttpLogger logger = new HttpLogger("http://127.0.0.1:1/message", "allow_http_url");
+        expect(logger.getWarmUp().get()).toEqual(false);
+        logger.dispatch(MOCK_MESSAGE + "\n");
+        expect(logger.getSubmitFailures()).toEqual(1);
+
+        // disabled logger never connects
+        logger = new HttpLogger("http://127.0.0.1:1/message");
+        expect(logger.isEnabled()).toBeFalse();
+        expect(logger.getWarmUp().get()).toEqual(false);
+    }
+
+    @Test
+    public void adaptsTimeoutsTest() throws Exception {
+        try (MockCollector collector = new MockCollector()) {
+            HttpPoster poster = new HttpPoster(new URL(collector.url()));
+            byte[] body = (MOCK_MESSAGE + "\n").getBytes(StandardCharsets.UTF_8);
+            expect(poster.getConnectTimeout()).toEqual(5000);
+            expect(poster.getReadTimeout()).toEqual(5000);
+            for (int i = 0; i < 20; i++) expect(poster.post(new HashMap<>(), body, 0, body.length).code).toEqual(204);
+            expect(poster.getResponseLatencies().getCount()).toEqual(20);
+            expect(poster.getReadTimeout()).toEqual(500);
+
+            // collector slowing down past the learned timeout fails once, then the timeout widens
+            collector.withLatency(1000);
+            try {
+                poster.post(new HashMap<>(), body, 0, body.length);
+                fail("Expected SocketTimeoutException");
+            } catch (SocketTimeoutException expected) {
+                expect(poster.getResponseLatencies().getCount()).toEqual(21);
+            }
+            expect(poster.getReadTimeout()).toBeGreaterThan(1000);
+            expect(poster.post(new HashMap<>(), body, 0, body.length).code).toEqual(204);
+        }
+    }
+
+    @Test
+    public void recoversFromStaleConnectionTest() throws Exception {
+        URL url;
+        HttpPoster poster;
+        byte[] body = (MOCK_MESSAGE + "\n").getBytes(StandardCharsets.UTF_8);
+        try (MockCollector collector = new MockCollector()) {
+            url = new URL(collector.url());
+            poster = new HttpPoster(url);
+            expect(poster.post(new HashMap<>(), body, 0, body.length).code).toEqual(204);
+        }
+        try {
+            poster.post(new HashMap<>(), body, 0, body.length);
+            expect(false).toBeTrue();
+        } catch (Exception expected) {
+            // connection refused, and the batch isn't resent
+        }
+        try (MockCollector collector = new MockCollector()) {
+            poster = new HttpPoster(new URL(collector.url()));
+            expect(poster.post(new HashMap<>(), body, 0, body.length).code).toEqual(204);
+        }
+    }
+
+}
@@ -2,11 +2,13 @@
 
 package io.resurface.tests;
 
+import io.resurface.Codec;
 import io.resurface.HttpRule;
 import io.resurface.HttpRules;
 import org.junit.Test;
 
 import java.util.regex.Pattern;
+import java.util.zip.Deflater;
 
 import static com.mscharhag.oleaster.matcher.Matchers.expect;
 
@@ -315,6 +317,15 @@ public class HttpRulesTest {
         parse_ok("copy_session_field /A\\/B\\/C/", "copy_session_field", null, "^A/B/C$", null);
     }
 
+    @Test
+    public void parsesNioTransportRulesTest() {
+        parse_fail("nio_transport always");
+        parse_ok("nio_transport", "nio_transport", null, null, null);
+        parse_ok("nio_transport # plain http only", "nio_transport", null, null, null);
+        expect(new HttpRules("include debug").nio_transport).toBeFalse();
+        expect(new HttpRules("nio_transport").nio_transport).toBeTrue();
+    }
+
     @Test
     public void parsesRemoveRulesTest() {
         // with extra params
@@ -634,6 +645,48 @@ public class HttpRulesTest {
         parse_ok("sample 72 # comment", "sample", null, 72, null);
     }
 
+    @Test
+    public void parsesCompressionRulesTest() {
+        parse_fail("compression_level");
+        parse_fail("compression_level 10");
+        parse_fail("compression_level -1");
+        parse_fail("compression_level fast");
+        parse_fail("compression_level 1 2");
+        parse_ok("compression_level 0", "compression_level", null, 0, null);
+        parse_ok("compression_level 1 # best speed", "compression_level", null, 1, null);
+        parse_fail("compression_codec");
+        parse_fail("compression_codec snappy");
+        parse_fail("compression_codec gzip lz4");
+        parse_ok("compression_codec deflate", "compression_codec", null, Codec.DEFLATE, null);
+        parse_ok("compression_codec gzip", "compression_codec", null, Codec.GZIP, null);
+        parse_ok("compression_codec lz4 # less cpu", "compression_codec", null, Codec.LZ4, null);
+        parse_fail("compression_dictionary ndjson");
+        parse_ok("compression_dictionary", "compression_dictionary", null, null, null);
+        parse_ok("compression_dictionary # small batches", "compression_dictionary", null, null, null);
+        parse_fail("compression_strategy");
+        parse_fail("compression_strategy fastest");
+        parse_ok("compression_strategy default", "compression_strategy", null, Deflater.DEFAULT_STRATEGY, null);
+        parse_ok("compression_strategy filtered", "compression_strategy", null, Deflater.FILTERED, null);
+        parse_ok("compression_strategy huffman_only # no matching", "compression_strategy", null, Deflater.HUFFMAN_ONLY, null);
+
+        HttpRules rules = new HttpRules("include debug");
+        expect(rules.compression_codec).toEqual(Codec.DEFLATE);
+        expect(rules.compression_dictionary).toBeFalse();
+        expect(rules.compression_level).toEqual(Deflater.DEFAULT_COMPRESSION);
+        expect(rules.compression_strategy).toEqual(Deflater.DEFAULT_STRATEGY);
+        rules = new HttpRules("compression_codec gzip\ncompression_dictionary\ncompression_level 1\ncompression_strategy filtered");
+        expect(rules.compression_codec).toEqual(Codec.GZIP);
+        expect(rules.compression_dictionary).toBeTrue();
+        expect(rules.compression_level).toEqual(1);
+        expect(rules.compression_strategy).toEqual(Deflater.FILTERED);
+        try {
+            new HttpRules("compression_level 1\ncompression_level 2");
+            expect(false).toBeTrue();
+        } catch (IllegalArgumentException expected) {
+            expect(expected.getMessage()).toContain("Multiple compression_level rules");
+        }
+    }
+
     @Test
     public void parsesSkipCompressionRulesTest() {
         parse_fail("skip_compression whaa");
@@ -0,0 +1,225 @@
+// © 2016-2024 Graylog, Inc.
+
+package io.resurface.tests;
+
+import io.resurface.BaseLogger;
+import io.resurface.BatchWriter;
+import io.resurface.Codec;
+import io.resurface.HttpTransport;
+import org.junit.Test;
+
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+
+import static com.mscharhag.oleaster.matcher.Matchers.expect;
+import static io.resurface.tests.Helper.*;
+
+/**
+ * Tests against transport posting batches to collector url.
+ */
+public class HttpTransportTest {
+
+    @Test
+    public void streamsBatchTest() throws Exception {
+        try (MockCollector collector = new MockCollector()) {
+            BaseLogger logger = new BaseLogger(MOCK_AGENT, collector.url());
+            for (boolean skip_compression : new boolean[]{false, true}) {
+                logger.setSkipCompression(skip_compression);
+                BatchWriter writer = ((HttpTransport) logger.getTransport()).open();
+                for (int i = 0; i < 1000; i++) writer.write(MOCK_MESSAGE);
+                expect(writer.size()).toEqual((MOCK_MESSAGE.length() + 1) * 1000L);
+                expect(writer.finish()).toBeTrue();
+            }
+            expect(collector.batches()).toEqual(2);
+            expect(collector.messages()).toEqual(2000);
+        }
+    }
+
+    @Test
+    public void sendsWithEachCodecTest() throws Exception {
+        try (MockCollector collector = new MockCollector()) {
+            BaseLogger logger = new BaseLogger(MOCK_AGENT, collector.url());
+            for (Codec codec : new Codec[]{Codec.DEFLATE, Codec.GZIP, Codec.LZ4}) {
+                logger.setCodec(codec);
+                expect(logger.getTransport().send(mockNdjson(50))).toBeTrue();
+                BatchWriter writer = ((HttpTransport) logger.getTransport()).open();
+                for (int i = 0; i < 50; i++) writer.write(MOCK_MESSAGE);
+                expect(writer.finish()).toBeTrue();
+            }
+            expect(collector.batches()).toEqual(6);
+            expect(collector.messages()).toEqual(300);
+        }
+    }
+
+    @Test
+    public void carriesIdempotencyKeyTest() throws Exception {
+        try (MockCollector collector = new MockCollector()) {
+            BaseLogger logger = new BaseLogger(MOCK_AGENT, collector.url());
+            expect(logger.getTransport().send(mockNdjson(5))).toBeTrue();
+            expect(collector.idempotencyKeys().size()).toEqual(0);
+            String key = HttpTransport.idempotencyKey();
+            expect(key.length()).toEqual(32);
+            expect(key.equals(HttpTransport.idempotencyKey())).toBeFalse();
+            expect(logger.getTransport().send(mockNdjson(5), key)).toBeTrue();
+            expect(collector.idempotencyKeys().size()).toEqual(1);
+            expect(collector.idempotencyKeys().get(0)).toEqual(key);
+        }
+    }
+
+    @Test
+    public void negotiatesDictionaryTest() throws Exception {
+        try (MockCollector collector = new MockCollector()) {
+            BaseLogger logger = new BaseLogger(MOCK_AGENT, collector.url());
+            logger.setCompressionDictionary(true);
+            expect(logger.getTransport().send(mockNdjson(5))).toBeTrue();
+            BatchWriter writer = ((HttpTransport) logger.getTransport()).open();
+            for (int i = 0; i < 5; i++) writer.write(MOCK_MESSAGE);
+            expect(writer.finish()).toBeTrue();
+            expect(collector.dictionaryBatches()).toEqual(2);
+            expect(collector.messages()).toEqual(10);
+            expect(logger.getCompressionDictionary()).toBeTrue();
+        }
+        try (MockCollector collector = new MockCollector().withoutDictionary()) {
+            BaseLogger logger = new BaseLogger(MOCK_AGENT, collector.url());
+            logger.setCompressionDictionary(true);
+            expect(logger.getTransport().send(mockNdjson(5))).toBeTrue();
+            expect(logger.getCompressionDictionary()).toBeFalse();
+            expect(logger.getTransport().send(mockNdjson(5))).toBeTrue();
+            expect(collector.dictionaryBatches()).toEqual(0);
+            expect(collector.batches()).toEqual(2);
+            expect(collector.messages()).toEqual(10);
+        }
+    }
+
+    @Test
+    public void streamsThroughDispatcherTest() throws Exception {
+        try (MockCollector collector = new MockCollector()) {
+            BaseLogger logger = new BaseLogger(MOCK_AGENT, collector.url());
+            logger.setStreaming(true);
+            expect(logger.getStreaming()).toBeTrue();
+            logger.init_dispatcher(MOCK_MESSAGE.length() * 100);
+            for (int i = 0; i < 1000; i++) logger.submit(MOCK_MESSAGE);
+            logger.stop_dispatcher();
+            expect(collector.messages()).toEqual(1000);
+            expect(collector.batches()).toBeGreaterThan(9);
+            expect(logger.getSubmitSuccesses()).toEqual(collector.batches());
+            expect(logger.getSubmitFailures()).toEqual(0);
+        }
+    }
+
+    @Test
+    public void streamsWithinRequestBytesTest() throws Exception {
+        try (MockCollector collector = new MockCollector()) {
+            BaseLogger logger = new BaseLogger(MOCK_AGENT, collector.url());
+            logger.setStreaming(true);
+            logger.setMaxRequestBytes(4096);
+            logger.init_dispatcher(1024 * 1024);
+            for (int i = 0; i < 1000; i++) logger.submit(MOCK_MESSAGE);
+            logger.stop_dispatcher();
+            expect(collector.messages()).toEqual(1000);
+            expect(collector.largestBatch()).toEqual(4096 / (MOCK_MESSAGE.length() + 1));
+            expect(logger.getSubmitFailures()).toEqual(0);
+        }
+    }
+
+    @Test
+    public void streamsUntilTimeThresholdTest() throws Exception {
+        try (MockCollector collector = new MockCollector()) {
+            BaseLogger logger = new BaseLogger(MOCK_AGENT, collector.url());
+            logger.setStreaming(true);
+            logger.init_dispatcher();
+            logger.submit(MOCK_MESSAGE);
+            Thread.sleep(100);
+            logger.submit(MOCK_MESSAGE);
+            Thread.sleep(1500);
+            expect(collector.batches()).toEqual(1);
+            expect(collector.messages()).toEqual(2);
+            logger.stop_dispatcher();
+            expect(logger.getSubmitSuccesses()).toEqual(1);
+        }
+    }
+
+    @Test
+    public void countsStreamFailuresTest() {
+        BaseLogger logger = new BaseLogger(MOCK_AGENT, "http://127.0.0.1:1/message");
+        logger.setStreaming(true);
+        logger.init_dispatcher();
+        logger.submit(MOCK_MESSAGE);
+        logger.stop_dispatcher();
+        expect(logger.getSubmitSuccesses()).toEqual(0);
+        expect(logger.getSubmitFailures()).toEqual(1);
+    }
+
+    @Test
+    public void honorsRetryAfterTest() throws Exception {
+        String later = DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.now(ZoneOffset.UTC).plusSeconds(10));
+        try (MockCollector collector = new MockCollector()) {
+            BaseLogger logger = new BaseLogger(MOCK_AGENT, collector.url());
+            expect(logger.isThrottled()).toBeFalse();
+            collector.withThrottle(429, "2", 1);
+            expect(logger.getTransport().send(mockNdjson(5))).toBeFalse();
+            expect(logger.isThrottled()).toBeTrue();
+            expect(logger.getThrottleMillis()).toBeGreaterThan(1000L);
+            expect(logger.getThrottleMillis()).toBeSmallerThan(2001L);
+
+            // date form, and a shorter pause that doesn't cut the longer one short
+            collector.withThrottle(503, later, 1);
+            expect(logger.getTransport().send(mockNdjson(5))).toBeFalse();
+            expect(logger.getThrottleMillis()).toBeGreaterThan(8000L);
+            collector.withThrottle(503, null, 1);
+            expect(logger.getTransport().send(mockNdjson(5))).toBeFalse();
+            expect(logger.getThrottleMillis()).toBeGreaterThan(8000L);
+            expect(logger.getSubmitThrottled()).toEqual(3);
+            expect(collector.throttled()).toEqual(3);
+
+            // other failures don't pause dispatch
+            logger = new BaseLogger(MOCK_AGENT, collector.url());
+            collector.withThrottle(500, "30", 1);
+            expect(logger.getTransport().send(mockNdjson(5))).toBeFalse();
+            expect(logger.isThrottled()).toBeFalse();
+            collector.withThrottle(429, "86400", 1);
+            expect(logger.getTransport().send(mockNdjson(5))).toBeFalse();
+            expect(logger.getThrottleMillis()).toBeSmallerThan(60001L);
+            expect(logger.getTransport().send(mockNdjson(5))).toBeTrue();
+        }
+    }
+
+    @Test
+    public void pausesDispatchWhenThrottledTest() throws Exception {
+        try (MockCollector collector = new MockCollector().withThrottle(429, "1", 1)) {
+            BaseLogger logger = new BaseLogger(MOCK_AGENT, collector.url());
+            logger.setMaxRetryBytes(1024 * 1024);
+            long start = System.currentTimeMillis();
+            logger.submit(MOCK_MESSAGE);
+            for (int i = 0; i < 100 && !logger.isThrottled(); i++) Thread.sleep(10);
+            expect(logger.isThrottled()).toBeTrue();
+            for (int i = 0; i < 20; i++) logger.submit(MOCK_MESSAGE);
+            for (int i = 0; i < 300 && collector.messages() < 21; i++) Thread.sleep(10);
+            long elapsed = System.currentTimeMillis() - start;
+            logger.stop_dispatcher();
+            expect(collector.messages()).toEqual(21);
+            expect(collector.throttled()).toEqual(1);
+            expect(elapsed).toBeGreaterThan(900L);
+            expect(logger.getSubmitRecoveries()).toEqual(1);
+            expect(logger.getSubmitFailures()).toEqual(0);
+        }
+    }
+
+    @Test
+    public void failsOnCollectorErrorsTest() throws Exception {
+        try (MockCollector collector = new MockCollector().withErrors(500, 1.0)) {
+            BaseLogger logger = new BaseLogger(MOCK_AGENT, collector.url());
+            expect(logger.getTransport().send(mockNdjson(5))).toBeFalse();
+            expect(logger.isThrottled()).toBeFalse();
+            expect(collector.errors()).toEqual(1);
+            collector.withErrors(500, 0);
+            expect(logger.getTransport().send(mockNdjson(5))).toBeTrue();
+            expect(collector.largestBatch()).toEqual(5);
+            collector.reset();
+            expect(collector.errors()).toEqual(0);
+            expect(collector.messages()).toEqual(0);
+        }
+    }
+
+}
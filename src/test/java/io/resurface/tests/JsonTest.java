@@ -4,6 +4,7 @@ package io.resurface.tests;
 
 import org.junit.Test;
 
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -105,4 +106,48 @@ public class JsonTest {
         expect(stringify(message)).toEqual("[[\"A\",\"B\"],[\"C1\",\"D2\"]]");
     }
 
+    @Test
+    public void truncateTest() {
+        String message = "[[\"request_url\",\"http://localhost/index.html\"],[\"response_body\",\"" + repeat("x", 500) + "\"]]";
+        expect(truncate(message, 1000)).toEqual(message);
+        String truncated = truncate(message, 200);
+        expect(truncated.length()).toEqual(200);
+        expect(truncated).toStartWith("[[\"request_url\",\"http://localhost/index.html\"],[\"response_body\",\"xxx");
+        expect(truncated).toEndWith("xx\"]]");
+
+        // longest values are emptied first, then shorter ones
+        message = "[[\"a\",\"" + repeat("y", 100) + "\"],[\"b\",\"" + repeat("z", 300) + "\"]]";
+        expect(truncate(message, 119)).toEqual("[[\"a\",\"" + repeat("y", 100) + "\"],[\"b\",\"\"]]");
+        expect(truncate(message, 40)).toEqual("[[\"a\",\"" + repeat("y", 21) + "\"],[\"b\",\"\"]]");
+        expect(truncate(message, 10) == null).toBeTrue();
+
+        // escapes and multi-byte characters are never split
+        message = "[[\"a\",\"\\n\\n\\n\\u001B\"]]";
+        expect(truncate(message, message.length() - 1)).toEqual("[[\"a\",\"\\n\\n\\n\"]]");
+        expect(truncate(message, 14)).toEqual("[[\"a\",\"\\n\\n\"]]");
+        message = "[[\"a\",\"鯨鯨🌞\"]]";
+        expect(utf8Length(message, 0, message.length())).toEqual(20);
+        expect(truncate(message, 19)).toEqual("[[\"a\",\"鯨鯨\"]]");
+        expect(truncate(message, 15)).toEqual("[[\"a\",\"鯨\"]]");
+        expect(truncate(message, 12)).toEqual("[[\"a\",\"\"]]");
+    }
+
+    @Test
+    public void utf8LengthTest() {
+        expect(utf8Length("", 0, 0)).toEqual(0);
+        expect(utf8Length("the cow says moo", 0, 16)).toEqual(16);
+        expect(utf8Length("the cow says moo", 4, 7)).toEqual(3);
+        expect(utf8Length("ö", 0, 1)).toEqual(2);
+        expect(utf8Length("鯨 is a whale", 0, 12)).toEqual(14);
+        expect(utf8Length("🌞", 0, 2)).toEqual(4);
+        String mixed = "été 🌞 鯨\n";
+        expect(utf8Length(mixed, 0, mixed.length())).toEqual(mixed.getBytes(StandardCharsets.UTF_8).length);
+    }
+
+    private static String repeat(String s, int count) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) sb.append(s);
+        return sb.toString();
+    }
+
 }
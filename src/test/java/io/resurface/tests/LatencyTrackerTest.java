@@ -0,0 +1,66 @@
+// © 2016-2024 Graylog, Inc.
+
+package io.resurface.tests;
+
+import io.resurface.LatencyTracker;
+import org.junit.Test;
+
+import static com.mscharhag.oleaster.matcher.Matchers.expect;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests against recent latencies used to derive timeouts.
+ */
+public class LatencyTrackerTest {
+
+    @Test
+    public void computesPercentilesTest() {
+        LatencyTracker tracker = new LatencyTracker(100);
+        expect(tracker.percentile(0.99)).toEqual(-1L);
+        for (int i = 100; i >= 1; i--) tracker.record(i);
+        expect(tracker.getCount()).toEqual(100);
+        expect(tracker.percentile(0)).toEqual(1L);
+        expect(tracker.percentile(0.5)).toEqual(50L);
+        expect(tracker.percentile(0.99)).toEqual(99L);
+        expect(tracker.percentile(1)).toEqual(100L);
+
+        // oldest samples are replaced once full
+        for (int i = 0; i < 100; i++) tracker.record(7);
+        expect(tracker.getCount()).toEqual(100);
+        expect(tracker.percentile(0.99)).toEqual(7L);
+
+        LatencyTracker single = new LatencyTracker(1);
+        single.record(-5);
+        expect(single.percentile(0.5)).toEqual(0L);
+        single.record(40);
+        expect(single.getCount()).toEqual(1);
+        expect(single.percentile(0.5)).toEqual(40L);
+
+        try {
+            tracker.percentile(1.5);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+            expect(expected.getMessage()).toContain("Invalid percentile");
+        }
+        try {
+            new LatencyTracker(0);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+            expect(expected.getMessage()).toContain("Invalid capacity");
+        }
+    }
+
+    @Test
+    public void derivesTimeoutTest() {
+        LatencyTracker tracker = new LatencyTracker(50);
+        for (int i = 0; i < 9; i++) tracker.record(100);
+        expect(tracker.timeout(5000, 4, 500, 30000)).toEqual(5000L);
+        tracker.record(100);
+        expect(tracker.timeout(5000, 4, 500, 30000)).toEqual(500L);
+        tracker.record(300);
+        expect(tracker.timeout(5000, 4, 500, 30000)).toEqual(1200L);
+        tracker.record(20000);
+        expect(tracker.timeout(5000, 4, 500, 30000)).toEqual(30000L);
+    }
+
+}
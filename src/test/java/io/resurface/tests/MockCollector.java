@@ -0,0 +1,373 @@
+// © 2016-2024 Graylog, Inc.
+
+package io.resurface.tests;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.resurface.NdjsonDictionary;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+
+/**
+ * Local collector that accepts NDJSON batches over HTTP, for testing dispatch without a network.
+ */
+public class MockCollector implements AutoCloseable {
+
+    /**
+     * Starts collector on an ephemeral loopback port.
+     */
+    public MockCollector() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/message", this::handle);
+        server.setExecutor(Executors.newFixedThreadPool(16));
+        server.start();
+    }
+
+    /**
+     * Returns url for posting messages to this collector.
+     */
+    public String url() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/message";
+    }
+
+    /**
+     * Returns count of batches received.
+     */
+    public int batches() {
+        return batches.get();
+    }
+
+    /**
+     * Returns count of NDJSON messages received.
+     */
+    public int messages() {
+        return messages.get();
+    }
+
+    /**
+     * Returns count of bytes received on the wire.
+     */
+    public long bytes() {
+        return bytes.get();
+    }
+
+    /**
+     * Returns count of distinct client connections that sent requests.
+     */
+    public int connections() {
+        return connections.size();
+    }
+
+    /**
+     * Returns idempotency keys of batches received, in arrival order.
+     */
+    public List<String> idempotencyKeys() {
+        return idempotency_keys;
+    }
+
+    /**
+     * Returns largest count of NDJSON messages received in one batch.
+     */
+    public int largestBatch() {
+        return largest_batch.get();
+    }
+
+    /**
+     * Returns largest number of requests being handled at once.
+     */
+    public int peakRequests() {
+        return peak_requests.get();
+    }
+
+    /**
+     * Returns count of batches refused as injected errors.
+     */
+    public int errors() {
+        return errors.get();
+    }
+
+    /**
+     * Clears counts of batches, messages, bytes and refusals, so one collector can serve several measurements.
+     */
+    public void reset() {
+        batches.set(0);
+        bytes.set(0);
+        connections.clear();
+        dictionary_batches.set(0);
+        errors.set(0);
+        idempotency_keys.clear();
+        largest_batch.set(0);
+        messages.set(0);
+        peak_requests.set(0);
+        throttled.set(0);
+    }
+
+    /**
+     * Refuses random fraction of batches with status code, like a collector with a failing node behind it.
+     */
+    public MockCollector withErrors(int code, double rate) {
+        this.error_code = code;
+        this.error_rate = rate;
+        return this;
+    }
+
+    /**
+     * Delays every response by fixed number of milliseconds.
+     */
+    public MockCollector withLatency(long latency_millis) {
+        this.latency_millis = latency_millis;
+        return this;
+    }
+
+    /**
+     * Rejects batches compressed with the preset dictionary, like a collector that predates it.
+     */
+    public MockCollector withoutDictionary() {
+        this.dictionary_supported = false;
+        return this;
+    }
+
+    /**
+     * Refuses next batches with status code, like an overloaded collector, optionally asking for a pause.
+     * @param code status code returned, usually 429 or 503
+     * @param retry_after value of Retry-After header, or null to leave it out
+     * @param count number of batches refused before accepting again
+     */
+    public MockCollector withThrottle(int code, String retry_after, int count) {
+        this.throttle_code = code;
+        this.throttle_retry_after = retry_after;
+        this.throttle_remaining.set(count);
+        return this;
+    }
+
+    /**
+     * Returns count of batches refused as throttled.
+     */
+    public int throttled() {
+        return throttled.get();
+    }
+
+    /**
+     * Returns count of batches received that used the preset dictionary.
+     */
+    public int dictionaryBatches() {
+        return dictionary_batches.get();
+    }
+
+    /**
+     * Stops collector and its worker threads.
+     */
+    @Override
+    public void close() {
+        server.stop(0);
+        ((ExecutorService) server.getExecutor()).shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        peak_requests.accumulateAndGet(requests.incrementAndGet(), Math::max);
+        try {
+            receive(exchange);
+        } finally {
+            requests.decrementAndGet();
+        }
+    }
+
+    private void receive(HttpExchange exchange) throws IOException {
+        connections.add(exchange.getRemoteAddress());
+        byte[] body = readAll(exchange.getRequestBody());
+        String idempotency_key = exchange.getRequestHeaders().getFirst("Idempotency-Key");
+        if (idempotency_key != null) idempotency_keys.add(idempotency_key);
+        if (throttle_remaining.getAndUpdate(n -> Math.max(0, n - 1)) > 0) {
+            if (throttle_retry_after != null) exchange.getResponseHeaders().set("Retry-After", throttle_retry_after);
+            throttled.incrementAndGet();
+            exchange.sendResponseHeaders(throttle_code, -1);
+            exchange.close();
+            return;
+        }
+        if (error_rate > 0 && ThreadLocalRandom.current().nextDouble() < error_rate) {
+            errors.incrementAndGet();
+            exchange.sendResponseHeaders(error_code, -1);
+            exchange.close();
+            return;
+        }
+        String dictionary = exchange.getRequestHeaders().getFirst(NdjsonDictionary.HEADER);
+        if (dictionary != null) {
+            if (!dictionary_supported || !NdjsonDictionary.ID.equals(dictionary)) {
+                exchange.sendResponseHeaders(415, -1);
+                exchange.close();
+                return;
+            }
+            dictionary_batches.incrementAndGet();
+        }
+        bytes.addAndGet(body.length);
+        String encoding = exchange.getRequestHeaders().getFirst("Content-Encoding");
+        body = decode(encoding, body);
+        String ndjson = new String(body, StandardCharsets.UTF_8);
+        int count = 0;
+        for (String line : ndjson.split("\n")) if (!line.isEmpty()) count++;
+        messages.addAndGet(count);
+        largest_batch.accumulateAndGet(count, Math::max);
+        batches.incrementAndGet();
+        if (latency_millis > 0) {
+            try {
+                Thread.sleep(latency_millis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        exchange.sendResponseHeaders(204, -1);
+        exchange.close();
+    }
+
+    /**
+     * Returns body decoded according to content encoding.
+     */
+    static byte[] decode(String encoding, byte[] body) throws IOException {
+        if (encoding == null) return body;
+        switch (encoding) {
+            case "deflated":
+                return inflate(body);
+            case "gzip":
+                return readAll(new GZIPInputStream(new ByteArrayInputStream(body)));
+            case "lz4":
+                return decodeLz4Frame(body);
+            default:
+                throw new IOException("Unsupported encoding: " + encoding);
+        }
+    }
+
+    /**
+     * Returns inflated zlib stream, loading the preset dictionary when the stream requires it.
+     */
+    static byte[] inflate(byte[] body) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(body);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[8192];
+            while (!inflater.finished()) {
+                int n = inflater.inflate(buf);
+                out.write(buf, 0, n);
+                if (n == 0 && inflater.needsDictionary()) {
+                    if (inflater.getAdler() != NdjsonDictionary.checksum()) throw new IOException("Unknown dictionary");
+                    inflater.setDictionary(NdjsonDictionary.bytes());
+                } else if (n == 0 && inflater.needsInput() && !inflater.finished()) {
+                    throw new IOException("Truncated zlib stream");
+                }
+            }
+            return out.toByteArray();
+        } catch (DataFormatException e) {
+            throw new IOException(e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Returns contents of LZ4 frame without checksums.
+     */
+    static byte[] decodeLz4Frame(byte[] frame) throws IOException {
+        if (frame.length < 7 || readIntLE(frame, 0) != 0x184D2204) throw new IOException("Invalid LZ4 magic");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int pos = 7;
+        while (true) {
+            int size = readIntLE(frame, pos);
+            pos += 4;
+            if (size == 0) break;
+            if (size < 0) {
+                size &= 0x7FFFFFFF;
+                out.write(frame, pos, size);
+            } else {
+                decodeLz4Block(frame, pos, pos + size, out);
+            }
+            pos += size;
+        }
+        if (pos != frame.length) throw new IOException("Trailing bytes after LZ4 end mark");
+        return out.toByteArray();
+    }
+
+    private static void decodeLz4Block(byte[] src, int pos, int end, ByteArrayOutputStream out) throws IOException {
+        byte[] block = new byte[65536];
+        int size = 0;
+        while (pos < end) {
+            int token = src[pos++] & 0xFF;
+            int literals = token >>> 4;
+            if (literals == 15) {
+                int b;
+                do {
+                    b = src[pos++] & 0xFF;
+                    literals += b;
+                } while (b == 255);
+            }
+            System.arraycopy(src, pos, block, size, literals);
+            pos += literals;
+            size += literals;
+            if (pos == end) break;
+            int offset = (src[pos] & 0xFF) | ((src[pos + 1] & 0xFF) << 8);
+            pos += 2;
+            int match = token & 0x0F;
+            if (match == 15) {
+                int b;
+                do {
+                    b = src[pos++] & 0xFF;
+                    match += b;
+                } while (b == 255);
+            }
+            match += 4;
+            if (offset == 0 || offset > size) throw new IOException("Invalid LZ4 offset: " + offset);
+            for (int i = 0; i < match; i++, size++) block[size] = block[size - offset];
+        }
+        out.write(block, 0, size);
+    }
+
+    private static int readIntLE(byte[] b, int pos) {
+        return (b[pos] & 0xFF) | ((b[pos + 1] & 0xFF) << 8) | ((b[pos + 2] & 0xFF) << 16) | ((b[pos + 3] & 0xFF) << 24);
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        int n;
+        while ((n = in.read(buf)) != -1) out.write(buf, 0, n);
+        return out.toByteArray();
+    }
+
+    private final AtomicInteger batches = new AtomicInteger();
+    private final AtomicLong bytes = new AtomicLong();
+    private final Set<InetSocketAddress> connections = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger dictionary_batches = new AtomicInteger();
+    private volatile boolean dictionary_supported = true;
+    private volatile int error_code;
+    private volatile double error_rate = 0;
+    private final AtomicInteger errors = new AtomicInteger();
+    private final List<String> idempotency_keys = Collections.synchronizedList(new ArrayList<>());
+    private final AtomicInteger largest_batch = new AtomicInteger();
+    private volatile long latency_millis = 0;
+    private final AtomicInteger messages = new AtomicInteger();
+    private final AtomicInteger peak_requests = new AtomicInteger();
+    private final AtomicInteger requests = new AtomicInteger();
+    private final HttpServer server;
+    private volatile int throttle_code;
+    private final AtomicInteger throttle_remaining = new AtomicInteger();
+    private volatile String throttle_retry_after;
+    private final AtomicInteger throttled = new AtomicInteger();
+
+}
@@ -0,0 +1,175 @@
+// © 2016-2024 Graylog, Inc.
+
+package io.resurface.tests;
+
+import io.resurface.Codec;
+import io.resurface.HttpLogger;
+import io.resurface.HttpTransport;
+import io.resurface.NioTransport;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+import static com.mscharhag.oleaster.matcher.Matchers.expect;
+import static io.resurface.tests.Helper.*;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests against transport posting batches over socket channels.
+ */
+public class NioTransportTest {
+
+    @Test
+    public void sendsWithEachCodecTest() throws Exception {
+        try (MockCollector collector = new MockCollector()) {
+            HttpLogger logger = new HttpLogger(collector.url(), "allow_http_url\nnio_transport");
+            expect(logger.isEnabled()).toBeTrue();
+            expect(logger.getTransport() instanceof NioTransport).toBeTrue();
+            NioTransport transport = (NioTransport) logger.getTransport();
+            expect(logger.getWarmUp().get()).toEqual(true);
+
+            logger.setSkipCompression(true);
+            expect(transport.send(mockNdjson(20))).toBeTrue();
+            expect(transport.send("[[\"request_body\",\"été 🌞\"]]\n")).toBeTrue();
+            logger.setSkipCompression(false);
+            for (Codec codec : new Codec[]{Codec.DEFLATE, Codec.GZIP, Codec.LZ4}) {
+                logger.setCodec(codec);
+                expect(transport.send(mockNdjson(20))).toBeTrue();
+            }
+            expect(collector.batches()).toEqual(5);
+            expect(collector.messages()).toEqual(81);
+            expect(transport.getMisses()).toEqual(1);
+            expect(transport.getHits()).toEqual(5);
+
+            // batch larger than pooled buffers
+            logger.setSkipCompression(true);
+            expect(transport.send(mockNdjson(2000))).toBeTrue();
+            expect(collector.messages()).toEqual(2081);
+
+            // batch with more bytes than chars, which outgrows a buffer sized by its length
+            StringBuilder accents = new StringBuilder();
+            while (accents.length() < 40000) accents.append("été");
+            String unicode = "[[\"request_body\",\"" + accents + "\"]]\n";
+            long bytes = collector.bytes();
+            expect(transport.send(unicode)).toBeTrue();
+            expect(collector.bytes() - bytes).toEqual((long) unicode.getBytes(StandardCharsets.UTF_8).length);
+
+            expect(transport.send(mockNdjson(1), "nio-key")).toBeTrue();
+            expect(collector.idempotencyKeys().size()).toEqual(1);
+            expect(collector.idempotencyKeys().get(0)).toEqual("nio-key");
+            expect(transport.getResponseLatencies().getCount()).toEqual(8);
+            expect(transport.getReadTimeout()).toEqual(5000);
+        }
+    }
+
+    @Test
+    public void negotiatesWithCollectorTest() throws Exception {
+        try (MockCollector collector = new MockCollector().withoutDictionary()) {
+            HttpLogger logger = new HttpLogger(collector.url(), "allow_http_url\nnio_transport\ncompression_dictionary");
+            expect(logger.getTransport().send(mockNdjson(5))).toBeTrue();
+            expect(logger.getCompressionDictionary()).toBeFalse();
+            expect(collector.messages()).toEqual(5);
+
+            collector.withThrottle(429, "3", 1);
+            expect(logger.getTransport().send(mockNdjson(5))).toBeFalse();
+            expect(logger.getThrottleMillis()).toBeGreaterThan(2000L);
+            collector.withErrors(500, 1.0);
+            expect(logger.getTransport().send(mockNdjson(5))).toBeFalse();
+            collector.withErrors(500, 0);
+            expect(logger.getTransport().send(mockNdjson(5))).toBeTrue();
+            expect(collector.messages()).toEqual(10);
+        }
+    }
+
+    @Test
+    public void dispatchesThroughLoggerTest() throws Exception {
+        try (MockCollector collector = new MockCollector()) {
+            HttpLogger logger = new HttpLogger(collector.url(), "allow_http_url\nnio_transport");
+            logger.setMaxInFlight(4);
+            logger.init_dispatcher(MOCK_MESSAGE.length() * 50);
+            for (int i = 0; i < 5000; i++) logger.submit(MOCK_MESSAGE);
+            logger.stop_dispatcher();
+            expect(collector.messages()).toEqual(5000);
+            expect(logger.getSubmitFailures()).toEqual(0);
+        }
+
+        // collector that isn't listening fails the batch rather than hanging
+        HttpLogger logger = new HttpLogger("http://127.0.0.1:1/message", "allow_http_url\nnio_transport");
+        try {
+            logger.getTransport().send(MOCK_MESSAGE);
+            fail("Expected IOException");
+        } catch (IOException expected) {
+            // connection refused
+        }
+    }
+
+    @Test
+    public void doesNotResendAfterTimeoutTest() throws Exception {
+        try (MockCollector collector = new MockCollector()) {
+            HttpLogger logger = new HttpLogger(collector.url(), "allow_http_url\nnio_transport");
+            NioTransport transport = (NioTransport) logger.getTransport();
+            expect(logger.getWarmUp().get()).toEqual(true);
+            for (int i = 0; i < 10; i++) transport.getResponseLatencies().record(1);
+            expect(transport.getReadTimeout()).toEqual(500);
+
+            // pooled connection times out waiting on slow collector, which still takes the batch
+            collector.withLatency(1500);
+            try {
+                transport.send(mockNdjson(5));
+                fail("Expected SocketTimeoutException");
+            } catch (SocketTimeoutException expected) {
+                // not retried on a fresh connection
+            }
+            expect(collector.batches()).toEqual(1);
+            expect(collector.messages()).toEqual(5);
+        }
+    }
+
+    @Test
+    public void rejectsInvalidContentLengthTest() throws Exception {
+        try (ServerSocket server = new ServerSocket(0)) {
+            Thread responder = new Thread(() -> {
+                try (Socket socket = server.accept()) {
+                    socket.getInputStream().read(new byte[8192]);
+                    socket.getOutputStream().write("HTTP/1.1 200 OK\r\nContent-Length: abc\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+                    socket.getInputStream().read();  // wait for client to close
+                } catch (IOException e) {
+                    // client went away
+                }
+            });
+            responder.start();
+            HttpLogger logger = new HttpLogger("http://localhost:" + server.getLocalPort() + "/message", "allow_http_url\nnio_transport");
+            NioTransport transport = (NioTransport) logger.getTransport();
+            expect(logger.getWarmUp().get()).toEqual(true);
+            try {
+                transport.send(mockNdjson(1));
+                fail("Expected IOException");
+            } catch (IOException expected) {
+                expect(expected.getMessage()).toContain("Invalid content length");
+            }
+            responder.join(5000);
+            expect(responder.isAlive()).toBeFalse();  // connection was closed rather than left open
+        }
+    }
+
+    @Test
+    public void requiresPlainHttpTest() throws Exception {
+        HttpLogger logger = new HttpLogger("https://localhost/message", "nio_transport");
+        expect(logger.getTransport() instanceof HttpTransport).toBeTrue();
+        logger = new HttpLogger("http://localhost/message", "nio_transport");
+        expect(logger.isEnabled()).toBeFalse();
+        expect(logger.getTransport() instanceof NioTransport).toBeFalse();
+        try {
+            new NioTransport(logger, new URL("https://localhost/message"));
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+            expect(expected.getMessage()).toContain("Invalid url for NIO transport");
+        }
+    }
+
+}
@@ -0,0 +1,143 @@
+// © 2016-2024 Graylog, Inc.
+
+package io.resurface.tests;
+
+import io.resurface.BaseLogger;
+import io.resurface.Codec;
+import io.resurface.Relay;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import static com.mscharhag.oleaster.matcher.Matchers.expect;
+import static io.resurface.tests.Helper.*;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests against relay forwarding batches from local loggers upstream.
+ */
+public class RelayTest {
+
+    @Test
+    public void coalescesClientBatchesTest() throws Exception {
+        try (MockCollector collector = new MockCollector()) {
+            BaseLogger upstream = new BaseLogger(MOCK_AGENT, collector.url());
+            upstream.setLingerMillis(50);
+            upstream.init_dispatcher(MOCK_MESSAGE.length() * 400);
+            try (Relay relay = relay(upstream)) {
+                List<BaseLogger> clients = new ArrayList<>();
+                for (int i = 0; i < 4; i++) {
+                    BaseLogger client = new BaseLogger(MOCK_AGENT, relay.getUrl());
+                    client.setCodec(Codec.values()[i % 3]);  // identity, deflate and gzip
+                    client.setCompressionDictionary(i == 1);
+                    client.init_dispatcher(MOCK_MESSAGE.length() * 10);
+                    clients.add(client);
+                }
+                for (int i = 0; i < 500; i++) for (BaseLogger client : clients) client.submit(MOCK_MESSAGE);
+                int client_batches = 0;
+                for (BaseLogger client : clients) {
+                    client.stop_dispatcher();
+                    expect(client.getSubmitFailures()).toEqual(0);
+                    client_batches += client.getSubmitSuccesses();
+                }
+                expect(relay.getBatchesReceived()).toEqual(client_batches);
+                expect(relay.getBatchesRejected()).toEqual(0);
+                expect(relay.getMessagesReceived()).toEqual(2000L);
+            }
+            upstream.stop_dispatcher();
+            expect(upstream.getSubmitFailures()).toEqual(0);
+            expect(collector.messages()).toEqual(2000);
+            expect(collector.batches()).toEqual(upstream.getSubmitSuccesses());
+            expect(collector.batches()).toBeSmallerThan(20);  // far fewer, larger batches than the 200 from clients
+        }
+    }
+
+    @Test
+    public void rejectsInvalidBatchesTest() throws Exception {
+        BaseLogger upstream = new BaseLogger(MOCK_AGENT, new ArrayList<>());
+        try (Relay relay = relay(upstream)) {
+            expect(post(relay, "GET", null, MOCK_MESSAGE)).toEqual(405);
+            expect(post(relay, "POST", null, "not json\n")).toEqual(400);
+            expect(post(relay, "POST", "lz4", MOCK_MESSAGE)).toEqual(415);
+            expect(post(relay, "POST", "deflated", MOCK_MESSAGE)).toEqual(400);
+            expect(relay.getBatchesRejected()).toEqual(4);
+            expect(upstream.getMessageQueue().size()).toEqual(0);
+
+            expect(post(relay, "POST", null, MOCK_MESSAGE + "\r\n\n" + MOCK_MESSAGE)).toEqual(204);
+            expect(relay.getMessagesReceived()).toEqual(2L);
+            expect(upstream.getMessageQueue().size()).toEqual(2);
+            expect(upstream.getMessageQueue().peek()).toEqual(MOCK_MESSAGE);
+
+            // collector asked for a pause, so clients are told to back off too
+            upstream.throttle(1500);
+            HttpURLConnection conn = open(relay, "POST", null);
+            write(conn, MOCK_MESSAGE);
+            expect(conn.getResponseCode()).toEqual(429);
+            expect(conn.getHeaderField("Retry-After")).toEqual("2");
+            expect(upstream.getMessageQueue().size()).toEqual(2);
+        }
+
+        try {
+            new Relay(null, new InetSocketAddress(0));
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+            expect(expected.getMessage()).toContain("Invalid logger");
+        }
+    }
+
+    @Test
+    public void rejectsOversizeBatchesTest() throws Exception {
+        BaseLogger upstream = new BaseLogger(MOCK_AGENT, new ArrayList<>());
+        try (Relay relay = relay(upstream)) {
+            // compresses to a few kilobytes, but decodes past the limit on the body
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            try (OutputStream out = new GZIPOutputStream(compressed)) {
+                byte[] zeros = new byte[1024 * 1024];
+                for (int i = 0; i < 17; i++) out.write(zeros);
+            }
+            HttpURLConnection conn = open(relay, "POST", "gzip");
+            conn.setDoOutput(true);
+            try (OutputStream out = conn.getOutputStream()) {
+                out.write(compressed.toByteArray());
+            }
+            expect(conn.getResponseCode()).toEqual(413);
+            expect(relay.getBatchesRejected()).toEqual(1);
+            expect(upstream.getMessageQueue().size()).toEqual(0);
+        }
+    }
+
+    static Relay relay(BaseLogger upstream) throws IOException {
+        return new Relay(upstream, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+    }
+
+    private static int post(Relay relay, String method, String encoding, String body) throws IOException {
+        HttpURLConnection conn = open(relay, method, encoding);
+        if (method.equals("POST")) write(conn, body);
+        return conn.getResponseCode();
+    }
+
+    private static HttpURLConnection open(Relay relay, String method, String encoding) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) new URL(relay.getUrl()).openConnection();
+        conn.setRequestMethod(method);
+        if (encoding != null) conn.setRequestProperty("Content-Encoding", encoding);
+        return conn;
+    }
+
+    private static void write(HttpURLConnection conn, String body) throws IOException {
+        conn.setDoOutput(true);
+        try (OutputStream out = conn.getOutputStream()) {
+            out.write(body.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+}
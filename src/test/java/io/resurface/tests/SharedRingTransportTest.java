@@ -0,0 +1,185 @@
+// © 2016-2024 Graylog, Inc.
+
+package io.resurface.tests;
+
+import io.resurface.BaseLogger;
+import io.resurface.SharedRingReader;
+import io.resurface.SharedRingTransport;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.mscharhag.oleaster.matcher.Matchers.expect;
+import static io.resurface.tests.Helper.*;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests against memory-mapped ring shared with a reader process.
+ */
+public class SharedRingTransportTest {
+
+    @Test
+    public void wrapsAroundInOrderTest() throws Exception {
+        File file = tempFile();
+        try {
+            SharedRingTransport transport = new SharedRingTransport(file, 4096);
+            SharedRingReader reader = new SharedRingReader(file);
+            expect(reader.getCapacity()).toEqual(4096);
+            expect(reader.poll() == null).toBeTrue();
+            int next_sent = 0;
+            int next_read = 0;
+            for (int round = 0; round < 50; round++) {
+                while (transport.send(batch(next_sent))) next_sent++;
+                expect(transport.getUsedBytes()).toBeGreaterThan(3000L);
+                for (int i = 0; i < 3 + round % 5; i++) expect(reader.poll()).toEqual(batch(next_read++));
+            }
+            String last;
+            while ((last = reader.poll()) != null) expect(last).toEqual(batch(next_read++));
+            expect(next_read).toEqual(next_sent);
+            expect(next_sent).toBeGreaterThan(200);  // several times round the ring
+            expect(reader.getPendingBytes()).toEqual(0L);
+            expect(transport.getBatchesWritten()).toEqual(next_sent);
+            expect(transport.getBatchesRefused()).toEqual(50);
+
+            expect(transport.send(new String(new char[5000]))).toBeFalse();
+            expect(transport.send("été 🌞\n")).toBeTrue();
+            expect(reader.poll()).toEqual("été 🌞\n");
+        } finally {
+            file.delete();
+        }
+
+        try {
+            new SharedRingTransport(file, 4100);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+            expect(expected.getMessage()).toContain("Invalid ring capacity");
+        }
+        try {
+            file.createNewFile();
+            new SharedRingReader(file);
+            fail("Expected IOException");
+        } catch (IOException expected) {
+            expect(expected.getMessage()).toContain("Not a ring file");
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void waitsForSlowReaderTest() throws Exception {
+        File file = tempFile();
+        try {
+            SharedRingTransport transport = new SharedRingTransport(file, 8192);
+            SharedRingReader reader = new SharedRingReader(file);
+            int batches = 20000;
+            AtomicReference<String> failure = new AtomicReference<>();
+            Thread consumer = new Thread(() -> {
+                try {
+                    for (int i = 0; i < batches; ) {
+                        String batch = reader.poll();
+                        if (batch == null) {
+                            Thread.yield();
+                        } else {
+                            if (!batch.equals(batch(i))) throw new IllegalStateException("Expected " + i + ": " + batch);
+                            if (i++ % 1000 == 0) Thread.sleep(5);  // falls behind every so often
+                        }
+                    }
+                } catch (Exception e) {
+                    failure.set(e.toString());
+                }
+            });
+            consumer.start();
+            for (int i = 0; i < batches; i++) while (!transport.send(batch(i))) Thread.yield();
+            consumer.join(30000);
+            expect(failure.get() == null).toBeTrue();
+            expect(consumer.isAlive()).toBeFalse();
+            expect(transport.getBatchesWritten()).toEqual(batches);
+            expect(transport.getBatchesRefused()).toBeGreaterThan(0);
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void survivesCrashedWriterTest() throws Exception {
+        File file = tempFile();
+        try {
+            SharedRingTransport transport = new SharedRingTransport(file, 4096);
+            for (int i = 0; i < 3; i++) expect(transport.send(batch(i))).toBeTrue();
+            SharedRingReader reader = new SharedRingReader(file);
+            expect(reader.poll()).toEqual(batch(0));
+
+            // writer dies after writing part of a record, without publishing it
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.seek(64);
+                long tail = raf.readLong();
+                raf.seek(192 + tail);
+                raf.writeInt(1000);
+                raf.write("[[\"partial".getBytes(StandardCharsets.UTF_8));
+            }
+            expect(reader.poll()).toEqual(batch(1));
+            expect(reader.poll()).toEqual(batch(2));
+            expect(reader.poll() == null).toBeTrue();
+
+            // restarted writer and reader resume from their cursors, overwriting the partial record
+            transport = new SharedRingTransport(file, 4096);
+            expect(transport.getUsedBytes()).toEqual(0L);
+            for (int i = 3; i < 6; i++) expect(transport.send(batch(i))).toBeTrue();
+            expect(reader.poll()).toEqual(batch(3));
+            reader = new SharedRingReader(file);
+            expect(reader.poll()).toEqual(batch(4));
+            expect(reader.poll()).toEqual(batch(5));
+            expect(reader.poll() == null).toBeTrue();
+
+            // writer with a different capacity starts a fresh ring
+            transport = new SharedRingTransport(file, 8192);
+            expect(transport.getUsedBytes()).toEqual(0L);
+            expect(new SharedRingReader(file).getCapacity()).toEqual(8192);
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void readsFromSeparateProcessTest() throws Exception {
+        File file = tempFile();
+        Process process = null;
+        try {
+            SharedRingTransport transport = new SharedRingTransport(file, 1024 * 1024);
+            BaseLogger logger = new BaseLogger(MOCK_AGENT, transport);
+            logger.init_dispatcher(MOCK_MESSAGE.length() * 50);
+            for (int i = 0; i < 1000; i++) logger.submit(MOCK_MESSAGE);
+            logger.stop_dispatcher();
+            expect(logger.getSubmitFailures()).toEqual(0);
+
+            String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+            String classes = Paths.get(SharedRingReader.class.getProtectionDomain().getCodeSource().getLocation().toURI()).toString();
+            process = new ProcessBuilder(java, "-cp", classes, "io.resurface.SharedRingReader", file.getPath()).start();
+            try (BufferedReader out = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+                for (int i = 0; i < 1000; i++) expect(out.readLine()).toEqual(MOCK_MESSAGE);
+            }
+            expect(new SharedRingReader(file).getPendingBytes()).toEqual(0L);
+        } finally {
+            if (process != null) process.destroy();
+            file.delete();
+        }
+    }
+
+    private static String batch(int i) {
+        return "[[\"request_url\",\"http://localhost/" + i + "\"]]\n";
+    }
+
+    private static File tempFile() throws IOException {
+        File file = File.createTempFile("resurface-ring", ".ring");
+        file.delete();
+        return file;
+    }
+
+}
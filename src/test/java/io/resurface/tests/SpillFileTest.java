@@ -0,0 +1,183 @@
+// © 2016-2024 Graylog, Inc.
+
+package io.resurface.tests;
+
+import io.resurface.BaseLogger;
+import io.resurface.SpillFile;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static com.mscharhag.oleaster.matcher.Matchers.expect;
+import static io.resurface.tests.Helper.*;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests against memory-mapped overflow for the message queue.
+ */
+public class SpillFileTest {
+
+    @Test
+    public void wrapsAroundInOrderTest() throws Exception {
+        File file = tempFile();
+        try (SpillFile spill = new SpillFile(file, 1024)) {
+            expect(spill.isEmpty()).toBeTrue();
+            expect(spill.poll() == null).toBeTrue();
+            int next_offered = 0;
+            int next_polled = 0;
+            for (int round = 0; round < 50; round++) {
+                while (spill.offer(message(next_offered))) next_offered++;
+                expect(spill.getUsedBytes()).toBeGreaterThan(700L);
+                for (int i = 0; i < 3 + round % 5; i++) expect(spill.poll()).toEqual(message(next_polled++));
+            }
+            while (!spill.isEmpty()) expect(spill.poll()).toEqual(message(next_polled++));
+            expect(next_polled).toEqual(next_offered);
+            expect(spill.getUsedBytes()).toEqual(0L);
+
+            char[] huge = new char[2000];
+            expect(spill.offer(new String(huge))).toBeFalse();
+            expect(spill.offer("été")).toBeTrue();
+            expect(spill.poll()).toEqual("été");
+        }
+
+        try {
+            new SpillFile(file, 10);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+            expect(expected.getMessage()).toContain("Invalid spill capacity");
+        }
+    }
+
+    @Test
+    public void survivesRestartTest() throws Exception {
+        File file = tempFile();
+        SpillFile spill = new SpillFile(file, 4096);
+        for (int i = 0; i < 20; i++) spill.offer(message(i));
+        for (int i = 0; i < 5; i++) spill.poll();
+        spill.close();
+        expect(spill.offer(message(99))).toBeFalse();
+
+        spill = new SpillFile(file, 4096);
+        expect(spill.getCount()).toEqual(15);
+        for (int i = 5; i < 20; i++) expect(spill.poll()).toEqual(message(i));
+        expect(spill.isEmpty()).toBeTrue();
+        spill.close();
+
+        // file written with another capacity starts out empty
+        spill = new SpillFile(file, 8192);
+        expect(spill.isEmpty()).toBeTrue();
+        spill.close();
+    }
+
+    @Test
+    public void locksFileTest() throws Exception {
+        File file = tempFile();
+        SpillFile spill = new SpillFile(file, 4096);
+        try {
+            new SpillFile(file, 4096);
+            fail("Expected IOException");
+        } catch (IOException expected) {
+            expect(expected.getMessage()).toContain("Spill file already in use");
+        }
+        expect(spill.offer(message(1))).toBeTrue();
+        spill.close();
+        spill = new SpillFile(file, 4096);
+        expect(spill.poll()).toEqual(message(1));
+        spill.close();
+    }
+
+    @Test
+    public void dropsWhenFullTest() throws Exception {
+        File file = tempFile();
+        CountDownLatch stalled = new CountDownLatch(1);
+        List<String> delivered = Collections.synchronizedList(new ArrayList<>());
+        BaseLogger logger = new BaseLogger(MOCK_AGENT, batch -> {
+            try {
+                stalled.await();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            delivered.addAll(Arrays.asList(batch.split("\n")));
+            return true;
+        }, true, 1);
+        SpillFile spill = new SpillFile(file, 1024);
+        logger.setSpillFile(spill);
+        logger.init_dispatcher(1);
+        for (int i = 0; i < 200; i++) logger.submit(message(i));
+        expect(logger.getSubmitDropped()).toBeGreaterThan(0);
+
+        // messages queued once the file filled up would have been sent ahead of those in the file
+        stalled.countDown();
+        for (int i = 0; i < 200 && !spill.isEmpty(); i++) Thread.sleep(50);
+        logger.stop_dispatcher();
+        spill.close();
+        expect(delivered.size() + logger.getSubmitDropped()).toEqual(200);
+        int next = 0;
+        for (String msg : delivered) {
+            while (next < 200 && !message(next).equals(msg)) next++;
+            expect(next).toBeSmallerThan(200);
+            next++;
+        }
+    }
+
+    @Test
+    public void spillsWhileCollectorIsDeadTest() throws Exception {
+        File file = tempFile();
+        final int messages = 2000;
+        final String message = mockNdjson(1).trim();
+        List<Long> latencies = new ArrayList<>(messages);
+        try (ServerSocket dead = new ServerSocket(0, 1000)) {
+            // accepts connections into backlog but never responds, so every batch hangs until read timeout
+            BaseLogger logger = new BaseLogger(MOCK_AGENT, "http://127.0.0.1:" + dead.getLocalPort() + "/message");
+            SpillFile spill = new SpillFile(file, 4 * 1024 * 1024);
+            logger.setSpillFile(spill);
+            expect(logger.getSpillFile() == spill).toBeTrue();
+            for (int i = 0; i < messages; i++) {
+                long start = System.nanoTime();
+                logger.submit(message);
+                latencies.add(System.nanoTime() - start);
+            }
+            expect(spill.getCount()).toBeGreaterThan(messages / 2);
+            logger.stop_dispatcher();
+            spill.close();
+        }
+        Collections.sort(latencies);
+        long p99_micros = latencies.get(messages * 99 / 100) / 1000;
+        long max_millis = latencies.get(messages - 1) / 1000000;
+        expect(p99_micros).toBeSmallerThan(1000L);
+        expect(max_millis).toBeSmallerThan(500L);
+
+        // spilled messages are delivered once a collector is reachable again, even after a restart
+        try (MockCollector collector = new MockCollector()) {
+            SpillFile spill = new SpillFile(file, 4 * 1024 * 1024);
+            int spilled = spill.getCount();
+            BaseLogger logger = new BaseLogger(MOCK_AGENT, collector.url());
+            logger.setSpillFile(spill);
+            for (int i = 0; i < 200 && !spill.isEmpty(); i++) Thread.sleep(50);
+            logger.stop_dispatcher();
+            expect(spill.isEmpty()).toBeTrue();
+            expect(collector.messages()).toEqual(spilled);
+            spill.close();
+        }
+    }
+
+    private static String message(int i) {
+        StringBuilder msg = new StringBuilder("[[\"now\",\"").append(i).append("\"]");
+        for (int j = 0; j < i % 7; j++) msg.append(",[\"request_header:x\",\"").append(j).append("\"]");
+        return msg.append("]").toString();
+    }
+
+    private static File tempFile() throws Exception {
+        File file = File.createTempFile("resurface-spill", ".ring");
+        file.deleteOnExit();
+        return file;
+    }
+
+}
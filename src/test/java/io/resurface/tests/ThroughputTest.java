@@ -1,19 +1,46 @@
 package io.resurface.tests;
 
 import io.resurface.BaseLogger;
+import io.resurface.Codec;
+import io.resurface.Compressor;
 import io.resurface.Dispatcher;
+import io.resurface.FileTransport;
+import io.resurface.HttpLogger;
+import io.resurface.HttpTransport;
+import io.resurface.ListTransport;
+import io.resurface.NdjsonDictionary;
+import io.resurface.Relay;
+import io.resurface.SharedRingReader;
+import io.resurface.SharedRingTransport;
+import io.resurface.Transport;
+import io.resurface.UdpTransport;
 import org.junit.Ignore;
 import org.junit.Test;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CyclicBarrier;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
 
 import static com.mscharhag.oleaster.matcher.Matchers.expect;
 import static io.resurface.tests.Helper.MOCK_AGENT;
+import static io.resurface.tests.Helper.MOCK_MESSAGE;
+import static io.resurface.tests.Helper.mockNdjson;
 
 
 @Ignore
@@ -40,6 +67,519 @@ public class ThroughputTest {
         System.out.println();
     }
 
+    @Test
+    public void timedDispatchTest() throws Exception {
+        final int batches = 2000;
+        final String batch = String.join("\n", Collections.nCopies(100, MOCK_MESSAGE)) + "\n";
+        try (MockCollector collector = new MockCollector()) {
+            URL url = new URL(collector.url());
+            long start = System.nanoTime();
+            for (int i = 0; i < batches; i++) legacyDispatch(url, batch);
+            double legacy_rate = batches / ((System.nanoTime() - start) / 1e9);
+            int legacy_connections = collector.connections();
+            collector.reset();
+
+            BaseLogger logger = new BaseLogger(MOCK_AGENT, collector.url());
+            start = System.nanoTime();
+            for (int i = 0; i < batches; i++) logger.dispatch(batch);
+            double pooled_rate = batches / ((System.nanoTime() - start) / 1e9);
+
+            System.out.printf("DISPATCH (batches = %d)%n", batches);
+            System.out.printf("Unpooled: %.0f batches/sec (connections = %d)%n", legacy_rate, legacy_connections);
+            System.out.printf("Pooled: %.0f batches/sec (connections = %d)%n", pooled_rate, collector.connections());
+            expect(logger.getSubmitSuccesses()).toEqual(batches);
+            expect(collector.batches()).toEqual(batches);
+        }
+        System.out.println();
+    }
+
+    @Test
+    public void timedTransportTest() throws Exception {
+        try (MockCollector collector = new MockCollector()) {
+            BaseLogger http_logger = new BaseLogger(MOCK_AGENT, collector.url());
+            timedTransport("HTTP", http_logger.getTransport(), 100000);
+        }
+        timedTransport("LIST", new ListTransport(new ArrayList<>()), 100000);
+        timedTransport("NULL", batch -> true, 100000);
+        System.out.println();
+    }
+
+    @Test
+    public void timedRequestBytesTest() {
+        final int messages = 500000;
+        System.out.println("MAX REQUEST BYTES (null transport)");
+        for (int max_request_bytes : new int[]{0, 1024 * 1024, 64 * 1024}) {
+            BaseLogger logger = new BaseLogger(MOCK_AGENT, batch -> true);
+            logger.setMaxRequestBytes(max_request_bytes);
+            long start = System.nanoTime();
+            for (int i = 0; i < messages; i++) logger.submit(MOCK_MESSAGE);
+            logger.stop_dispatcher();
+            double elapsed = (System.nanoTime() - start) / 1e9;
+            System.out.printf("Max request bytes = %d: %.0f messages/sec, %.0f messages per batch%n", max_request_bytes,
+                    messages / elapsed, logger.getDispatcher().getAverageBatchMessages());
+        }
+        System.out.println();
+    }
+
+    @Test
+    public void timedHttp2TransportTest() throws Exception {
+        try (MockCollector collector = new MockCollector().withLatency(10)) {
+            BaseLogger logger = new BaseLogger(MOCK_AGENT, collector.url());
+            timedTransport("HTTP/1.1 (latency = 10 ms)", logger.getTransport(), 20000);
+            for (int max_in_flight : new int[]{1, 4, 16}) {
+                Transport http2 = HttpTransport.http2(logger, new URL(collector.url()), max_in_flight);
+                timedTransport("HTTP/2 (latency = 10 ms, max in flight = " + max_in_flight + ")", http2, 20000);
+            }
+        }
+        System.out.println();
+    }
+
+    @Test
+    public void timedPipelinedDispatchTest() throws Exception {
+        try (MockCollector collector = new MockCollector().withLatency(10)) {
+            for (int max_in_flight : new int[]{1, 2, 4, 8}) {
+                BaseLogger logger = new BaseLogger(MOCK_AGENT, collector.url());
+                timedTransport("PIPELINED HTTP (latency = 10 ms, max in flight = " + max_in_flight + ")",
+                        logger.getTransport(), 20000, max_in_flight);
+            }
+        }
+        System.out.println();
+    }
+
+    @Test
+    public void timedStreamingDispatchTest() throws Exception {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        try (MockCollector collector = new MockCollector()) {
+            for (boolean streaming : new boolean[]{false, true}) {
+                BaseLogger logger = new BaseLogger(MOCK_AGENT, collector.url());
+                logger.setStreaming(streaming);
+                logger.init_dispatcher();
+                for (int i = 0; i < 10000; i++) logger.submit(MOCK_MESSAGE);  // warm up
+                long allocated = totalAllocatedBytes(threads);
+                long start = System.nanoTime();
+                for (int i = 0; i < 200000; i++) logger.submit(MOCK_MESSAGE);
+                logger.stop_dispatcher();
+                double elapsed = (System.nanoTime() - start) / 1e9;
+                System.out.printf("%s: %.0f messages/sec, %d bytes allocated per message%n",
+                        streaming ? "STREAMING" : "BATCHED", 200000 / elapsed,
+                        (totalAllocatedBytes(threads) - allocated) / 200000);
+            }
+        }
+        System.out.println();
+    }
+
+    @Test
+    public void timedNioTransportTest() throws Exception {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        final String batch = mockNdjson(100);
+        final int batches = 20000;
+        System.out.printf("NIO TRANSPORT (batch = %d chars)%n", batch.length());
+        try (MockCollector collector = new MockCollector()) {
+            for (boolean skip_compression : new boolean[]{true, false}) {
+                for (String rules : new String[]{"allow_http_url", "allow_http_url\nnio_transport"}) {
+                    HttpLogger logger = new HttpLogger(collector.url(), rules);
+                    logger.setSkipCompression(skip_compression);
+                    Transport transport = logger.getTransport();
+                    for (int i = 0; i < 2000; i++) transport.send(batch);  // warm up
+                    long thread = Thread.currentThread().getId();
+                    long allocated = threads.getThreadAllocatedBytes(thread);
+                    long cpu = threads.getCurrentThreadCpuTime();
+                    long start = System.nanoTime();
+                    for (int i = 0; i < batches; i++) transport.send(batch);
+                    double elapsed = (System.nanoTime() - start) / 1e9;
+                    System.out.printf("%s%s: %.0f batches/sec, %.1f us cpu per batch, %d bytes allocated per batch%n",
+                            transport.getClass().getSimpleName(), skip_compression ? " (identity)" : " (deflate)",
+                            batches / elapsed, (threads.getCurrentThreadCpuTime() - cpu) / 1e3 / batches,
+                            (threads.getThreadAllocatedBytes(thread) - allocated) / batches);
+                    transport.close();
+                }
+            }
+        }
+        System.out.println();
+    }
+
+    @Test
+    public void timedUdpTransportTest() throws Exception {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        final String batch = mockNdjson(100);
+        final int batches = 20000;
+        System.out.printf("UDP TRANSPORT (batch = %d chars)%n", batch.length());
+        try (MockCollector collector = new MockCollector(); UdpReceiver receiver = new UdpReceiver()) {
+            BaseLogger logger = new BaseLogger(MOCK_AGENT, collector.url());
+            UdpTransport udp = new UdpTransport(logger, "127.0.0.1", receiver.port());
+            for (Transport transport : new Transport[]{logger.getTransport(), udp}) {
+                for (int i = 0; i < 2000; i++) transport.send(batch);  // warm up
+                long thread = Thread.currentThread().getId();
+                long allocated = threads.getThreadAllocatedBytes(thread);
+                long cpu = threads.getCurrentThreadCpuTime();
+                long start = System.nanoTime();
+                for (int i = 0; i < batches; i++) transport.send(batch);
+                double elapsed = (System.nanoTime() - start) / 1e9;
+                System.out.printf("%s: %.0f batches/sec, %.1f us cpu per batch, %d bytes allocated per batch%n",
+                        transport.getClass().getSimpleName(), batches / elapsed,
+                        (threads.getCurrentThreadCpuTime() - cpu) / 1e3 / batches,
+                        (threads.getThreadAllocatedBytes(thread) - allocated) / batches);
+                transport.close();
+            }
+            Thread.sleep(500);
+            System.out.printf("UdpTransport: %.1f frames per batch, %d frames dropped locally, %d lost in flight, "
+                            + "%d of %d batches reassembled%n", (double) udp.getFramesSent() / udp.getBatchesSent(),
+                    udp.getFramesDropped(), receiver.framesLost(), receiver.batches(), udp.getBatchesSent());
+        }
+        System.out.println();
+    }
+
+    @Test
+    public void timedFileTransportTest() throws Exception {
+        final String batch = mockNdjson(100);
+        final int batches = 4000;
+        System.out.printf("FILE TRANSPORT (batch = %d chars, %s)%n", batch.length(), System.getProperty("java.io.tmpdir"));
+        for (boolean gzip : new boolean[]{false, true}) {
+            for (FileTransport.Fsync fsync : FileTransport.Fsync.values()) {
+                File directory = FileTransportTest.tempDirectory();
+                try {
+                    FileTransport transport = new FileTransport(directory);
+                    transport.setGzip(gzip);
+                    transport.setFsync(fsync);
+                    for (int i = 0; i < 200; i++) transport.send(batch);  // warm up
+                    transport.close();
+                    int fsyncs = transport.getFsyncs();
+                    long written = transport.getBytesWritten();
+                    long start = System.nanoTime();
+                    for (int i = 0; i < batches; i++) transport.send(batch);
+                    transport.close();
+                    double elapsed = (System.nanoTime() - start) / 1e9;
+                    System.out.printf("%s, fsync %s: %.0f MB/sec of NDJSON, %.0f MB/sec to disk, %.1f us per batch, "
+                                    + "%d fsyncs%n", gzip ? "gzip" : "identity", fsync,
+                            (double) batch.length() * batches / elapsed / 1e6,
+                            (transport.getBytesWritten() - written) / elapsed / 1e6, elapsed * 1e6 / batches,
+                            transport.getFsyncs() - fsyncs);
+                } finally {
+                    FileTransportTest.delete(directory);
+                }
+            }
+        }
+        System.out.println();
+    }
+
+    @Test
+    public void timedSharedRingTransportTest() throws Exception {
+        final String batch = mockNdjson(100);
+        final int batches = 20000;
+        File dir = new File("/dev/shm").isDirectory() ? new File("/dev/shm") : new File(System.getProperty("java.io.tmpdir"));
+        File file = new File(dir, "resurface-bench.ring");
+        System.out.printf("SHARED RING TRANSPORT (batch = %d chars, %s)%n", batch.length(), dir);
+        try {
+            SharedRingTransport transport = new SharedRingTransport(file, 16 * 1024 * 1024);
+            SharedRingReader reader = new SharedRingReader(file);
+            AtomicBoolean running = new AtomicBoolean(true);
+            AtomicInteger received = new AtomicInteger();
+            Thread consumer = new Thread(() -> {
+                while (running.get() || reader.getPendingBytes() > 0) {
+                    if (reader.pollBytes() != null) received.incrementAndGet();
+                }
+            });
+            consumer.start();
+            for (int i = 0; i < 2000; i++) while (!transport.send(batch)) Thread.yield();  // warm up
+            com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+            long[] latencies = new long[batches];
+            long allocated = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+            long start = System.nanoTime();
+            for (int i = 0; i < batches; i++) {
+                long sent = System.nanoTime();
+                while (!transport.send(batch)) Thread.yield();
+                latencies[i] = System.nanoTime() - sent;
+            }
+            double elapsed = (System.nanoTime() - start) / 1e9;
+            allocated = threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - allocated;
+            running.set(false);
+            consumer.join();
+            Arrays.sort(latencies);
+            System.out.printf("%.0f batches/sec, %.0f MB/sec, send p50 %.1f us, p99 %.1f us, %d bytes allocated "
+                            + "per batch, %d refused, %d received%n", batches / elapsed,
+                    (double) batch.length() * batches / elapsed / 1e6, latencies[batches / 2] / 1e3,
+                    latencies[batches * 99 / 100] / 1e3, allocated / batches, transport.getBatchesRefused(),
+                    received.get());
+            expect(received.get()).toEqual(transport.getBatchesWritten());
+        } finally {
+            file.delete();
+        }
+        System.out.println();
+    }
+
+    @Test
+    public void timedRelayTest() throws Exception {
+        final int clients = 8;
+        final int messages = 20000;
+        System.out.printf("RELAY (%d clients, %d messages each)%n", clients, messages);
+        for (boolean relayed : new boolean[]{false, true}) {
+            try (MockCollector collector = new MockCollector().withLatency(2)) {
+                BaseLogger upstream = new BaseLogger(MOCK_AGENT, collector.url());
+                upstream.setLingerMillis(20);
+                upstream.init_dispatcher(512 * 1024, 2);
+                Relay relay = relayed ? RelayTest.relay(upstream) : null;
+                // each client stands in for a separate JVM, with its own queue, dispatcher and connection
+                List<BaseLogger> loggers = new ArrayList<>();
+                for (int i = 0; i < clients; i++) {
+                    BaseLogger logger = new BaseLogger(MOCK_AGENT, relayed ? relay.getUrl() : collector.url());
+                    if (relayed) logger.setCodec(Codec.IDENTITY);  // loopback, so leave compression to the relay
+                    logger.init_dispatcher();
+                    loggers.add(logger);
+                }
+                CyclicBarrier barrier = new CyclicBarrier(clients + 1);
+                List<Thread> apps = new ArrayList<>();
+                for (BaseLogger logger : loggers) {
+                    Thread app = new Thread(() -> {
+                        try {
+                            barrier.await();
+                            for (int i = 0; i < messages; i++) logger.submit(MOCK_MESSAGE);
+                            logger.stop_dispatcher();
+                        } catch (Exception e) {
+                            throw new IllegalStateException(e);
+                        }
+                    });
+                    app.start();
+                    apps.add(app);
+                }
+                barrier.await();
+                long start = System.nanoTime();
+                for (Thread app : apps) app.join();
+                if (relay != null) relay.close();
+                upstream.stop_dispatcher();
+                double elapsed = (System.nanoTime() - start) / 1e9;
+                int client_batches = 0;
+                for (BaseLogger logger : loggers) client_batches += logger.getSubmitSuccesses();
+                expect(collector.messages()).toEqual(clients * messages);
+                System.out.printf("%s: %.0f messages/sec, %d client batches, %d upstream batches of %.0f messages, "
+                                + "%d KB upstream%n", relayed ? "relayed" : "direct", clients * messages / elapsed,
+                        client_batches, collector.batches(), (double) collector.messages() / collector.batches(),
+                        collector.bytes() / 1024);
+            }
+        }
+        System.out.println();
+    }
+
+    @Test
+    public void timedStartupTest() throws Exception {
+        final String batch = mockNdjson(100);
+        final int rounds = 200;
+        System.out.println("STARTUP (first batch latency)");
+        try (MockCollector collector = new MockCollector()) {
+            long[] cold = new long[rounds];
+            long[] warm = new long[rounds];
+            long[] steady = new long[rounds];
+            for (int r = 0; r < rounds; r++) {
+                BaseLogger logger = new BaseLogger(MOCK_AGENT, collector.url());
+                logger.getWarmUp().get();
+                long start = System.nanoTime();
+                logger.getTransport().send(batch);
+                warm[r] = System.nanoTime() - start;
+                start = System.nanoTime();
+                logger.getTransport().send(batch);
+                steady[r] = System.nanoTime() - start;
+                logger.getTransport().close();
+
+                Transport transport = new HttpTransport(logger, new URL(collector.url()));
+                start = System.nanoTime();
+                transport.send(batch);
+                cold[r] = System.nanoTime() - start;
+                transport.close();
+            }
+            for (Object[] result : new Object[][]{{"Cold", cold}, {"Warmed up", warm}, {"Steady state", steady}}) {
+                long[] times = (long[]) result[1];
+                Arrays.sort(times);
+                System.out.printf("%s: p50 = %.1f us, p99 = %.1f us%n", result[0],
+                        times[rounds / 2] / 1e3, times[rounds * 99 / 100] / 1e3);
+            }
+        }
+        System.out.println();
+    }
+
+    private static long totalAllocatedBytes(com.sun.management.ThreadMXBean threads) {
+        long total = 0;
+        for (long allocated : threads.getThreadAllocatedBytes(threads.getAllThreadIds())) total += Math.max(0, allocated);
+        return total;
+    }
+
+    @Test
+    public void timedCompressionTest() {
+        final String[] strategy_names = {"DEFAULT", "FILTERED", "HUFFMAN_ONLY"};
+        final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        final byte[] batch = mockNdjson(100).getBytes(StandardCharsets.UTF_8);
+        final int iterations = 2000;
+        System.out.printf("COMPRESSION (batch = %d bytes)%n", batch.length);
+        for (int strategy = 0; strategy < strategy_names.length; strategy++) {
+            for (int level : new int[]{Deflater.BEST_SPEED, Deflater.DEFAULT_COMPRESSION, Deflater.BEST_COMPRESSION}) {
+                Compressor compressor = new Compressor(level, strategy);
+                int length = 0;
+                for (int i = 0; i < 200; i++) length = compressor.deflate(batch, 0, batch.length);  // warm up
+                long cpu = threads.getCurrentThreadCpuTime();
+                for (int i = 0; i < iterations; i++) length = compressor.deflate(batch, 0, batch.length);
+                double micros = (threads.getCurrentThreadCpuTime() - cpu) / 1000.0 / iterations;
+                System.out.printf("Level %d, strategy %s: ratio %.1f, %.0f us/batch%n", level, strategy_names[strategy],
+                        (double) batch.length / length, micros);
+                compressor.end();
+            }
+        }
+        System.out.println();
+    }
+
+    @Test
+    public void timedCodecTest() throws Exception {
+        final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        final int iterations = 2000;
+        for (int messages : new int[]{10, 100}) {
+            final byte[] batch = mockNdjson(messages).getBytes(StandardCharsets.UTF_8);
+            System.out.printf("CODECS (batch = %d bytes)%n", batch.length);
+            for (Codec codec : new Codec[]{Codec.DEFLATE, Codec.GZIP, Codec.LZ4}) {
+                for (int level : new int[]{Deflater.BEST_SPEED, Deflater.DEFAULT_COMPRESSION}) {
+                    if (codec == Codec.LZ4 && level != Deflater.DEFAULT_COMPRESSION) continue;
+                    Compressor compressor = new Compressor(level, Deflater.DEFAULT_STRATEGY);
+                    int length = 0;
+                    for (int i = 0; i < 200; i++) length = compressor.encode(codec, batch, 0, batch.length);  // warm up
+                    long cpu = threads.getCurrentThreadCpuTime();
+                    for (int i = 0; i < iterations; i++) length = compressor.encode(codec, batch, 0, batch.length);
+                    double micros = (threads.getCurrentThreadCpuTime() - cpu) / 1000.0 / iterations;
+                    System.out.printf("%s (level %d): %d bytes on wire, ratio %.1f, %.0f us/batch%n", codec, level,
+                            length, (double) batch.length / length, micros);
+                    compressor.end();
+                }
+            }
+            System.out.println();
+        }
+    }
+
+    @Test
+    public void timedDictionaryTest() {
+        final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        final int iterations = 2000;
+        System.out.println("DICTIONARY");
+        for (int messages : new int[]{1, 10, 100}) {
+            final byte[] batch = mockNdjson(messages).getBytes(StandardCharsets.UTF_8);
+            for (boolean dictionary : new boolean[]{false, true}) {
+                Compressor compressor = new Compressor();
+                compressor.setDictionary(dictionary ? NdjsonDictionary.bytes() : null);
+                int length = 0;
+                for (int i = 0; i < 200; i++) length = compressor.deflate(batch, 0, batch.length);  // warm up
+                long cpu = threads.getCurrentThreadCpuTime();
+                for (int i = 0; i < iterations; i++) length = compressor.deflate(batch, 0, batch.length);
+                double micros = (threads.getCurrentThreadCpuTime() - cpu) / 1000.0 / iterations;
+                System.out.printf("%d messages, %s: %d -> %d bytes, ratio %.1f, %.0f us/batch%n", messages,
+                        dictionary ? "preset dictionary" : "no dictionary", batch.length, length,
+                        (double) batch.length / length, micros);
+                compressor.end();
+            }
+        }
+        System.out.println();
+    }
+
+    @Test
+    public void timedAdaptiveBatchingTest() throws Exception {
+        final int seconds = 5;
+        System.out.println("ADAPTIVE BATCHING (20 ms round trip, 20 MB/sec link)");
+        for (boolean adaptive : new boolean[]{false, true}) {
+            AtomicInteger delivered = new AtomicInteger();
+            BaseLogger logger = new BaseLogger(MOCK_AGENT, batch -> {
+                try {
+                    Thread.sleep(20 + batch.length() / 20000);
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                delivered.addAndGet(batch.length() / (MOCK_MESSAGE.length() + 1));
+                return true;
+            }, true, 100000);
+            if (adaptive) logger.setAdaptiveBatching(10 * 1024, 2 * 1024 * 1024);
+            logger.init_dispatcher();
+            AtomicBoolean running = new AtomicBoolean(true);
+            Thread producer = new Thread(() -> {
+                while (running.get()) logger.submit(MOCK_MESSAGE);
+            });
+            producer.setDaemon(true);
+            producer.start();
+            for (int second = 1; second <= seconds; second++) {
+                int before = delivered.get();
+                Thread.sleep(1000);
+                System.out.printf("%s, second %d: %d messages/sec, threshold %d%n", adaptive ? "Adaptive" : "Fixed",
+                        second, delivered.get() - before, logger.getDispatcher().getBatchThreshold());
+            }
+            running.set(false);
+            producer.join();
+            logger.stop_dispatcher();
+        }
+        System.out.println();
+    }
+
+    @Test
+    public void timedLingerTest() throws Exception {
+        System.out.println("LINGER WINDOW (bursts of 5 messages every 2 ms, 1 ms per request)");
+        for (long linger : new long[]{0, 5, 20, 100}) {
+            BaseLogger logger = new BaseLogger(MOCK_AGENT, batch -> {
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                return true;
+            });
+            logger.setLingerMillis(linger);
+            logger.init_dispatcher();
+            long start = System.nanoTime();
+            for (int burst = 0; burst < 1000; burst++) {
+                for (int i = 0; i < 5; i++) logger.submit(MOCK_MESSAGE);
+                Thread.sleep(2);
+            }
+            logger.stop_dispatcher();
+            long elapsed = System.nanoTime() - start;
+            Dispatcher dispatcher = logger.getDispatcher();
+            System.out.printf("Linger %d ms: %d batches, %.1f messages/batch, %.0f requests/sec%n", linger,
+                    dispatcher.getBatchCount(), dispatcher.getAverageBatchMessages(),
+                    dispatcher.getBatchCount() / (elapsed / 1e9));
+        }
+        System.out.println();
+    }
+
+    /**
+     * Drives transport through a dispatcher thread and reports message rate.
+     */
+    static void timedTransport(String name, Transport transport, int messages) {
+        timedTransport(name, transport, messages, 1);
+    }
+
+    /**
+     * Drives transport through a pipelined dispatcher thread and reports message rate.
+     */
+    static void timedTransport(String name, Transport transport, int messages, int max_in_flight) {
+        BaseLogger logger = new BaseLogger(MOCK_AGENT, transport);
+        logger.setMaxInFlight(max_in_flight);
+        long start = System.nanoTime();
+        for (int i = 0; i < messages; i++) logger.submit(MOCK_MESSAGE);
+        logger.stop_dispatcher();
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%s TRANSPORT: %.0f messages/sec (successes = %d, failures = %d)%n", name,
+                messages / elapsed, logger.getSubmitSuccesses(), logger.getSubmitFailures());
+    }
+
+    /**
+     * Posts batch the way dispatch did before connections were pooled.
+     */
+    private static void legacyDispatch(URL url, String msg) throws Exception {
+        HttpURLConnection url_connection = (HttpURLConnection) url.openConnection();
+        url_connection.setConnectTimeout(5000);
+        url_connection.setReadTimeout(1000);
+        url_connection.setRequestMethod("POST");
+        url_connection.setRequestProperty("Content-Type", "application/ndjson; charset=UTF-8");
+        url_connection.setRequestProperty("Content-Encoding", "deflated");
+        url_connection.setDoOutput(true);
+        try (OutputStream os = url_connection.getOutputStream()) {
+            try (DeflaterOutputStream dos = new DeflaterOutputStream(os, true)) {
+                dos.write(msg.getBytes(StandardCharsets.UTF_8));
+                dos.finish();
+                dos.flush();
+            }
+        }
+        expect(url_connection.getResponseCode()).toEqual(204);
+    }
+
     private void timedMessageQueuePutTakeTest(BaseLogger logger, int messageCount, int iterations) {
         final long[] results = new long[iterations];
 
@@ -0,0 +1,154 @@
+// © 2016-2024 Graylog, Inc.
+
+package io.resurface.tests;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Local receiver that reassembles framed UDP batches, for measuring loss without a network.
+ */
+public class UdpReceiver implements AutoCloseable {
+
+    /**
+     * Starts receiver on an ephemeral loopback port.
+     */
+    public UdpReceiver() throws IOException {
+        channel = DatagramChannel.open();
+        channel.setOption(StandardSocketOptions.SO_RCVBUF, 8 * 1024 * 1024);
+        channel.bind(new InetSocketAddress("127.0.0.1", 0));
+        Thread reader = new Thread(this::receive, "udp-receiver");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * Returns port where receiver listens.
+     */
+    public int port() throws IOException {
+        return ((InetSocketAddress) channel.getLocalAddress()).getPort();
+    }
+
+    /**
+     * Returns count of batches with every frame received.
+     */
+    public int batches() {
+        return batches.get();
+    }
+
+    /**
+     * Returns count of frames received.
+     */
+    public synchronized int frames() {
+        return frames;
+    }
+
+    /**
+     * Returns count of frames missing from the sequence received so far.
+     */
+    public synchronized int framesLost() {
+        return (highest_sequence + 1) - frames;
+    }
+
+    /**
+     * Returns count of batches started but still missing frames.
+     */
+    public synchronized int incompleteBatches() {
+        return partial.size();
+    }
+
+    /**
+     * Returns count of NDJSON messages in reassembled batches.
+     */
+    public int messages() {
+        return messages.get();
+    }
+
+    /**
+     * Waits until count of messages is received, or timeout passes.
+     */
+    public boolean awaitMessages(int count, long timeout_millis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeout_millis;
+        while (messages.get() < count) {
+            if (System.currentTimeMillis() > deadline) return false;
+            Thread.sleep(1);
+        }
+        return true;
+    }
+
+    /**
+     * Stops receiver.
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private void receive() {
+        ByteBuffer datagram = ByteBuffer.allocate(65536);
+        try {
+            while (true) {
+                datagram.clear();
+                channel.receive(datagram);
+                datagram.flip();
+                byte[] batch = add(datagram);
+                if (batch != null) {
+                    String ndjson = new String(MockCollector.inflate(batch), StandardCharsets.UTF_8);
+                    int count = 0;
+                    for (String line : ndjson.split("\n")) if (!line.isEmpty()) count++;
+                    messages.addAndGet(count);
+                    batches.incrementAndGet();
+                }
+            }
+        } catch (IOException e) {
+            // closed
+        }
+    }
+
+    /**
+     * Records frame, returning reassembled batch once its last missing frame arrives.
+     */
+    private synchronized byte[] add(ByteBuffer datagram) throws IOException {
+        if (datagram.get() != 1) throw new IOException("Unknown frame version");
+        datagram.get();  // flags, since inflating detects the dictionary on its own
+        int frame_sequence = datagram.getInt();
+        int batch_sequence = datagram.getInt();
+        int index = datagram.getShort() & 0xFFFF;
+        int count = datagram.getShort() & 0xFFFF;
+        byte[] chunk = new byte[datagram.remaining()];
+        datagram.get(chunk);
+        frames++;
+        highest_sequence = Math.max(highest_sequence, frame_sequence);
+
+        byte[][] chunks = partial.computeIfAbsent(batch_sequence, k -> new byte[count][]);
+        chunks[index] = chunk;
+        int length = 0;
+        for (byte[] c : chunks) {
+            if (c == null) return null;
+            length += c.length;
+        }
+        partial.remove(batch_sequence);
+        byte[] batch = new byte[length];
+        int offset = 0;
+        for (byte[] c : chunks) {
+            System.arraycopy(c, 0, batch, offset, c.length);
+            offset += c.length;
+        }
+        return batch;
+    }
+
+    private final AtomicInteger batches = new AtomicInteger();
+    private final DatagramChannel channel;
+    private int frames = 0;
+    private int highest_sequence = -1;
+    private final AtomicInteger messages = new AtomicInteger();
+    private final Map<Integer, byte[][]> partial = new HashMap<>();
+
+}
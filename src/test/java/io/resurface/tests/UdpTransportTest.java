@@ -0,0 +1,111 @@
+// © 2016-2024 Graylog, Inc.
+
+package io.resurface.tests;
+
+import io.resurface.BaseLogger;
+import io.resurface.UdpTransport;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static com.mscharhag.oleaster.matcher.Matchers.expect;
+import static io.resurface.tests.Helper.*;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests against transport firing framed batches as UDP datagrams.
+ */
+public class UdpTransportTest {
+
+    @Test
+    public void sendsFramedBatchesTest() throws Exception {
+        try (UdpReceiver receiver = new UdpReceiver()) {
+            BaseLogger logger = new BaseLogger(MOCK_AGENT, "http://127.0.0.1:1/message", false);
+            UdpTransport transport = new UdpTransport(logger, "127.0.0.1", receiver.port());
+            expect(transport.getMaxDatagram()).toEqual(1472);
+            transport.warmUp();
+            expect(transport.send(mockNdjson(1))).toBeTrue();
+            expect(transport.getFramesSent()).toEqual(1L);
+
+            // random body deflates poorly, so its batch spans several frames
+            StringBuilder body = new StringBuilder();
+            Random random = new Random(1);
+            for (int i = 0; i < 20000; i++) body.append(Character.forDigit(random.nextInt(16), 16));
+            expect(transport.send("[[\"request_body\",\"" + body + "\"]]\n")).toBeTrue();
+            expect(transport.getFramesSent()).toBeGreaterThan(5L);
+            expect(transport.getBatchesSent()).toEqual(2);
+
+            logger.setCompressionDictionary(true);
+            expect(transport.send(mockNdjson(20))).toBeTrue();
+            expect(receiver.awaitMessages(22, 5000)).toBeTrue();
+            expect(receiver.batches()).toEqual(3);
+            expect(receiver.frames()).toEqual((int) transport.getFramesSent());
+            expect(receiver.framesLost()).toEqual(0);
+            expect(receiver.incompleteBatches()).toEqual(0);
+            expect(transport.getFramesDropped()).toEqual(0L);
+            transport.close();
+        }
+
+        try {
+            new UdpTransport(null, "127.0.0.1", 9, 14);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+            expect(expected.getMessage()).toContain("Invalid max datagram");
+        }
+    }
+
+    @Test
+    public void dispatchesThroughLoggerTest() throws Exception {
+        try (UdpReceiver receiver = new UdpReceiver()) {
+            BaseLogger logger = new BaseLogger(MOCK_AGENT, "http://127.0.0.1:1/message");
+            UdpTransport transport = new UdpTransport(logger, "127.0.0.1", receiver.port());
+            logger.setTransport(transport);
+            logger.init_dispatcher(MOCK_MESSAGE.length() * 50);
+            for (int i = 0; i < 1000; i++) logger.submit(MOCK_MESSAGE);
+            logger.stop_dispatcher();
+            expect(logger.getSubmitFailures()).toEqual(0);
+            expect(receiver.awaitMessages(1000, 5000)).toBeTrue();
+            expect(receiver.batches()).toEqual(transport.getBatchesSent());
+        }
+    }
+
+    @Test
+    public void ignoresMissingReceiverTest() throws Exception {
+        int port;
+        try (UdpReceiver receiver = new UdpReceiver()) {
+            port = receiver.port();
+        }
+        BaseLogger logger = new BaseLogger(MOCK_AGENT, "http://127.0.0.1:1/message", false);
+        UdpTransport transport = new UdpTransport(logger, "127.0.0.1", port);
+        for (int i = 0; i < 10; i++) expect(transport.send(mockNdjson(1))).toBeTrue();
+        expect(transport.getFramesSent()).toEqual(10L);
+        transport.close();
+    }
+
+    @Test
+    public void countsDroppedFramesTest() throws Exception {
+        try (UdpReceiver receiver = new UdpReceiver()) {
+            BaseLogger logger = new BaseLogger(MOCK_AGENT, "http://127.0.0.1:1/message", false);
+            UdpTransport transport = new UdpTransport(logger, "127.0.0.1", receiver.port(), 15);
+            StringBuilder body = new StringBuilder();
+            Random random = new Random(42);
+            while (body.length() < 200000) body.append(Integer.toHexString(random.nextInt()));
+
+            // batch needs more one-byte frames than the header can number, so all are dropped but none resent
+            expect(transport.send("[[\"request_body\",\"" + body + "\"]]\n")).toBeTrue();
+            expect(transport.getFramesDropped()).toBeGreaterThan(0xFFFFL);
+            expect(transport.getFramesSent()).toEqual(0L);
+            transport.close();
+        }
+
+        // broadcast address is refused without SO_BROADCAST, so every frame fails but the batch still counts as sent
+        BaseLogger logger = new BaseLogger(MOCK_AGENT, "http://127.0.0.1:1/message", false);
+        UdpTransport transport = new UdpTransport(logger, "255.255.255.255", 9, 100);
+        expect(transport.send(mockNdjson(5))).toBeTrue();
+        expect(transport.getFramesDropped()).toBeGreaterThan(1L);
+        expect(transport.getFramesSent()).toEqual(0L);
+        expect(transport.getBatchesSent()).toEqual(1);
+        transport.close();
+    }
+
+}
@@ -0,0 +1,166 @@
+// © 2016-2024 Graylog, Inc.
+
+package io.resurface.tests;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Local agent that reads length-framed NDJSON batches from a Unix domain socket, for testing framing.
+ */
+public class UnixSocketPeer implements AutoCloseable {
+
+    /**
+     * Starts agent listening on a socket in a new temporary directory.
+     */
+    public UnixSocketPeer() throws IOException {
+        directory = Files.createTempDirectory("resurface-peer");
+        path = directory.resolve("agent.sock");
+        server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        server.bind(UnixDomainSocketAddress.of(path));
+        Thread acceptor = new Thread(this::accept, "unix-socket-peer");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * Returns path of socket where agent listens.
+     */
+    public Path path() {
+        return path;
+    }
+
+    /**
+     * Returns batches received, in arrival order.
+     */
+    public List<String> batches() {
+        return batches;
+    }
+
+    /**
+     * Returns count of frame bytes received, including length prefixes.
+     */
+    public long bytes() {
+        return bytes.get();
+    }
+
+    /**
+     * Returns count of connections accepted.
+     */
+    public int connections() {
+        return connections.get();
+    }
+
+    /**
+     * Returns count of NDJSON messages received.
+     */
+    public int messages() {
+        return messages.get();
+    }
+
+    /**
+     * Closes every accepted connection while still listening, like an agent that restarted.
+     */
+    public void disconnect() throws IOException {
+        synchronized (clients) {
+            for (SocketChannel client : clients) client.close();
+            clients.clear();
+        }
+    }
+
+    /**
+     * Counts batches without keeping them, for long measurements.
+     */
+    public UnixSocketPeer withoutBatches() {
+        this.keep_batches = false;
+        return this;
+    }
+
+    /**
+     * Waits until count of messages is received, or timeout passes.
+     */
+    public boolean awaitMessages(int count, long timeout_millis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeout_millis;
+        while (messages.get() < count) {
+            if (System.currentTimeMillis() > deadline) return false;
+            Thread.sleep(1);
+        }
+        return true;
+    }
+
+    /**
+     * Stops agent and removes its socket.
+     */
+    @Override
+    public void close() throws IOException {
+        server.close();
+        disconnect();
+        Files.deleteIfExists(path);
+        Files.deleteIfExists(directory);
+    }
+
+    private void accept() {
+        try {
+            while (true) {
+                SocketChannel client = server.accept();
+                connections.incrementAndGet();
+                synchronized (clients) {
+                    clients.add(client);
+                }
+                Thread reader = new Thread(() -> read(client), "unix-socket-peer-reader");
+                reader.setDaemon(true);
+                reader.start();
+            }
+        } catch (IOException e) {
+            // closed
+        }
+    }
+
+    private void read(SocketChannel client) {
+        ByteBuffer length = ByteBuffer.allocate(4);
+        try {
+            while (true) {
+                length.clear();
+                fill(client, length);
+                ByteBuffer payload = ByteBuffer.allocate(length.getInt(0));
+                fill(client, payload);
+                String batch = new String(payload.array(), StandardCharsets.UTF_8);
+                int count = 0;
+                for (String line : batch.split("\n")) if (!line.isEmpty()) count++;
+                if (keep_batches) batches.add(batch);
+                bytes.addAndGet(4 + payload.capacity());
+                messages.addAndGet(count);
+            }
+        } catch (IOException e) {
+            // closed by either side, dropping any partial frame
+        }
+    }
+
+    private static void fill(SocketChannel client, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) if (client.read(buffer) == -1) throw new EOFException();
+    }
+
+    private final List<String> batches = Collections.synchronizedList(new ArrayList<>());
+    private final AtomicLong bytes = new AtomicLong();
+    private final List<SocketChannel> clients = new ArrayList<>();
+    private final AtomicInteger connections = new AtomicInteger();
+    private final Path directory;
+    private volatile boolean keep_batches = true;
+    private final AtomicInteger messages = new AtomicInteger();
+    private final Path path;
+    private final ServerSocketChannel server;
+
+}
@@ -0,0 +1,50 @@
+package io.resurface.tests;
+
+import io.resurface.HttpLogger;
+import io.resurface.Transport;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+import static io.resurface.tests.Helper.mockNdjson;
+
+
+@Ignore
+public class UnixSocketThroughputTest {
+    @Test
+    public void timedUnixSocketTransportTest() throws Exception {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        final String batch = mockNdjson(100);
+        final int batches = 20000;
+        System.out.printf("UNIX SOCKET TRANSPORT (batch = %d chars)%n", batch.length());
+        try (MockCollector collector = new MockCollector(); UnixSocketPeer peer = new UnixSocketPeer().withoutBatches()) {
+            HttpLogger logger = new HttpLogger(collector.url(), "allow_http_url");
+            logger.setSkipCompression(true);
+            for (Transport transport : new Transport[]{logger.getTransport(), Transport.unixSocket(peer.path())}) {
+                for (int i = 0; i < 2000; i++) transport.send(batch);  // warm up
+                long[] times = new long[batches];
+                long thread = Thread.currentThread().getId();
+                long allocated = threads.getThreadAllocatedBytes(thread);
+                long cpu = threads.getCurrentThreadCpuTime();
+                long start = System.nanoTime();
+                for (int i = 0; i < batches; i++) {
+                    long started = System.nanoTime();
+                    transport.send(batch);
+                    times[i] = System.nanoTime() - started;
+                }
+                double elapsed = (System.nanoTime() - start) / 1e9;
+                Arrays.sort(times);
+                System.out.printf("%s: %.0f batches/sec, p50 = %.1f us, p99 = %.1f us, %.1f us cpu per batch, "
+                                + "%d bytes allocated per batch%n", transport.getClass().getSimpleName(), batches / elapsed,
+                        times[batches / 2] / 1e3, times[batches * 99 / 100] / 1e3,
+                        (threads.getCurrentThreadCpuTime() - cpu) / 1e3 / batches,
+                        (threads.getThreadAllocatedBytes(thread) - allocated) / batches);
+                transport.close();
+            }
+        }
+        System.out.println();
+    }
+
+}
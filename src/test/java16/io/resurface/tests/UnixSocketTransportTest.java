@@ -0,0 +1,89 @@
+// © 2016-2024 Graylog, Inc.
+
+package io.resurface.tests;
+
+import io.resurface.BaseLogger;
+import io.resurface.Transport;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+import static com.mscharhag.oleaster.matcher.Matchers.expect;
+import static io.resurface.tests.Helper.*;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests against transport writing length-framed batches to a Unix domain socket.
+ */
+public class UnixSocketTransportTest {
+
+    @Test
+    public void sendsFramedBatchesTest() throws Exception {
+        try (UnixSocketPeer peer = new UnixSocketPeer()) {
+            Transport transport = Transport.unixSocket(peer.path());
+            transport.warmUp();
+            String unicode = "[[\"request_body\",\"été 🌞\"]]\n";
+            String large = mockNdjson(5000);
+            expect(transport.send(mockNdjson(10))).toBeTrue();
+            expect(transport.send(unicode)).toBeTrue();
+            expect(transport.send(large)).toBeTrue();
+            expect(peer.awaitMessages(5011, 5000)).toBeTrue();
+            expect(peer.batches().size()).toEqual(3);
+            expect(peer.batches().get(0)).toEqual(mockNdjson(10));
+            expect(peer.batches().get(1)).toEqual(unicode);
+            expect(peer.batches().get(2)).toEqual(large);
+            long expected_bytes = 12 + mockNdjson(10).length() + unicode.getBytes(StandardCharsets.UTF_8).length
+                    + large.length();
+            expect(peer.bytes()).toEqual(expected_bytes);
+            expect(peer.connections()).toEqual(1);
+            transport.close();
+        }
+    }
+
+    @Test
+    public void reconnectsToRestartedAgentTest() throws Exception {
+        Path path;
+        Transport transport;
+        try (UnixSocketPeer peer = new UnixSocketPeer()) {
+            path = peer.path();
+            transport = Transport.unixSocket(path);
+            expect(transport.send(mockNdjson(1))).toBeTrue();
+            expect(peer.awaitMessages(1, 5000)).toBeTrue();
+            peer.disconnect();
+            Thread.sleep(100);  // closing a channel with a blocked reader completes asynchronously
+            expect(transport.send(mockNdjson(2))).toBeTrue();
+            expect(peer.awaitMessages(3, 5000)).toBeTrue();
+            expect(peer.connections()).toEqual(2);
+        }
+        Thread.sleep(100);
+        try {
+            transport.send(mockNdjson(1));
+            fail("Expected IOException");
+        } catch (IOException expected) {
+            // agent gone
+        }
+        try {
+            Transport.unixSocket(path).warmUp();
+            fail("Expected IOException");
+        } catch (IOException expected) {
+            // nothing listening
+        }
+    }
+
+    @Test
+    public void dispatchesThroughLoggerTest() throws Exception {
+        try (UnixSocketPeer peer = new UnixSocketPeer()) {
+            BaseLogger logger = new BaseLogger(MOCK_AGENT, Transport.unixSocket(peer.path()));
+            logger.init_dispatcher(MOCK_MESSAGE.length() * 50);
+            for (int i = 0; i < 1000; i++) logger.submit(MOCK_MESSAGE);
+            logger.stop_dispatcher();
+            expect(peer.awaitMessages(1000, 5000)).toBeTrue();
+            expect(logger.getSubmitFailures()).toEqual(0);
+            expect(logger.getSubmitSuccesses()).toEqual(peer.batches().size());
+            expect(peer.batches().size()).toBeSmallerThan(1000);
+        }
+    }
+
+}